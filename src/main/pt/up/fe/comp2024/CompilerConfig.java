@@ -10,6 +10,9 @@ public class CompilerConfig {
     private static final String INPUT_FILE = "inputFile";
     private static final String OPTIMIZE = "optimize";
     private static final String REGISTER = "registerAllocation";
+    private static final String BYTECODE = "bytecodeVersion";
+    private static final String ALLOCATOR = "registerAllocator";
+    private static final String INLINE_BUDGET = "inlineBudget";
 
 
     static Map<String, String> shortToLong = new HashMap<>();
@@ -18,6 +21,9 @@ public class CompilerConfig {
         shortToLong.put("i", CompilerConfig.INPUT_FILE);
         shortToLong.put("o", CompilerConfig.OPTIMIZE);
         shortToLong.put("r", CompilerConfig.REGISTER);
+        shortToLong.put("b", CompilerConfig.BYTECODE);
+        shortToLong.put("a", CompilerConfig.ALLOCATOR);
+        shortToLong.put("l", CompilerConfig.INLINE_BUDGET);
     }
 
 
@@ -40,6 +46,37 @@ public class CompilerConfig {
         return Integer.parseInt(config.getOrDefault(REGISTER, "-1"));
     }
 
+    /**
+     * @return the major version of the class files to generate, or -1 to use the default of Jasmin
+     */
+    public static int getBytecodeVersion(Map<String, String> config) {
+        return Integer.parseInt(config.getOrDefault(BYTECODE, "-1"));
+    }
+
+
+    /**
+     * @return "graph" for graph coloring, "linear" for linear scan or "none" to keep a register per variable;
+     * by default, graph coloring when -r is given and linear scan otherwise
+     */
+    public static String getRegisterAllocator(Map<String, String> config) {
+        var allocator = config.getOrDefault(ALLOCATOR, getRegisterAllocation(config) >= 0 ? "graph" : "linear");
+        if (!allocator.equals("graph") && !allocator.equals("linear") && !allocator.equals("none")) {
+            throw new RuntimeException("Unknown register allocator '" + allocator + "', use graph, linear or none");
+        }
+        return allocator;
+    }
+
+    /**
+     * @return how many instructions inlining a call may add to a method when optimizing, 0 to not inline
+     */
+    public static int getInlineBudget(Map<String, String> config) {
+        int budget = Integer.parseInt(config.getOrDefault(INLINE_BUDGET, "10"));
+        if (budget < 0) {
+            throw new RuntimeException("The inlining budget must not be negative, got " + budget);
+        }
+        return budget;
+    }
+
 
     public static Map<String, String> getDefault() {
 
@@ -47,6 +84,7 @@ public class CompilerConfig {
 
         config.put(CompilerConfig.OPTIMIZE, "false");
         config.put(CompilerConfig.REGISTER, "-1");
+        config.put(CompilerConfig.BYTECODE, "-1");
 
         return config;
     }
@@ -106,6 +144,9 @@ public class CompilerConfig {
         // Verify if values are valid
         getOptimize(config);
         getRegisterAllocation(config);
+        getBytecodeVersion(config);
+        getRegisterAllocator(config);
+        getInlineBudget(config);
 
         return config;
     }
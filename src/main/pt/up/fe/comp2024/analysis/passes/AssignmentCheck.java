@@ -6,6 +6,8 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
+import pt.up.fe.comp2024.ast.CallTarget.CallerKind;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.specs.util.SpecsCheck;
@@ -105,45 +107,21 @@ public class AssignmentCheck extends AnalysisVisitor {
             assignExpr = assign.getChild(0);
         }
         if (assignExpr.getKind().equals(Kind.FUNC_CALL.toString())) {
-            var methodVariable = "";
+            var target = CallBinder.bind(assignExpr, table);
             var methodName = assignExpr.get("id");
-            Type methodCallerType = new Type("", false);
-            if (!assignExpr.getChild(0).getKind().equals(Kind.FUNC_CALL.toString())){
-                methodVariable = assignExpr.getChild(0).get("name");
-            }
-            else{
-                var callingMethod = assignExpr.getChild(0);
-                while(callingMethod.getKind().equals(Kind.FUNC_CALL.toString())){
-                    callingMethod = callingMethod.getChild(0);
-                }
-                if (!callingMethod.getKind().equals(Kind.VAR_REF_EXPR.toString())){
-                    return null;
-                }
-                if (table.getImports().contains(callingMethod.get("name"))){
-                    return null;
-                }
-                else{
-                    while(callingMethod.getParent().getKind().equals(Kind.FUNC_CALL.toString())){
-                        var nextReturn = table.getReturnType(callingMethod.getParent().get("id"));
-                        if (!nextReturn.equals(new Type(table.getClassName(), false))){
-                            return null;
-                        }
-                        callingMethod = callingMethod.getParent();
-                        methodCallerType = nextReturn;
-                    }
-                }
-            }
 
-            if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-            else if (table.getImports().contains(methodVariable)) return null;
-            else {
-                for (var element : megaTable) {
-                    if (element.getName().equals(methodVariable)) {
-                        methodCallerType = element.getType();
-                        break;
-                    }
+            // static calls to imported classes are assumed to be correct
+            if (target.isStatic()) return null;
+            // the receiver of a chained call is only known if the inner call is a method of this class
+            if (target.getCallerKind() == CallerKind.CALL) {
+                var innerCall = assignExpr.getChild(0);
+                while (innerCall.getKind().equals(Kind.PAREN_EXPR.toString())){
+                    innerCall = innerCall.getChild(0);
                 }
+                if (CallBinder.bind(innerCall, table).getDeclaredReturnType().isEmpty()) return null;
             }
+
+            Type methodCallerType = target.getReceiverType();
             if (!methodCallerType.getName().equals(table.getClassName()) && !table.getImports().contains(methodCallerType.getName())) {
                 var message = String.format("Assignment of variable '%s' to return value of undefined function '%s' of object of unknown class '%s'", varRefName, methodName, methodCallerType.getName());
                 addReport(Report.newError(
@@ -164,15 +142,18 @@ public class AssignmentCheck extends AnalysisVisitor {
                         null)
                 );
                 return null;
-            } else if (methodCallerType.getName().equals(table.getClassName()) && table.getMethods().contains(methodName)) {
-                if (table.getSuper() != null && elementType.equals(table.getSuper()) && table.getReturnType(methodName).getName().equals(table.getClassName()))
+            }
+
+            var returnType = target.getDeclaredReturnType();
+            if (returnType.isPresent()) {
+                if (table.getSuper() != null && elementType.equals(table.getSuper()) && returnType.get().getName().equals(table.getClassName()))
                     return null;
-                if (!table.getReturnType(methodName).equals(new Type(elementType, isArray))) {
+                if (!returnType.get().equals(new Type(elementType, isArray))) {
                     var message = "Assignment of variable '%s' of type '%s'";
                     if (isArray) message += " array";
                     message += " to return value of function '%s' of type '%s'";
-                    if (table.getReturnType(methodName).isArray()) message += " array";
-                    message = String.format(message, varRefName, elementType, methodName, table.getReturnType(methodName).getName());
+                    if (returnType.get().isArray()) message += " array";
+                    message = String.format(message, varRefName, elementType, methodName, returnType.get().getName());
                     addReport(Report.newError(
                             Stage.SEMANTIC,
                             NodeUtils.getLine(assign),
@@ -1,11 +1,11 @@
 package pt.up.fe.comp2024.analysis.passes;
 
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
-import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.specs.util.SpecsCheck;
@@ -68,31 +68,18 @@ public class BooleanConditionCheck extends AnalysisVisitor {
             }
         }
         else if (condition.getKind().equals(Kind.FUNC_CALL.toString())){
-            var methodVariable = condition.getChild(0).get("name");
-            var methodName = condition.get("id");
-            Type methodCallerType = new Type("", false);
-            if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-            else{
-                for (var element : megaTable) {
-                    if (element.getName().equals(methodVariable)) {
-                        methodCallerType = element.getType();
-                        break;
-                    }
-                }
-            }
-            if (!methodCallerType.isArray() && !methodCallerType.getName().equals(table.getClassName())) return null;
-            var returnType = table.getReturnType(methodName);
-            if (!returnType.getName().equals("boolean") || returnType.isArray()){
+            var returnType = CallBinder.bind(condition, table).getDeclaredReturnType();
+            if (returnType.isPresent() && (!returnType.get().getName().equals("boolean") || returnType.get().isArray())){
                 var message = "";
                 if (booleanExpr.getKind().equals(Kind.IF_STMT.toString())) message += "If";
                 else if (booleanExpr.getKind().equals(Kind.WHILE_STMT.toString())) message += "While";
                 message += " condition with function '%s' returning type '%s'";
-                if (returnType.isArray()) message += " array";
+                if (returnType.get().isArray()) message += " array";
                 addReport(Report.newError(
                         Stage.SEMANTIC,
                         NodeUtils.getLine(booleanExpr),
                         NodeUtils.getColumn(booleanExpr),
-                        String.format(message, condition.getChild(1).get("id"), returnType.getName()),
+                        String.format(message, condition.get("id"), returnType.get().getName()),
                         null)
                 );
                 return null;
@@ -1,11 +1,11 @@
 package pt.up.fe.comp2024.analysis.passes;
 
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
-import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.specs.util.SpecsCheck;
@@ -64,28 +64,15 @@ public class BooleanOperatorCheck extends AnalysisVisitor {
                 }
             }
             else if (condition.getKind().equals(Kind.FUNC_CALL.toString())){
-                var methodVariable = condition.getChild(0).get("name");
-                var methodName = condition.get("id");
-                Type methodCallerType = new Type("", false);
-                if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-                else{
-                    for (var element : megaTable) {
-                        if (element.getName().equals(methodVariable)) {
-                            methodCallerType = element.getType();
-                            break;
-                        }
-                    }
-                }
-                if (!methodCallerType.isArray() && !methodCallerType.getName().equals(table.getClassName())) return null;
-                var returnType = table.getReturnType(methodName);
-                if (!returnType.getName().equals("boolean") || returnType.isArray()){
+                var returnType = CallBinder.bind(condition, table).getDeclaredReturnType();
+                if (returnType.isPresent() && (!returnType.get().getName().equals("boolean") || returnType.get().isArray())){
                     var message = "Boolean negation of function '%s' returning type '%s'";
-                    if (returnType.isArray()) message += " array";
+                    if (returnType.get().isArray()) message += " array";
                     addReport(Report.newError(
                             Stage.SEMANTIC,
                             NodeUtils.getLine(unaryOp),
                             NodeUtils.getColumn(unaryOp),
-                            String.format(message, condition.getChild(1).get("id"), returnType.getName()),
+                            String.format(message, condition.get("id"), returnType.get().getName()),
                             null)
                     );
                     return null;
@@ -139,35 +126,7 @@ public class BooleanOperatorCheck extends AnalysisVisitor {
             varRefName = bool1.get("name");
         }
         else if (bool1.getKind().equals(Kind.FUNC_CALL.toString())){
-            var methodVariable = bool1.getChild(0).get("name");
-            var methodName = bool1.get("id");
-            Type methodCallerType = new Type("", false);
-            if (!table.getImports().contains(methodVariable)){
-                if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-                else{
-                    for (var element : megaTable) {
-                        if (element.getName().equals(methodVariable)) {
-                            methodCallerType = element.getType();
-                            break;
-                        }
-                    }
-                }
-                if (methodCallerType.getName().equals(table.getClassName())){
-                    var returnType = table.getReturnType(methodName);
-                    if (!returnType.getName().equals("int") || returnType.isArray()){
-                        var message = "Boolean expression with function returning '%s'";
-                        if (returnType.isArray()) message += " array";
-                        addReport(Report.newError(
-                                Stage.SEMANTIC,
-                                NodeUtils.getLine(booleanExpr),
-                                NodeUtils.getColumn(booleanExpr),
-                                String.format(message, returnType.getName()),
-                                null)
-                        );
-                        return null;
-                    }
-                }
-            }
+            if (!checkCallOperand(booleanExpr, bool1, table)) return null;
             found1 = true;
         }
         else if (!(bool1.getKind().equals(Kind.BOOLEAN.toString()) || bool1.getKind().equals(Kind.BOOLEAN_EXPR.toString()) || bool1.getKind().equals(Kind.COMPARISON_EXPR.toString()) || bool1.getKind().equals(Kind.UNARY_OP.toString()))){
@@ -191,35 +150,7 @@ public class BooleanOperatorCheck extends AnalysisVisitor {
             varRefName2 = bool2.get("name");
         }
         else if (bool2.getKind().equals(Kind.FUNC_CALL.toString())){
-            var methodVariable = bool2.getChild(0).get("name");
-            var methodName = bool2.get("id");
-            Type methodCallerType = new Type("", false);
-            if (!table.getImports().contains(methodVariable)){
-                if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-                else{
-                    for (var element : megaTable) {
-                        if (element.getName().equals(methodVariable)) {
-                            methodCallerType = element.getType();
-                            break;
-                        }
-                    }
-                }
-                if (methodCallerType.getName().equals(table.getClassName())){
-                    var returnType = table.getReturnType(methodName);
-                    if (!returnType.getName().equals("int") || returnType.isArray()){
-                        var message = "Boolean expression with function returning '%s'";
-                        if (returnType.isArray()) message += " array";
-                        addReport(Report.newError(
-                                Stage.SEMANTIC,
-                                NodeUtils.getLine(booleanExpr),
-                                NodeUtils.getColumn(booleanExpr),
-                                String.format(message, returnType.getName()),
-                                null)
-                        );
-                        return null;
-                    }
-                }
-            }
+            if (!checkCallOperand(booleanExpr, bool2, table)) return null;
             found2 = true;
         }
         else if (!(bool2.getKind().equals(Kind.BOOLEAN.toString()) || bool2.getKind().equals(Kind.BOOLEAN_EXPR.toString()) || bool2.getKind().equals(Kind.COMPARISON_EXPR.toString()) || bool2.getKind().equals(Kind.UNARY_OP.toString()))){
@@ -281,5 +212,25 @@ public class BooleanOperatorCheck extends AnalysisVisitor {
         return null;
     }
 
+    /**
+     * @return false if the call returns something other than a boolean, in which case an error was reported
+     */
+    private boolean checkCallOperand(JmmNode booleanExpr, JmmNode funcCall, SymbolTable table) {
+        var returnType = CallBinder.bind(funcCall, table).getDeclaredReturnType();
+        if (returnType.isEmpty() || (returnType.get().getName().equals("boolean") && !returnType.get().isArray())) {
+            return true;
+        }
+
+        var message = "Boolean expression with function returning '%s'";
+        if (returnType.get().isArray()) message += " array";
+        addReport(Report.newError(
+                Stage.SEMANTIC,
+                NodeUtils.getLine(booleanExpr),
+                NodeUtils.getColumn(booleanExpr),
+                String.format(message, returnType.get().getName()),
+                null)
+        );
+        return false;
+    }
 
 }
@@ -0,0 +1,27 @@
+package pt.up.fe.comp2024.analysis.passes;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
+import pt.up.fe.comp2024.ast.Kind;
+
+/**
+ * Binds every function call to its target, so the passes that follow and the OLLIR generation can read it from the node.
+ * <p>
+ * Does not report anything, the checks on the bound targets are done by {@link MethodCheck}, {@link ValidateMethodDecl}
+ * and the type checks that read the declared return type of a call.
+ */
+public class CallBinding extends AnalysisVisitor {
+
+    @Override
+    public void buildVisitor() {
+        addVisit(Kind.FUNC_CALL, this::visitFuncCall);
+    }
+
+    private Void visitFuncCall(JmmNode funcCall, SymbolTable table) {
+        CallBinder.bind(funcCall, table);
+        return null;
+    }
+
+}
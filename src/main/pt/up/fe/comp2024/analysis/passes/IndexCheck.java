@@ -1,11 +1,11 @@
 package pt.up.fe.comp2024.analysis.passes;
 
 import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
-import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.specs.util.SpecsCheck;
@@ -45,29 +45,16 @@ public class IndexCheck extends AnalysisVisitor {
             arrayVariable = arrayAccess.getChild(0);
         }
         if (arrayVariable.getKind().equals(Kind.FUNC_CALL.toString())){
-            var methodVariable = arrayVariable.getChild(0).get("name");
             var methodName = arrayVariable.get("id");
-            Type methodCallerType = new Type("", false);
-            if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-            else if (table.getImports().contains(methodVariable)) return null;
-            else{
-                for (var element : megaTable) {
-                    if (element.getName().equals(methodVariable)) {
-                        methodCallerType = element.getType();
-                        break;
-                    }
-                }
-            }
-            if (!methodCallerType.isArray() && !methodCallerType.getName().equals(table.getClassName())) return null;
-            var returnType = table.getReturnType(methodName);
-            if (!returnType.getName().equals("int") || !returnType.isArray()){
+            var returnType = CallBinder.bind(arrayVariable, table).getDeclaredReturnType();
+            if (returnType.isPresent() && (!returnType.get().getName().equals("int") || !returnType.get().isArray())){
                 var message = "Indexing return type '%s' of function '%s'";
-                if (returnType.isArray()) message += " array";
+                if (returnType.get().isArray()) message += " array";
                 addReport(Report.newError(
                         Stage.SEMANTIC,
                         NodeUtils.getLine(arrayAccess),
                         NodeUtils.getColumn(arrayAccess),
-                        String.format(message, returnType.getName(), methodName),
+                        String.format(message, returnType.get().getName(), methodName),
                         null)
                 );
                 return null;
@@ -135,29 +122,16 @@ public class IndexCheck extends AnalysisVisitor {
             }
         }
         else if (arrayIndex.getKind().equals(Kind.FUNC_CALL.toString())){
-            var methodVariable = arrayIndex.getChild(0).get("name");
             var methodName = arrayIndex.get("id");
-            Type methodCallerType = new Type("", false);
-            if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-            else if (table.getImports().contains(methodVariable)) return null;
-            else{
-                for (var element : megaTable) {
-                    if (element.getName().equals(methodVariable)) {
-                        methodCallerType = element.getType();
-                        break;
-                    }
-                }
-            }
-            if (!methodCallerType.isArray() && !methodCallerType.getName().equals(table.getClassName())) return null;
-            var returnType = table.getReturnType(methodName);
-            if (!returnType.getName().equals("int") || returnType.isArray()){
+            var returnType = CallBinder.bind(arrayIndex, table).getDeclaredReturnType();
+            if (returnType.isPresent() && (!returnType.get().getName().equals("int") || returnType.get().isArray())){
                 var message = "Indexing array '%s' with return value of function '%s' of type '%s'";
-                if (returnType.isArray()) message += " array";
+                if (returnType.get().isArray()) message += " array";
                 addReport(Report.newError(
                         Stage.SEMANTIC,
                         NodeUtils.getLine(arrayAccess),
                         NodeUtils.getColumn(arrayAccess),
-                        String.format(message, arrayName, methodName, returnType.getName()),
+                        String.format(message, arrayName, methodName, returnType.get().getName()),
                         null)
                 );
                 return null;
@@ -7,6 +7,8 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
+import pt.up.fe.comp2024.ast.CallTarget.CallerKind;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.comp2024.ast.TypeUtils;
@@ -39,65 +41,24 @@ public class MethodCheck extends AnalysisVisitor {
     private Void visitFuncCall(JmmNode funcCall, SymbolTable table) {
         SpecsCheck.checkNotNull(currentMethod, () -> "Expected current method to be set");
 
-        // Check if exists a parameter or variable declaration with the same name as the variable reference
-
-        var methodVariable = "";
+        var target = CallBinder.bind(funcCall, table);
         var methodName = funcCall.get("id");
-        Type methodCallerType = new Type("", false);
-        if (funcCall.getChild(0).getKind().equals(Kind.VAR_REF_EXPR.toString())){
-            methodVariable = funcCall.getChild(0).get("name");
-        }
-        else{
-            var callingMethod = funcCall.getChild(0);
-            while(callingMethod.getKind().equals(Kind.FUNC_CALL.toString())){
-                callingMethod = callingMethod.getChild(0);
-            }
-            if (!callingMethod.getKind().equals(Kind.VAR_REF_EXPR.toString())){
-                return null;
-            }
-            if (table.getImports().contains(callingMethod.get("name"))){
-                return null;
-            }
-            else{
-                while(callingMethod.getParent().getKind().equals(Kind.FUNC_CALL.toString())){
-                    var nextReturn = table.getReturnType(callingMethod.getParent().get("id"));
-                    if (!nextReturn.equals(new Type(table.getClassName(), false))){
-                        if (nextReturn.isArray() || nextReturn.getName().equals("int") || nextReturn.getName().equals("boolean")){
-                            var message = "Calling function from variable of type '%s'";
-                            if (nextReturn.isArray()) message+=" array";
-                            if (nextReturn.getName().equals("int") || nextReturn.getName().equals("boolean")) message+=", which is not an object";
-                            message = String.format(message, nextReturn.getName());
-                            addReport(Report.newError(
-                                    Stage.SEMANTIC,
-                                    NodeUtils.getLine(funcCall),
-                                    NodeUtils.getColumn(funcCall),
-                                    message,
-                                    null)
-                            );
-                        }
-                        return null;
-                    }
-                    callingMethod = callingMethod.getParent();
-                    methodCallerType = nextReturn;
-                }
-            }
-        }
 
-        if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-        else if (table.getImports().contains(methodVariable)) return null;
-        else {
-            var megaTable = new ArrayList<>(table.getLocalVariables(currentMethod));
-            megaTable.addAll(table.getParameters(currentMethod));
-            megaTable.addAll(table.getFields());
+        // static calls to imported classes are assumed to be correct
+        if (target.isStatic()) return null;
 
-            for (var element : megaTable){
-                if (element.getName().equals(methodVariable)){
-                    methodCallerType = element.getType();
-                    break;
-                }
+        Type methodCallerType = target.getReceiverType();
+        if (target.getCallerKind() == CallerKind.CALL) {
+            // the type of calls to unknown methods is only a guess, nothing to check
+            var innerCall = funcCall.getChild(0);
+            while (innerCall.getKind().equals(Kind.PAREN_EXPR.toString())){
+                innerCall = innerCall.getChild(0);
             }
+            if (!CallBinder.bind(innerCall, table).isOwnMethod()) return null;
+            if (!isNotObject(methodCallerType) && !methodCallerType.getName().equals(table.getClassName())) return null;
         }
-        if (methodCallerType.getName().equals("int") || methodCallerType.getName().equals("boolean") || methodCallerType.isArray()){
+
+        if (isNotObject(methodCallerType)){
             var message = "Calling function from variable of type '%s'";
             if (methodCallerType.isArray()) message+=" array";
             if (methodCallerType.getName().equals("int") || methodCallerType.getName().equals("boolean")) message+=", which is not an object";
@@ -137,4 +98,8 @@ public class MethodCheck extends AnalysisVisitor {
         return null;
     }
 
+    private boolean isNotObject(Type type) {
+        return type.getName().equals("int") || type.getName().equals("boolean") || type.isArray();
+    }
+
 }
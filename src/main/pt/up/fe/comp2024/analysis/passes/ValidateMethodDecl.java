@@ -7,6 +7,7 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.comp2024.analysis.AnalysisVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
 import pt.up.fe.comp2024.ast.Kind;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.comp2024.ast.TypeUtils;
@@ -180,49 +181,15 @@ public class ValidateMethodDecl extends AnalysisVisitor {
     private Void visitParams(JmmNode funcCall, SymbolTable table) {
         if (currentMethod==null) return null;
 
-        // Check if exists a parameter or variable declaration with the same name as the variable reference
+        // Only calls to methods of this class can have their arguments checked
+        var target = CallBinder.bind(funcCall, table);
+        if (!target.isOwnMethod()) return null;
 
-        var methodVariable = "";
         var methodName = funcCall.get("id");
-        Type methodCallerType = new Type("", false);
-        if (funcCall.getChild(0).getKind().equals(Kind.VAR_REF_EXPR.toString())){
-            methodVariable = funcCall.getChild(0).get("name");
-        }
-        else{
-            var callingMethod = funcCall.getChild(0);
-            while(callingMethod.getKind().equals(Kind.FUNC_CALL.toString())){
-                callingMethod = callingMethod.getChild(0);
-            }
-            if (!callingMethod.getKind().equals(Kind.VAR_REF_EXPR.toString())){
-                return null;
-            }
-            if (table.getImports().contains(callingMethod.get("name"))){
-                return null;
-            }
-            else{
-                while(callingMethod.getParent().getKind().equals(Kind.FUNC_CALL.toString())){
-                    var nextReturn = table.getReturnType(callingMethod.getParent().get("id"));
-                    if (!nextReturn.equals(new Type(table.getClassName(), false))){
-                        return null;
-                    }
-                    callingMethod = callingMethod.getParent();
-                    methodCallerType = nextReturn;
-                }
-            }
-        }
         var megaTable = new ArrayList<>(table.getLocalVariables(currentMethod));
         megaTable.addAll(table.getParameters(currentMethod));
         megaTable.addAll(table.getFields());
 
-        for (var element : megaTable){
-            if (element.getName().equals(methodVariable)){
-                methodCallerType = element.getType();
-                break;
-            }
-        }
-
-        if (!(methodCallerType.getName().equals(table.getClassName()) || methodVariable.equals("this"))) return null;
-
         List<Symbol> methodParameters;
 
         try{
@@ -264,47 +231,11 @@ public class ValidateMethodDecl extends AnalysisVisitor {
                                         break;
                                     }
                                 }
-                            } else if (currentExplore.getKind().equals(Kind.FUNC_CALL.toString())) { // this is archaic, could be better regarding implements, doesnt consider calling funcs like "this.foo()" that dont exist, even without extends
-                                var methodVariableInner = "";
-                                var methodNameInner = currentExplore.get("id");
-                                Type methodCallerTypeInner = new Type("", false);
-                                if (!currentExplore.getChild(0).getKind().equals(Kind.FUNC_CALL.toString())){
-                                    methodVariableInner = currentExplore.getChild(0).get("name");
-                                }
-                                else{
-                                    var callingMethod = currentExplore.getChild(0);
-                                    while(callingMethod.getKind().equals(Kind.FUNC_CALL.toString())){
-                                        callingMethod = callingMethod.getChild(0);
-                                    }
-                                    if (!callingMethod.getKind().equals(Kind.VAR_REF_EXPR.toString())){
-                                        return null;
-                                    }
-                                    if (table.getImports().contains(callingMethod.get("name"))){
-                                        return null;
-                                    }
-                                    else{
-                                        while(callingMethod.getParent().getKind().equals(Kind.FUNC_CALL.toString())){
-                                            var nextReturn = table.getReturnType(callingMethod.getParent().get("id"));
-                                            if (!nextReturn.equals(new Type(table.getClassName(), false))){
-                                                continue;
-                                            }
-                                            callingMethod = callingMethod.getParent();
-                                            methodCallerTypeInner = nextReturn;
-                                        }
-                                    }
-                                }
-                                if (methodVariableInner.equals("this")) methodCallerTypeInner = new Type(table.getClassName(), false);
-                                else if (!methodVariableInner.isEmpty() && !table.getImports().contains(methodVariableInner)) {
-                                    for (var element : megaTable) {
-                                        if (element.getName().equals(methodVariableInner)) {
-                                            methodCallerTypeInner = element.getType();
-                                            break;
-                                        }
-                                    }
-                                }
-                                if (!methodCallerTypeInner.getName().equals(table.getClassName()))
+                            } else if (currentExplore.getKind().equals(Kind.FUNC_CALL.toString())) {
+                                var innerTarget = CallBinder.bind(currentExplore, table);
+                                if (!innerTarget.isOwnMethod())
                                     givenArgType = expectedArgType;
-                                else givenArgType = table.getReturnType(methodNameInner);
+                                else givenArgType = innerTarget.getReturnType();
                             } else givenArgType = TypeUtils.getExprType(currentExplore, table);
                             if (!givenArgType.equals(expectedArgType)) {
                                 var message = "Call to function '%s' with invalid parameter type '%s'";
@@ -379,47 +310,11 @@ public class ValidateMethodDecl extends AnalysisVisitor {
                                 }
                             }
                         }
-                    } else if (currentExplore.getKind().equals(Kind.FUNC_CALL.toString())) { // this is archaic, could be better regarding implements, doesnt consider calling funcs like "this.foo()" that dont exist, even without extends
-                        var methodVariableInner = "";
-                        var methodNameInner = currentExplore.get("id");
-                        Type methodCallerTypeInner = new Type("", false);
-                        if (!currentExplore.getChild(0).getKind().equals(Kind.FUNC_CALL.toString())){
-                            methodVariableInner = currentExplore.getChild(0).get("name");
-                        }
-                        else{
-                            var callingMethod = currentExplore.getChild(0);
-                            while(callingMethod.getKind().equals(Kind.FUNC_CALL.toString())){
-                                callingMethod = callingMethod.getChild(0);
-                            }
-                            if (!callingMethod.getKind().equals(Kind.VAR_REF_EXPR.toString())){
-                                return null;
-                            }
-                            if (table.getImports().contains(callingMethod.get("name"))){
-                                return null;
-                            }
-                            else{
-                                while(callingMethod.getParent().getKind().equals(Kind.FUNC_CALL.toString())){
-                                    var nextReturn = table.getReturnType(callingMethod.getParent().get("id"));
-                                    if (!nextReturn.equals(new Type(table.getClassName(), false))){
-                                        continue;
-                                    }
-                                    callingMethod = callingMethod.getParent();
-                                    methodCallerTypeInner = nextReturn;
-                                }
-                            }
-                        }
-                        if (methodVariableInner.equals("this")) methodCallerTypeInner = new Type(table.getClassName(), false);
-                        else if (!methodVariableInner.isEmpty() && !table.getImports().contains(methodVariableInner)) {
-                            for (var element : megaTable) {
-                                if (element.getName().equals(methodVariableInner)) {
-                                    methodCallerTypeInner = element.getType();
-                                    break;
-                                }
-                            }
-                        }
-                        if (!methodCallerTypeInner.getName().equals(table.getClassName()))
+                    } else if (currentExplore.getKind().equals(Kind.FUNC_CALL.toString())) {
+                        var innerTarget = CallBinder.bind(currentExplore, table);
+                        if (!innerTarget.isOwnMethod())
                             givenArgType = expectedArgType;
-                        else givenArgType = table.getReturnType(methodNameInner);
+                        else givenArgType = innerTarget.getReturnType();
                     } else givenArgType = TypeUtils.getExprType(currentExplore, table);
                     if (!givenArgType.equals(expectedArgType)) {
                         if (!(expectedArgType.getName().equals(table.getSuper()) && givenArgType.getName().equals(table.getClassName())) && !(new HashSet<>(table.getImports()).containsAll(Arrays.asList(givenArgType.getName(), expectedArgType.getName())) && !(expectedArgType.getName().equals(table.getClassName()) && givenArgType.getName().equals(table.getSuper())))) {
@@ -471,48 +366,9 @@ public class ValidateMethodDecl extends AnalysisVisitor {
             }
         }
         else if (returnExpr.getKind().equals(Kind.FUNC_CALL.toString())){
-            var methodVariable = "";
-            var methodName = returnExpr.get("id");
-            Type methodCallerType = new Type("", false);
-            if (!returnExpr.getChild(0).getKind().equals(Kind.FUNC_CALL.toString())){
-                methodVariable = returnExpr.getChild(0).get("name");
-            }
-            else{
-                var callingMethod = returnExpr.getChild(0);
-                while(callingMethod.getKind().equals(Kind.FUNC_CALL.toString())){
-                    callingMethod = callingMethod.getChild(0);
-                }
-                if (!callingMethod.getKind().equals(Kind.VAR_REF_EXPR.toString())){
-                    return null;
-                }
-                if (table.getImports().contains(callingMethod.get("name"))){
-                    return null;
-                }
-                else{
-                    while(callingMethod.getParent().getKind().equals(Kind.FUNC_CALL.toString())){
-                        var nextReturn = table.getReturnType(callingMethod.getParent().get("id"));
-                        if (!nextReturn.equals(new Type(table.getClassName(), false))){
-                            return null;
-                        }
-                        callingMethod = callingMethod.getParent();
-                        methodCallerType = nextReturn;
-                    }
-                }
-            }
-            var megaTable = new ArrayList<>(table.getLocalVariables(currentMethod));
-            megaTable.addAll(table.getParameters(currentMethod));
-            megaTable.addAll(table.getFields());
-            if (methodVariable.equals("this")) methodCallerType = new Type(table.getClassName(), false);
-            else if (!table.getImports().contains(methodVariable)){
-                for (var element : megaTable) {
-                    if (element.getName().equals(methodVariable)) {
-                        methodCallerType = element.getType();
-                        break;
-                    }
-                }
-            }
-            if (!methodCallerType.getName().equals(table.getClassName())) return null;
-            else elementType = table.getReturnType(methodName);
+            var target = CallBinder.bind(returnExpr, table);
+            if (!target.isOwnMethod()) return null;
+            else elementType = target.getReturnType();
         }
         else if (returnExpr.getKind().equals(Kind.INTEGER_LITERAL.toString()) || returnExpr.getKind().equals(Kind.BINARY_EXPR.toString()) || returnExpr.getKind().equals(Kind.ARRAY_ACCESS.toString()) || returnExpr.getKind().equals(Kind.LENGTH_EXPR.toString())){
             if (!expectedReturnType.equals(new Type("int", false))){
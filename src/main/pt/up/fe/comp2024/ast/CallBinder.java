@@ -0,0 +1,231 @@
+package pt.up.fe.comp2024.ast;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2024.ast.CallTarget.CallerKind;
+import pt.up.fe.comp2024.ast.CallTarget.VarargShape;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static pt.up.fe.comp2024.ast.Kind.*;
+
+/**
+ * Resolves {@link Kind#FUNC_CALL} nodes into {@link CallTarget}s.
+ * <p>
+ * Each call is resolved once and the result is stored in the node, further calls to {@link #bind} just read it back.
+ */
+public class CallBinder {
+
+    private static final String VARARG_TYPE_NAME = "int...";
+
+    public static CallTarget bind(JmmNode funcCall, SymbolTable table) {
+        FUNC_CALL.checkOrThrow(funcCall);
+
+        var bound = CallTarget.fromNode(funcCall);
+        if (bound.isPresent()) {
+            return bound.get();
+        }
+
+        var target = resolve(funcCall, table);
+        target.annotate(funcCall);
+
+        return target;
+    }
+
+    private static CallTarget resolve(JmmNode funcCall, SymbolTable table) {
+        var head = unwrapParens(funcCall.getJmmChild(0));
+        var methodCalled = funcCall.get("id");
+        var args = getArgs(funcCall);
+
+        CallerKind callerKind;
+        Type receiverType;
+
+        if (VAR_REF_EXPR.check(head)) {
+            var name = head.get("name");
+            var currentMethod = head.getAncestor(METHOD_DECL).map(method -> method.get("name"));
+            var locals = currentMethod.map(table::getLocalVariables).orElse(Collections.emptyList());
+            var params = currentMethod.map(table::getParameters).orElse(Collections.emptyList());
+
+            Optional<Symbol> symbol;
+            if (name.equals("this")) {
+                callerKind = CallerKind.THIS;
+                receiverType = new Type(table.getClassName(), false);
+            } else if ((symbol = findSymbol(locals, name)).isPresent()) {
+                callerKind = CallerKind.LOCAL;
+                receiverType = symbol.get().getType();
+            } else if ((symbol = findSymbol(params, name)).isPresent()) {
+                callerKind = CallerKind.PARAM;
+                receiverType = symbol.get().getType();
+            } else if ((symbol = findSymbol(table.getFields(), name)).isPresent()) {
+                callerKind = CallerKind.FIELD;
+                receiverType = symbol.get().getType();
+            } else if (table.getImports().contains(name)) {
+                callerKind = CallerKind.IMPORT;
+                receiverType = new Type(name, false);
+            } else {
+                callerKind = CallerKind.UNKNOWN;
+                receiverType = new Type("", false);
+            }
+        } else if (NEW_CLASS.check(head)) {
+            callerKind = CallerKind.NEW;
+            receiverType = new Type(head.get("id"), false);
+        } else if (FUNC_CALL.check(head)) {
+            callerKind = CallerKind.CALL;
+            receiverType = bind(head, table).getReturnType();
+        } else {
+            callerKind = CallerKind.UNKNOWN;
+            receiverType = safeExprType(head, table).orElse(new Type("", false));
+        }
+
+        boolean isStatic = callerKind == CallerKind.IMPORT;
+        boolean ownMethod = !isStatic
+                && !receiverType.isArray()
+                && receiverType.getName().equals(table.getClassName())
+                && table.getMethods().contains(methodCalled);
+
+        List<Symbol> params = ownMethod ? table.getParameters(methodCalled) : Collections.emptyList();
+
+        var varargShape = VarargShape.NONE;
+        int fixedArgs = args.size();
+        if (!params.isEmpty() && params.get(params.size() - 1).getType().getName().equals(VARARG_TYPE_NAME)) {
+            fixedArgs = params.size() - 1;
+            varargShape = VarargShape.PACKED;
+
+            if (args.size() == params.size()) {
+                var lastArgType = safeExprType(args.get(args.size() - 1), table);
+                if (lastArgType.isPresent() && lastArgType.get().isArray()) {
+                    fixedArgs = args.size();
+                    varargShape = VarargShape.PASSTHROUGH;
+                }
+            }
+        }
+
+        Type returnType = ownMethod ? table.getReturnType(methodCalled) : getExpectedType(funcCall, table);
+
+        var descriptor = new StringBuilder("(");
+        if (ownMethod) {
+            params.forEach(param -> descriptor.append(toDescriptor(param.getType())));
+        } else {
+            args.forEach(arg -> descriptor.append(safeExprType(arg, table).map(CallBinder::toDescriptor)
+                    .orElse("Ljava/lang/Object;")));
+        }
+        descriptor.append(")").append(toDescriptor(returnType));
+
+        return new CallTarget(callerKind, receiverType, isStatic, ownMethod, varargShape, fixedArgs, returnType,
+                descriptor.toString());
+    }
+
+    /**
+     * Infers the type a call to an unknown method must have, based on where its value is used.
+     *
+     * @param expr
+     * @param table
+     * @return the expected type, or void if the value is discarded or nothing can be inferred
+     */
+    public static Type getExpectedType(JmmNode expr, SymbolTable table) {
+        var parent = expr.getParent();
+        var intType = new Type(TypeUtils.getIntTypeName(), false);
+        var boolType = new Type("boolean", false);
+        var voidType = new Type("void", false);
+
+        var kind = Kind.fromString(parent.getKind());
+        int index = expr.getIndexOfSelf();
+
+        return switch (kind) {
+            case PAREN_EXPR -> getExpectedType(parent, table);
+            case ASSIGN_STMT -> index == 1
+                    ? safeExprType(parent.getJmmChild(0), table).orElse(voidType)
+                    : voidType;
+            case RETURN_STMT -> parent.getAncestor(METHOD_DECL)
+                    .map(method -> table.getReturnType(method.get("name")))
+                    .orElse(voidType);
+            case FUNC_ARGS -> getExpectedArgType(parent, index, table);
+            case BINARY_EXPR, COMPARISON_EXPR, NEW_ARRAY -> intType;
+            case ARRAY_ACCESS -> index == 0 ? new Type(TypeUtils.getIntTypeName(), true) : intType;
+            case LENGTH_EXPR -> new Type(TypeUtils.getIntTypeName(), true);
+            case BOOLEAN_EXPR, UNARY_OP -> boolType;
+            case IF_STMT, WHILE_STMT -> index == 0 ? boolType : voidType;
+            default -> voidType;
+        };
+    }
+
+    private static Type getExpectedArgType(JmmNode funcArgs, int index, SymbolTable table) {
+        var owner = funcArgs.getParent();
+        var intType = new Type(TypeUtils.getIntTypeName(), false);
+
+        // elements of an array initializer '[a, b, c]'
+        if (!FUNC_CALL.check(owner)) {
+            return intType;
+        }
+
+        var target = bind(owner, table);
+        if (!target.isOwnMethod()) {
+            return new Type("void", false);
+        }
+
+        if (target.getVarargShape() == VarargShape.PACKED && index >= target.getFixedArgs()) {
+            return intType;
+        }
+
+        var params = table.getParameters(owner.get("id"));
+        if (index >= params.size()) {
+            return new Type("void", false);
+        }
+
+        var paramType = params.get(index).getType();
+        if (paramType.getName().equals(VARARG_TYPE_NAME)) {
+            return new Type(TypeUtils.getIntTypeName(), true);
+        }
+
+        return paramType;
+    }
+
+    private static List<JmmNode> getArgs(JmmNode funcCall) {
+        if (funcCall.getNumChildren() < 2) {
+            return Collections.emptyList();
+        }
+
+        return funcCall.getJmmChild(1).getChildren();
+    }
+
+    private static Optional<Symbol> findSymbol(List<Symbol> symbols, String name) {
+        return symbols.stream().filter(symbol -> symbol.getName().equals(name)).findFirst();
+    }
+
+    private static Optional<Type> safeExprType(JmmNode expr, SymbolTable table) {
+        expr = unwrapParens(expr);
+        try {
+            return Optional.ofNullable(TypeUtils.getExprType(expr, table));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static JmmNode unwrapParens(JmmNode expr) {
+        while (PAREN_EXPR.check(expr)) {
+            expr = expr.getJmmChild(0);
+        }
+        return expr;
+    }
+
+    public static String toDescriptor(Type type) {
+        var name = type.getName();
+        if (name.equals(VARARG_TYPE_NAME)) {
+            return "[I";
+        }
+
+        var element = switch (name) {
+            case "int" -> "I";
+            case "boolean" -> "Z";
+            case "void" -> "V";
+            case "String" -> "Ljava/lang/String;";
+            default -> "L" + name + ";";
+        };
+
+        return type.isArray() ? "[" + element : element;
+    }
+}
@@ -0,0 +1,169 @@
+package pt.up.fe.comp2024.ast;
+
+import pt.up.fe.comp.jmm.analysis.table.Type;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import java.util.Optional;
+
+/**
+ * Resolved target of a {@link Kind#FUNC_CALL} node, as computed by {@link CallBinder}.
+ * <p>
+ * The target is stored in the node itself as attributes, so every later stage (semantic checks, AST optimizations and
+ * OLLIR generation) reads the same answer instead of resolving the call again.
+ */
+public class CallTarget {
+
+    /**
+     * What the expression on the left of the '.' is.
+     */
+    public enum CallerKind {
+        IMPORT,
+        THIS,
+        LOCAL,
+        PARAM,
+        FIELD,
+        NEW,
+        CALL,
+        UNKNOWN
+    }
+
+    /**
+     * How the arguments map to a trailing 'int...' parameter.
+     */
+    public enum VarargShape {
+        NONE,           // no vararg parameter, arguments are passed one-to-one
+        PACKED,         // arguments from 'fixedArgs' onwards are packed into a new array
+        PASSTHROUGH     // an int array is given in the vararg position and passed as is
+    }
+
+    private static final String CALLER_KIND = "callerKind";
+    private static final String OWNER = "owner";
+    private static final String OWNER_ARRAY = "ownerArray";
+    private static final String STATIC = "static";
+    private static final String OWN_METHOD = "ownMethod";
+    private static final String VARARGS = "varargs";
+    private static final String FIXED_ARGS = "fixedArgs";
+    private static final String RETURN_TYPE = "returnType";
+    private static final String RETURN_ARRAY = "returnArray";
+    private static final String DESCRIPTOR = "descriptor";
+
+    private final CallerKind callerKind;
+    private final Type receiverType;
+    private final boolean isStatic;
+    private final boolean ownMethod;
+    private final VarargShape varargShape;
+    private final int fixedArgs;
+    private final Type returnType;
+    private final String descriptor;
+
+    public CallTarget(CallerKind callerKind, Type receiverType, boolean isStatic, boolean ownMethod,
+                      VarargShape varargShape, int fixedArgs, Type returnType, String descriptor) {
+        this.callerKind = callerKind;
+        this.receiverType = receiverType;
+        this.isStatic = isStatic;
+        this.ownMethod = ownMethod;
+        this.varargShape = varargShape;
+        this.fixedArgs = fixedArgs;
+        this.returnType = returnType;
+        this.descriptor = descriptor;
+    }
+
+    public CallerKind getCallerKind() {
+        return callerKind;
+    }
+
+    /**
+     * @return the type of the receiver; for static calls, the imported class
+     */
+    public Type getReceiverType() {
+        return receiverType;
+    }
+
+    public String getOwnerClass() {
+        return receiverType.getName();
+    }
+
+    public boolean isStatic() {
+        return isStatic;
+    }
+
+    /**
+     * @return true if the call targets a method declared in the class being compiled
+     */
+    public boolean isOwnMethod() {
+        return ownMethod;
+    }
+
+    public VarargShape getVarargShape() {
+        return varargShape;
+    }
+
+    /**
+     * @return the number of arguments that are passed one-to-one, before any vararg packing
+     */
+    public int getFixedArgs() {
+        return fixedArgs;
+    }
+
+    public Type getReturnType() {
+        return returnType;
+    }
+
+    /**
+     * @return the return type declared by the target, or empty if the target is not a method of this class and its
+     * return type was only inferred from where the call is used
+     */
+    public Optional<Type> getDeclaredReturnType() {
+        return ownMethod ? Optional.of(returnType) : Optional.empty();
+    }
+
+    /**
+     * @return the JVM descriptor of the target, e.g. "(I[I)Z"
+     */
+    public String getDescriptor() {
+        return descriptor;
+    }
+
+    public String getInvocation() {
+        return isStatic ? "invokestatic" : "invokevirtual";
+    }
+
+    /**
+     * Stores this target in the given call node.
+     *
+     * @param funcCall
+     */
+    public void annotate(JmmNode funcCall) {
+        funcCall.put(CALLER_KIND, callerKind.name());
+        funcCall.put(OWNER, receiverType.getName());
+        funcCall.put(OWNER_ARRAY, Boolean.toString(receiverType.isArray()));
+        funcCall.put(STATIC, Boolean.toString(isStatic));
+        funcCall.put(OWN_METHOD, Boolean.toString(ownMethod));
+        funcCall.put(VARARGS, varargShape.name());
+        funcCall.put(FIXED_ARGS, Integer.toString(fixedArgs));
+        funcCall.put(RETURN_TYPE, returnType.getName());
+        funcCall.put(RETURN_ARRAY, Boolean.toString(returnType.isArray()));
+        funcCall.put(DESCRIPTOR, descriptor);
+    }
+
+    /**
+     * @param funcCall
+     * @return the target previously stored in the node, if it was already bound
+     */
+    public static Optional<CallTarget> fromNode(JmmNode funcCall) {
+        if (!funcCall.hasAttribute(CALLER_KIND)) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new CallTarget(
+                CallerKind.valueOf(funcCall.get(CALLER_KIND)),
+                new Type(funcCall.get(OWNER), NodeUtils.getBooleanAttribute(funcCall, OWNER_ARRAY, "false")),
+                NodeUtils.getBooleanAttribute(funcCall, STATIC, "false"),
+                NodeUtils.getBooleanAttribute(funcCall, OWN_METHOD, "false"),
+                VarargShape.valueOf(funcCall.get(VARARGS)),
+                NodeUtils.getIntegerAttribute(funcCall, FIXED_ARGS, "0"),
+                new Type(funcCall.get(RETURN_TYPE), NodeUtils.getBooleanAttribute(funcCall, RETURN_ARRAY, "false")),
+                funcCall.get(DESCRIPTOR)
+        ));
+    }
+}
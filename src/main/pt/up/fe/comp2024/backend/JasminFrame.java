@@ -0,0 +1,54 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The verification types of the locals and of the operand stack at an instruction, printed as a Jasmin '.stack'
+ * block. Types use the Jasmin names: "Top", "Integer" or "Object" followed by a class or array descriptor.
+ */
+public class JasminFrame {
+    public static final String TOP = "Top";
+    public static final String INTEGER = "Integer";
+
+    private final List<String> locals;
+    private final List<String> stack;
+
+    public JasminFrame(List<String> locals, List<String> stack) {
+        this.locals = new ArrayList<>(locals);
+        this.stack = new ArrayList<>(stack);
+    }
+
+    public List<String> getLocals() {
+        return locals;
+    }
+
+    public List<String> getStack() {
+        return stack;
+    }
+
+    /**
+     * @param descriptor a field descriptor, such as "I", "[I" or "Ljava/lang/String;"
+     * @return the verification type of a value of that type
+     */
+    public static String fromDescriptor(String descriptor) {
+        return switch (descriptor.charAt(0)) {
+            case 'I', 'Z', 'B', 'C', 'S' -> INTEGER;
+            case 'L' -> "Object " + descriptor.substring(1, descriptor.length() - 1);
+            case '[' -> "Object " + descriptor;
+            default -> throw new RuntimeException("No verification type for descriptor '" + descriptor + "'");
+        };
+    }
+
+    public static boolean isReference(String type) {
+        return type.startsWith("Object ");
+    }
+
+    @Override
+    public String toString() {
+        var code = new StringBuilder(".stack\n");
+        for (var local : locals) code.append("locals ").append(local).append("\n");
+        for (var item : stack) code.append("stack ").append(item).append("\n");
+        return code.append(".end stack").toString();
+    }
+}
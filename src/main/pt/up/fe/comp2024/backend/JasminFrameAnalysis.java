@@ -0,0 +1,265 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Infers the verification types of the locals and of the operand stack along every path of a method body, and
+ * builds the StackMapTable frames needed by the type checking verifier of class files of version 50 and above.
+ * <p>
+ * A frame is placed at the first instruction after each label that can be reached. When two paths give different
+ * types to a local, it becomes Top, unless both are references and the local holds a single variable in the OLLIR
+ * method, in which case the declared type of the variable is used.
+ * <p>
+ * Jasmin 2.4 encodes the first frame as if the locals started empty, which is wrong when the method has this or
+ * parameters, so in that case the first frame gets Top locals until it is long enough to be written in full.
+ */
+public class JasminFrameAnalysis {
+    private static final String UNINITIALIZED = "Uninitialized ";
+
+    private final List<String> initialLocals;
+    private final Map<Integer, String> declaredLocals;
+    private int maxLocals;
+
+    /**
+     * @param initialLocals  the types of this and the parameters, in register order
+     * @param declaredLocals the type of the variable of each register that holds a single variable
+     * @param maxLocals      the number of registers of the method
+     */
+    public JasminFrameAnalysis(List<String> initialLocals, Map<Integer, String> declaredLocals, int maxLocals) {
+        this.initialLocals = initialLocals;
+        this.declaredLocals = declaredLocals;
+        this.maxLocals = maxLocals;
+    }
+
+    /**
+     * @return the number of registers of the method, which the first frame may have increased
+     */
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    /**
+     * Removes the instructions that can't be reached, since the verifier would need frames for them too.
+     *
+     * @param code the body of the method
+     * @return the frame of each instruction that needs one, by index
+     */
+    public Map<Integer, JasminFrame> getFrames(List<JasminInstruction> code) {
+        var locals = new String[code.size()][];
+        var stacks = new ArrayList<List<String>>();
+        propagate(code, locals, stacks);
+
+        boolean unreachable = false;
+        for (int i = code.size() - 1; i >= 0; i--) {
+            if (locals[i] == null) {
+                code.remove(i);
+                unreachable = true;
+            }
+        }
+        if (unreachable) {
+            locals = new String[code.size()][];
+            stacks = new ArrayList<>();
+            propagate(code, locals, stacks);
+        }
+
+        Map<Integer, JasminFrame> frames = new HashMap<>();
+        int first = code.size();
+        for (int i = 0; i < code.size(); i++) {
+            if (!code.get(i).isLabel()) continue;
+
+            // the frame goes to the first instruction after the labels
+            int target = i;
+            while (target < code.size() && code.get(target).isLabel()) target++;
+            if (target == code.size() || frames.containsKey(target)) continue;
+
+            frames.put(target, toFrame(locals[target], stacks.get(target)));
+            first = Math.min(first, target);
+        }
+
+        if (first < code.size() && !initialLocals.isEmpty()) {
+            var frame = frames.get(first);
+            int stackSize = frame.getStack().size();
+            if (stackSize == 0 && frame.getLocals().size() <= 3 || stackSize == 1 && frame.getLocals().isEmpty()) {
+                var padded = new ArrayList<>(frame.getLocals());
+                while (padded.size() < 4) padded.add(JasminFrame.TOP);
+                frames.put(first, new JasminFrame(padded, frame.getStack()));
+                maxLocals = Math.max(maxLocals, padded.size());
+            }
+        }
+        return frames;
+    }
+
+    private void propagate(List<JasminInstruction> code, String[][] locals, List<List<String>> stacks) {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).isLabel()) labels.put(code.get(i).getLabel(), i);
+        }
+
+        for (int i = 0; i < code.size(); i++) stacks.add(null);
+        var worklist = new ArrayDeque<Integer>();
+
+        if (!code.isEmpty()) {
+            var start = new String[maxLocals];
+            Arrays.fill(start, JasminFrame.TOP);
+            for (int i = 0; i < initialLocals.size(); i++) start[i] = initialLocals.get(i);
+            locals[0] = start;
+            stacks.set(0, new ArrayList<>());
+            worklist.add(0);
+        }
+
+        while (!worklist.isEmpty()) {
+            int index = worklist.poll();
+            var instruction = code.get(index);
+            var frameLocals = locals[index].clone();
+            var stack = new ArrayList<>(stacks.get(index));
+
+            if (!instruction.isLabel()) execute(instruction, frameLocals, stack);
+
+            if (instruction.isJump()) {
+                merge(locals, stacks, worklist, labels.get(instruction.getTarget()), frameLocals, stack);
+            }
+            if (!instruction.endsBlock() && index + 1 < code.size()) {
+                merge(locals, stacks, worklist, index + 1, frameLocals, stack);
+            }
+        }
+    }
+
+    private JasminFrame toFrame(String[] frameLocals, List<String> stack) {
+        int size = frameLocals.length;
+        while (size > 0 && frameLocals[size - 1].equals(JasminFrame.TOP)) size--;
+
+        var frameTypes = Arrays.asList(frameLocals).subList(0, size);
+        for (var type : frameTypes) {
+            if (type.startsWith(UNINITIALIZED)) throw new RuntimeException("Uninitialized object in a local at a label");
+        }
+        for (var type : stack) {
+            if (type.startsWith(UNINITIALIZED)) throw new RuntimeException("Uninitialized object in the stack at a label");
+        }
+        return new JasminFrame(frameTypes, stack);
+    }
+
+    private void merge(String[][] locals, List<List<String>> stacks, ArrayDeque<Integer> worklist, int index,
+                       String[] frameLocals, List<String> stack) {
+        if (locals[index] == null) {
+            locals[index] = frameLocals.clone();
+            stacks.set(index, new ArrayList<>(stack));
+            worklist.add(index);
+            return;
+        }
+
+        var oldStack = stacks.get(index);
+        if (oldStack.size() != stack.size()) {
+            throw new RuntimeException("Stack height at instruction " + index + " is both " + oldStack.size()
+                    + " and " + stack.size());
+        }
+
+        boolean changed = false;
+        for (int i = 0; i < frameLocals.length; i++) {
+            var type = mergeTypes(locals[index][i], frameLocals[i], declaredLocals.get(i), JasminFrame.TOP);
+            if (!type.equals(locals[index][i])) {
+                locals[index][i] = type;
+                changed = true;
+            }
+        }
+        for (int i = 0; i < stack.size(); i++) {
+            var type = mergeTypes(oldStack.get(i), stack.get(i), null, "Object java/lang/Object");
+            if (!type.equals(oldStack.get(i))) {
+                oldStack.set(i, type);
+                changed = true;
+            }
+        }
+
+        if (changed) worklist.add(index);
+    }
+
+    private String mergeTypes(String first, String second, String declared, String conflict) {
+        if (first.equals(second)) return first;
+        if (JasminFrame.isReference(first) && JasminFrame.isReference(second)) {
+            return declared != null ? declared : conflict;
+        }
+        return JasminFrame.TOP;
+    }
+
+    private void execute(JasminInstruction instruction, String[] frameLocals, List<String> stack) {
+        var opcode = instruction.getOpcode();
+
+        if (instruction.isLoad()) {
+            stack.add(opcode.startsWith("i") ? JasminFrame.INTEGER : frameLocals[instruction.getRegister()]);
+            return;
+        }
+        if (instruction.isStore()) {
+            frameLocals[instruction.getRegister()] = pop(stack);
+            return;
+        }
+        if (instruction.isPush()) {
+            // only integer constants are loaded with ldc
+            stack.add(JasminFrame.INTEGER);
+            return;
+        }
+
+        switch (opcode) {
+            case "new" -> stack.add(UNINITIALIZED + instruction.getOperand(0));
+            case "dup" -> stack.add(stack.get(stack.size() - 1));
+            case "newarray" -> {
+                pop(stack);
+                stack.add("Object [I");
+            }
+            case "anewarray" -> {
+                pop(stack);
+                stack.add("Object [L" + instruction.getOperand(0) + ";");
+            }
+            case "aaload" -> {
+                pop(stack);
+                var array = pop(stack);
+                stack.add(JasminFrame.fromDescriptor(array.substring("Object [".length())));
+            }
+            case "getfield" -> {
+                pop(stack);
+                stack.add(JasminFrame.fromDescriptor(instruction.getOperand(1)));
+            }
+            case "getstatic" -> stack.add(JasminFrame.fromDescriptor(instruction.getOperand(1)));
+            case "checkcast" -> {
+                pop(stack);
+                var type = instruction.getOperand(0);
+                stack.add(JasminFrame.fromDescriptor(type.startsWith("[") ? type : "L" + type + ";"));
+            }
+            case "invokestatic", "invokevirtual", "invokespecial", "invokeinterface" -> invoke(instruction,
+                    frameLocals, stack);
+            default -> {
+                for (int i = 0; i < JasminStackAnalysis.getPopped(instruction); i++) pop(stack);
+                // what is left pushes integers: arithmetic, iaload, arraylength
+                for (int i = 0; i < JasminStackAnalysis.getPushed(instruction); i++) stack.add(JasminFrame.INTEGER);
+            }
+        }
+    }
+
+    private void invoke(JasminInstruction instruction, String[] frameLocals, List<String> stack) {
+        var method = instruction.getOperand(0);
+        int arguments = JasminStackAnalysis.getPopped(instruction);
+        String receiver = null;
+        for (int i = 0; i < arguments; i++) receiver = pop(stack);
+
+        // the constructor turns every copy of the new object into an initialized one
+        if (!instruction.is("invokestatic") && receiver.startsWith(UNINITIALIZED)
+                && method.contains("/<init>(")) {
+            var initialized = "Object " + receiver.substring(UNINITIALIZED.length());
+            Collections.replaceAll(stack, receiver, initialized);
+            for (int i = 0; i < frameLocals.length; i++) {
+                if (frameLocals[i].equals(receiver)) frameLocals[i] = initialized;
+            }
+        }
+
+        var returnType = method.substring(method.indexOf(')') + 1);
+        if (!returnType.equals("V")) stack.add(JasminFrame.fromDescriptor(returnType));
+    }
+
+    private String pop(List<String> stack) {
+        return stack.remove(stack.size() - 1);
+    }
+}
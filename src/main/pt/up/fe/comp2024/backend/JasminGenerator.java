@@ -4,14 +4,19 @@ import org.specs.comp.ollir.*;
 import org.specs.comp.ollir.tree.TreeNode;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
 import pt.up.fe.specs.util.classmap.FunctionClassMap;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 import pt.up.fe.specs.util.utilities.StringLines;
 
 import javax.swing.text.AbstractDocument;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -32,11 +37,22 @@ public class JasminGenerator {
 
     Method currentMethod;
 
-    int stack_limit;
-    int stack_size;
+    int compareLabels;
+
+    /**
+     * Major version of the class file, or -1 to use the default of Jasmin. From version 50 on, the methods get
+     * StackMapTable frames.
+     */
+    private final int bytecodeVersion;
 
     private final FunctionClassMap<TreeNode, String> generators;
 
+    private final JasminInstructionSelector selector;
+
+    private final JasminPeephole peephole;
+    private final JasminStackifier stackifier;
+    private final boolean optimize;
+
     public JasminGenerator(OllirResult ollirResult) {
         this.ollirResult = ollirResult;
 
@@ -47,20 +63,94 @@ public class JasminGenerator {
         this.generators = new FunctionClassMap<>();
         generators.put(ClassUnit.class, this::generateClassUnit);
         generators.put(Method.class, this::generateMethod);
-        generators.put(AssignInstruction.class, this::generateAssign);
-        generators.put(SingleOpInstruction.class, this::generateSingleOp);
+        this.selector = new JasminInstructionSelector();
+        addPatterns();
+        var peepholeRules = JasminPeephole.getDefaultRules();
+        // removing stores changes the locals used by the code, so it is only done when optimizing
+        this.optimize = ollirResult.getConfig().getOrDefault("optimize", "false").equals("true");
+        if (!optimize) {
+            peepholeRules.removeIf(rule -> rule.getName().equals("store-load"));
+        }
+        this.stackifier = new JasminStackifier();
+        this.peephole = new JasminPeephole(peepholeRules, 100);
+        this.bytecodeVersion = Integer.parseInt(ollirResult.getConfig().getOrDefault("bytecodeVersion", "-1"));
+
+        generators.put(AssignInstruction.class, selector::emit);
+        generators.put(SingleOpInstruction.class, selector::emit);
         generators.put(LiteralElement.class, this::generateLoadInstruction);
         generators.put(Operand.class, this::generateLoadInstruction);
 
-        generators.put(BinaryOpInstruction.class, this::generateBinaryOp);
+        generators.put(BinaryOpInstruction.class, selector::emit);
         generators.put(ReturnInstruction.class, this::generateReturn);
         generators.put(CallInstruction.class, this::generateCall);
         generators.put(FieldInstruction.class, this::generateFieldInstruction);
 
-        generators.put(CondBranchInstruction.class, this::generateBranchInstruction);
+        generators.put(CondBranchInstruction.class, selector::emit);
         generators.put(GotoInstruction.class, this::generateGotoInstruction);
-        generators.put(UnaryOpInstruction.class, this::generateUnaryOp);
+        generators.put(UnaryOpInstruction.class, selector::emit);
+
+    }
 
+    /**
+     * Fills the instruction selection table. For each instruction type, the generic pattern comes first.
+     */
+    private void addPatterns() {
+        selector.add(InstructionType.ASSIGN, new JasminPattern("store", inst -> true,
+                inst -> getAssignSize((AssignInstruction) inst),
+                inst -> generateAssign((AssignInstruction) inst)));
+        selector.add(InstructionType.ASSIGN, new JasminPattern("iinc", this::isIncrement,
+                inst -> 3,
+                inst -> generateIncrement((AssignInstruction) inst)));
+
+        selector.add(InstructionType.NOPER, new JasminPattern("load", inst -> true,
+                inst -> getLoadSize(((SingleOpInstruction) inst).getSingleOperand()),
+                inst -> generateSingleOp((SingleOpInstruction) inst)));
+
+        selector.add(InstructionType.UNARYOPER, new JasminPattern("not", inst -> true,
+                inst -> getLoadSize(((UnaryOpInstruction) inst).getOperand()) + 2,
+                inst -> generateUnaryOp((UnaryOpInstruction) inst)));
+
+        // comparisons used as values are turned into a jump over 'iconst_0 goto end true: iconst_1 end:'
+        selector.add(InstructionType.BINARYOPER, new JasminPattern("arithmetic", inst -> !isComparison(inst),
+                inst -> getOperandsSize((BinaryOpInstruction) inst) + 1,
+                inst -> generateBinaryOp((BinaryOpInstruction) inst)));
+        selector.add(InstructionType.BINARYOPER, new JasminPattern("if_icmp", this::isComparison,
+                inst -> getOperandsSize((BinaryOpInstruction) inst) + 3 + 5,
+                inst -> generateBooleanValue(label -> generateIcmpCompare((BinaryOpInstruction) inst, label))));
+        selector.add(InstructionType.BINARYOPER, new JasminPattern("if-zero", this::isZeroComparison,
+                inst -> getLoadSize(getNonZeroOperand((BinaryOpInstruction) inst)) + 3 + 5,
+                inst -> generateBooleanValue(label -> generateZeroCompare((BinaryOpInstruction) inst, label))));
+
+        selector.add(InstructionType.BRANCH, new JasminPattern("if_icmp",
+                inst -> isComparison(((CondBranchInstruction) inst).getCondition()),
+                inst -> getOperandsSize((BinaryOpInstruction) ((CondBranchInstruction) inst).getCondition()) + 3,
+                inst -> generateIcmpCompare((BinaryOpInstruction) ((CondBranchInstruction) inst).getCondition(),
+                        ((CondBranchInstruction) inst).getLabel())));
+        selector.add(InstructionType.BRANCH, new JasminPattern("if-zero",
+                inst -> isZeroComparison(((CondBranchInstruction) inst).getCondition()),
+                inst -> getLoadSize(getNonZeroOperand(
+                        (BinaryOpInstruction) ((CondBranchInstruction) inst).getCondition())) + 3,
+                inst -> generateZeroCompare((BinaryOpInstruction) ((CondBranchInstruction) inst).getCondition(),
+                        ((CondBranchInstruction) inst).getLabel())));
+        selector.add(InstructionType.BRANCH, new JasminPattern("ifne",
+                inst -> !isComparison(((CondBranchInstruction) inst).getCondition()),
+                inst -> selector.cost(((CondBranchInstruction) inst).getCondition()) + 3,
+                inst -> generateValueBranch((CondBranchInstruction) inst)));
+        selector.add(InstructionType.BRANCH, new JasminPattern("ifeq", this::isNegatedBranch,
+                inst -> getLoadSize(((UnaryOpInstruction) ((CondBranchInstruction) inst).getCondition())
+                        .getOperand()) + 3,
+                inst -> generateNegatedBranch((CondBranchInstruction) inst)));
+
+        // comparisons are measured against 'isub; ifXX', a size only: that code is wrong when the subtraction overflows
+        selector.setBaseline(InstructionType.BINARYOPER, inst -> isComparison(inst)
+                ? getOperandsSize((BinaryOpInstruction) inst) + 4 + 5
+                : getOperandsSize((BinaryOpInstruction) inst) + 1);
+        selector.setBaseline(InstructionType.BRANCH, inst -> {
+            var condition = ((CondBranchInstruction) inst).getCondition();
+            return isComparison(condition)
+                    ? getOperandsSize((BinaryOpInstruction) condition) + 4
+                    : selector.cost(condition) + 3;
+        });
     }
 
     public List<Report> getReports() {
@@ -89,6 +179,10 @@ public class JasminGenerator {
                 .map(this::getFieldSignature)
                 .collect(Collectors.joining());
 
+        if (bytecodeVersion >= 0) {
+            code.append(".bytecode ").append(bytecodeVersion).append(".0").append(NL);
+        }
+
         code
                 .append(".class ").append(getClassAccessModifier(classUnit)).append(className).append(NL)
                 .append(".super ").append(superClass).append(NL)
@@ -112,6 +206,15 @@ public class JasminGenerator {
             code.append(generators.apply(method));
         }
 
+        reports.add(Report.newLog(Stage.GENERATION, -1, -1, "Jasmin peephole rules applied: " +
+                peephole.getHits().entrySet().stream()
+                        .map(entry -> entry.getKey() + " " + entry.getValue())
+                        .collect(Collectors.joining(", ")), null));
+        if (optimize) {
+            reports.add(Report.newLog(Stage.GENERATION, -1, -1,
+                    "Variables kept on the operand stack: " + stackifier.getStackified(), null));
+        }
+
         return code.toString();
     }
 
@@ -121,10 +224,9 @@ public class JasminGenerator {
         currentMethod = method;
 
         var code = new StringBuilder();
-        var methodBody = new StringBuilder();
 
-        stack_limit = 0;
-        stack_size = 0;
+        compareLabels = 0;
+        selector.reset();
 
         // calculate modifier
         var modifier = method.getMethodAccessModifier() != AccessModifier.DEFAULT ?
@@ -154,91 +256,204 @@ public class JasminGenerator {
                 .append(returnType)
                 .append(NL);
 
+        // the body is kept as a list of instructions per OLLIR instruction, to be rewritten by the later passes
+        List<List<JasminInstruction>> instructionCode = new ArrayList<>();
         for (var inst : method.getInstructions()) {
+            var methodBody = new StringBuilder();
             var labels = method.getLabels(inst);
 
             for (var label : labels) {
                 methodBody.append(label).append(":").append(NL);
             }
 
-            var instCode = StringLines.getLines(generators.apply(inst)).stream()
-                    .collect(Collectors.joining(NL + TAB, TAB, NL));
-
-            methodBody.append(instCode);
+            methodBody.append(generators.apply(inst)).append(NL);
             if (inst.getInstType() == InstructionType.CALL
                     &&
                     ((CallInstruction) inst).getReturnType().getTypeOfElement() != ElementType.VOID) {
                 methodBody
                         .append("pop").append(NL);
-                updateStack(-1);
             }
+
+            List<JasminInstruction> lines = new ArrayList<>();
+            for (var line : StringLines.getLines(methodBody.toString())) {
+                var instruction = JasminInstruction.parse(line);
+                if (instruction != null) lines.add(instruction);
+            }
+            instructionCode.add(lines);
         }
 
+        if (optimize) stackifier.stackify(method, instructionCode);
 
-        // Add limits
-//        method.getVarTable().size() + 1
-        code.append(TAB).append(".limit stack ").append(stack_limit).append(NL);
-
-        int maxLocals = 0;
-        for(var var : method.getVarTable().values()){
-            int currReg = var.getVirtualReg();
-            if (currReg > maxLocals) {
-                maxLocals = currReg;
+        List<JasminInstruction> body = new ArrayList<>();
+        instructionCode.forEach(body::addAll);
+        peephole.optimize(body);
+
+        // the registers the code touches, which may be fewer than the variables once some are kept on the stack
+        int maxLocals = getInitialLocals(method).size();
+        for (var instruction : body) {
+            if (instruction.isLoad() || instruction.isStore() || instruction.is("iinc")) {
+                maxLocals = Math.max(maxLocals, instruction.getRegister() + 1);
             }
         }
-        if (method.getVarTable().isEmpty() && method.isStaticMethod()) maxLocals = -1;
 
-        code.append(TAB).append(".limit locals ").append(maxLocals+1).append(NL);
-        code.append(methodBody);
+        Map<Integer, JasminFrame> frames = Map.of();
+        if (bytecodeVersion >= 50) {
+            var frameAnalysis = new JasminFrameAnalysis(getInitialLocals(method), getDeclaredLocals(method), maxLocals);
+            frames = frameAnalysis.getFrames(body);
+            maxLocals = frameAnalysis.getMaxLocals();
+        }
+
+        // Add limits
+        code.append(TAB).append(".limit stack ").append(JasminStackAnalysis.getMaxStack(body)).append(NL);
+        code.append(TAB).append(".limit locals ").append(maxLocals).append(NL);
+        for (int i = 0; i < body.size(); i++) {
+            if (frames.containsKey(i)) {
+                for (var line : StringLines.getLines(frames.get(i).toString())) code.append(TAB).append(line).append(NL);
+            }
+
+            var instruction = body.get(i);
+            code.append(instruction.isLabel() ? "" : TAB).append(instruction).append(NL);
+        }
         code.append(".end method\n");
 
+        reports.add(Report.newLog(Stage.GENERATION, -1, -1,
+                String.format("Instruction selection in %s: %d bytes saved", methodName, selector.getSavedBytes()),
+                null));
+
         // unset method
         currentMethod = null;
 
         return code.toString();
     }
 
+    /**
+     * @param method
+     * @return the verification types of this and the parameters, which the method starts with
+     */
+    private List<String> getInitialLocals(Method method) {
+        List<String> locals = new ArrayList<>();
+        if (!method.isStaticMethod()) locals.add("Object " + ollirResult.getOllirClass().getClassName());
+        for (var param : method.getParams()) {
+            locals.add(JasminFrame.fromDescriptor(getType(param.getType())));
+        }
+        return locals;
+    }
+
+    /**
+     * @param method
+     * @return the verification type of the variable of each register that holds a single variable
+     */
+    private Map<Integer, String> getDeclaredLocals(Method method) {
+        Map<Integer, String> declared = new HashMap<>();
+        Set<Integer> shared = new HashSet<>();
+        for (var var : method.getVarTable().values()) {
+            if (var.getVarType().getTypeOfElement() == ElementType.CLASS) continue;
+            var type = var.getVarType().getTypeOfElement() == ElementType.THIS
+                    ? "Object " + ollirResult.getOllirClass().getClassName()
+                    : JasminFrame.fromDescriptor(getType(var.getVarType()));
+            var previous = declared.put(var.getVirtualReg(), type);
+            if (previous != null && !previous.equals(type)) shared.add(var.getVirtualReg());
+        }
+        shared.forEach(declared::remove);
+        return declared;
+    }
+
 // TODO:          ----         ----         ----         ----         ----         ----         ----         ----
 //       ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2
 //  -----          ----         ----         ----         ----         ----         ----         ----         ----
 
-    private String generateBranchInstruction(CondBranchInstruction instruction) {
-        StringBuilder code = new StringBuilder();
+    private String generateIcmpCompare(BinaryOpInstruction condition, String label) {
+        return generateLoadInstruction(condition.getLeftOperand()) +
+                generateLoadInstruction(condition.getRightOperand()) +
+                "if_icmp" + getCompareSuffix(condition.getOperation().getOpType()) + " " + label + NL;
+    }
 
-        Instruction condition = instruction.getCondition();
-        switch (condition.getInstType()) {
-            case UNARYOPER -> {
-                throw new NotImplementedException(instruction.getCondition().getInstType());
-            }
-            case BINARYOPER -> {
-                BinaryOpInstruction bop = (BinaryOpInstruction) condition;
-                code
-                        .append(generateLoadInstruction(bop.getLeftOperand()))
-                        .append(generateLoadInstruction(bop.getRightOperand()))
-                        .append("isub").append(NL)
-                        .append(switch (bop.getOperation().getOpType()) {
-                            case LTH -> "iflt ";
-                            case GTH -> "ifgt ";
-                            case EQ -> "ifeq ";
-                            case NEQ -> "ifne ";
-                            case LTE -> "ifle ";
-                            case GTE -> "ifge ";
-                            default -> throw new NotImplementedException(instruction.getInstType());
-                        });
-                updateStack(-1);
-            }
-            case NOPER -> {
-                SingleOpInstruction op = (SingleOpInstruction) condition;
-                code
-                        .append(generateLoadInstruction(op.getSingleOperand()))
-                        .append("ifne "); // Append here!
-            }
-            default -> throw new NotImplementedException(instruction.getInstType());
+    private String generateZeroCompare(BinaryOpInstruction condition, String label) {
+        var opType = condition.getOperation().getOpType();
+        // 0 < x is the same as x > 0
+        if (isZero(condition.getLeftOperand())) {
+            opType = switch (opType) {
+                case LTH -> OperationType.GTH;
+                case GTH -> OperationType.LTH;
+                case LTE -> OperationType.GTE;
+                case GTE -> OperationType.LTE;
+                default -> opType;
+            };
         }
 
-        code.append(instruction.getLabel());
+        return generateLoadInstruction(getNonZeroOperand(condition)) +
+                "if" + getCompareSuffix(opType) + " " + label + NL;
+    }
 
-        return code.toString();
+    private String generateValueBranch(CondBranchInstruction instruction) {
+        return generators.apply(instruction.getCondition()) +
+                "ifne " + instruction.getLabel() + NL;
+    }
+
+    private String generateNegatedBranch(CondBranchInstruction instruction) {
+        var condition = (UnaryOpInstruction) instruction.getCondition();
+        return generateLoadInstruction(condition.getOperand()) +
+                "ifeq " + instruction.getLabel() + NL;
+    }
+
+    /**
+     * @param compare generates a jump to the label it receives when the comparison holds
+     * @return code that leaves 1 on the stack when the comparison holds and 0 otherwise
+     */
+    private String generateBooleanValue(Function<String, String> compare) {
+        var n = compareLabels++;
+        var trueLabel = "cmp_true_" + n;
+        var endLabel = "cmp_end_" + n;
+
+        return compare.apply(trueLabel) +
+                "iconst_0" + NL +
+                "goto " + endLabel + NL +
+                trueLabel + ":" + NL +
+                "iconst_1" + NL +
+                endLabel + ":" + NL;
+    }
+
+    private String getCompareSuffix(OperationType opType) {
+        return switch (opType) {
+            case LTH -> "lt";
+            case GTH -> "gt";
+            case EQ -> "eq";
+            case NEQ -> "ne";
+            case LTE -> "le";
+            case GTE -> "ge";
+            default -> throw new NotImplementedException(opType);
+        };
+    }
+
+    private boolean isComparison(Instruction instruction) {
+        if (!(instruction instanceof BinaryOpInstruction binaryOp)) return false;
+        return switch (binaryOp.getOperation().getOpType()) {
+            case LTH, GTH, EQ, NEQ, LTE, GTE -> true;
+            default -> false;
+        };
+    }
+
+    private boolean isZeroComparison(Instruction instruction) {
+        return isComparison(instruction)
+                && (isZero(((BinaryOpInstruction) instruction).getLeftOperand())
+                || isZero(((BinaryOpInstruction) instruction).getRightOperand()));
+    }
+
+    private boolean isNegatedBranch(Instruction instruction) {
+        return ((CondBranchInstruction) instruction).getCondition() instanceof UnaryOpInstruction unaryOp
+                && unaryOp.getOperation().getOpType() == OperationType.NOTB;
+    }
+
+    private boolean isZero(Element element) {
+        return element instanceof LiteralElement literal && Integer.parseInt(literal.getLiteral()) == 0;
+    }
+
+    /**
+     * @param condition a comparison against the literal 0
+     * @return the other operand of the comparison
+     */
+    private Element getNonZeroOperand(BinaryOpInstruction condition) {
+        return isZero(condition.getLeftOperand()) ? condition.getRightOperand() : condition.getLeftOperand();
     }
 
     private String generateGotoInstruction(GotoInstruction instruction) {
@@ -253,8 +468,6 @@ public class JasminGenerator {
                         .append("iconst_1").append(NL)
                         .append(generateLoadInstruction(instruction.getOperand()))
                         .append("ixor").append(NL);
-                updateStack(new ArrayList<>(Arrays.asList(1, -1)));
-//                stack_limit = Math.max(stack_size + 1, stack_limit); // ???? como adiciona e da logo pop
             }
             default -> throw new NotImplementedException(instruction.getOperation().getOpType());
         };
@@ -262,18 +475,6 @@ public class JasminGenerator {
         return code.toString();
     }
 
-    private void updateStack(int stackChange) {
-        stack_size += stackChange;
-        stack_limit = Math.max(stack_size, stack_limit);
-    }
-
-    private void updateStack(List<Integer> stackChanges) {
-        for (int j : stackChanges) {
-            stack_size += j;
-            stack_limit = Math.max(stack_size, stack_limit);
-        }
-    }
-
 // TODO:          ----         ----         ----         ----         ----         ----         ----         ----
 //       ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2    ENTREGA 2
 //  -----          ----         ----         ----         ----         ----         ----         ----         ----
@@ -305,6 +506,92 @@ public class JasminGenerator {
         return code.toString();
     }
 
+    private boolean isIncrement(Instruction instruction) {
+        var assign = (AssignInstruction) instruction;
+        if (!(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand) return false;
+        if (currentMethod.getVarTable().get(dest.getName()).getVarType().getTypeOfElement() != ElementType.INT32)
+            return false;
+
+        return assign.getRhs() instanceof BinaryOpInstruction binaryOp && getIncrement(dest, binaryOp) != null;
+    }
+
+    /**
+     * @param dest
+     * @param binaryOp
+     * @return the constant added to dest when binaryOp is 'dest + c', 'c + dest' or 'dest - c' and the constant fits
+     * in the byte of iinc, or null otherwise
+     */
+    private Integer getIncrement(Operand dest, BinaryOpInstruction binaryOp) {
+        var left = binaryOp.getLeftOperand();
+        var right = binaryOp.getRightOperand();
+
+        Integer increment = switch (binaryOp.getOperation().getOpType()) {
+            case ADD -> {
+                if (isVariable(left, dest) && right instanceof LiteralElement literal)
+                    yield Integer.parseInt(literal.getLiteral());
+                if (isVariable(right, dest) && left instanceof LiteralElement literal)
+                    yield Integer.parseInt(literal.getLiteral());
+                yield null;
+            }
+            case SUB -> isVariable(left, dest) && right instanceof LiteralElement literal
+                    ? -Integer.parseInt(literal.getLiteral())
+                    : null;
+            default -> null;
+        };
+
+        if (increment == null || increment < -128 || increment > 127) return null;
+        return increment;
+    }
+
+    private boolean isVariable(Element element, Operand variable) {
+        return element instanceof Operand operand && !(element instanceof ArrayOperand)
+                && operand.getName().equals(variable.getName());
+    }
+
+    private String generateIncrement(AssignInstruction assign) {
+        var dest = (Operand) assign.getDest();
+        var increment = getIncrement(dest, (BinaryOpInstruction) assign.getRhs());
+
+        return "iinc " + getRegister(dest.getName()) + " " + increment + NL;
+    }
+
+    private int getAssignSize(AssignInstruction assign) {
+        var size = selector.cost(assign.getRhs());
+
+        if (assign.getDest() instanceof ArrayOperand arrayOperand) {
+            return size + getRegisterSize(arrayOperand.getName())
+                    + getLoadSize(arrayOperand.getIndexOperands().get(0)) + 1;
+        }
+        return size + getRegisterSize(((Operand) assign.getDest()).getName());
+    }
+
+    private int getOperandsSize(BinaryOpInstruction binaryOp) {
+        return getLoadSize(binaryOp.getLeftOperand()) + getLoadSize(binaryOp.getRightOperand());
+    }
+
+    /**
+     * @param element
+     * @return the size in bytes of the code generated by {@link #generateLoadInstruction}
+     */
+    private int getLoadSize(Element element) {
+        if (element instanceof LiteralElement literal) {
+            int val = Integer.parseInt(literal.getLiteral());
+            if (val >= -1 && val <= 5) return 1;
+            if (val >= -32768 && val <= 32767) return val >= -128 && val <= 127 ? 2 : 3;
+            return 2;
+        }
+        if (element instanceof ArrayOperand arrayOperand) {
+            return getRegisterSize(arrayOperand.getName()) + getLoadSize(arrayOperand.getIndexOperands().get(0)) + 1;
+        }
+        if (element.getType().getTypeOfElement() == ElementType.THIS) return 1;
+        return getRegisterSize(((Operand) element).getName());
+    }
+
+    private int getRegisterSize(String name) {
+        if (name.equals("THIS")) return 1;
+        return getRegister(name) > 3 ? 2 : 1;
+    }
+
     private String generateSingleOp(SingleOpInstruction singleOp) {
         return generators.apply(singleOp.getSingleOperand());
     }
@@ -318,17 +605,11 @@ public class JasminGenerator {
                     case MUL -> "imul";
                     case SUB -> "isub";
                     case DIV -> "idiv";
-                    case LTH -> "isub" + NL + "iflt ";
-                    case GTH -> "isub" + NL + "ifgt ";
-                    case EQ -> "isub" + NL + "ifeq ";
-                    case NEQ -> "isub" + NL + "ifne ";
-                    case LTE -> "isub" + NL + "ifle ";
-                    case GTE -> "isub" + NL + "ifge ";
+                    case ANDB -> "iand";
+                    case ORB -> "ior";
                     default -> throw new NotImplementedException(binaryOp.getOperation().getOpType());
                 } +
                 NL;
-
-        updateStack(-1);
         return code;
     }
 
@@ -368,7 +649,6 @@ public class JasminGenerator {
                         .append("(").append(paramTypes).append(")")
                         .append(getType(callInst.getReturnType()))
                         .append(NL);
-                updateStack(1);
             }
             case invokestatic -> {
                 var caller = (Operand) callInst.getCaller();
@@ -388,7 +668,6 @@ public class JasminGenerator {
                         .append("(").append(paramTypes).append(")")
                         .append(getType(callInst.getReturnType()))
                         .append(NL);
-                updateStack(1);
             }
             case invokespecial -> {
                 var caller = (Operand) callInst.getCaller();
@@ -402,7 +681,6 @@ public class JasminGenerator {
                         .append(NL)
                         .append("pop")
                         .append(NL);
-                updateStack(1);
             }
             case NEW -> {
                 var caller = (Operand) callInst.getCaller();
@@ -417,8 +695,6 @@ public class JasminGenerator {
                             .append("new ").append(caller.getName()).append(NL)
                             .append("dup").append(NL);
                 }
-
-                updateStack(2);
             }
             case arraylength -> {
                 code
@@ -497,15 +773,12 @@ public class JasminGenerator {
         switch (operand.getType().getTypeOfElement()) {
             case INT32, BOOLEAN -> {
                 if (currentMethod.getVarTable().get(operand.getName()).getVarType().getTypeOfElement() == ElementType.ARRAYREF) {
-                    updateStack(31);
                     code.append("iastore");
                 } else {
-                    updateStack(-1);
                     code.append("istore").append(reg);
                 }
             }
             case OBJECTREF, STRING, ARRAYREF, CLASS -> {
-                updateStack(-1);
                 code.append("astore").append(reg);
             }
             default -> throw new NotImplementedException(operand);
@@ -532,7 +805,6 @@ public class JasminGenerator {
                     .append("aload").append(getRegIndex(((Operand) element).getName())).append(NL)
                     .append(generateLoadInstruction(((ArrayOperand) element).getIndexOperands().get(0)))
                     .append("iaload").append(NL);
-            updateStack(new ArrayList<>(Arrays.asList(1, -1)));
         } else if (element instanceof Operand) {
             code.append(switch (element.getType().getTypeOfElement()) {
                 case INT32, BOOLEAN -> "iload" + getRegIndex(((Operand) element).getName());
@@ -541,8 +813,6 @@ public class JasminGenerator {
                 default -> throw new NotImplementedException(element);
             });
         }
-
-        updateStack(1);
         return code + NL;
     }
 
@@ -577,10 +847,14 @@ public class JasminGenerator {
 
     private String getRegIndex(String name) {
         if (name.equals("THIS")) return "_0";
-        var reg = currentMethod.getVarTable().get(name).getVirtualReg();
+        var reg = getRegister(name);
         return (reg > 3 ?  " " : "_") + reg;
     }
 
+    private int getRegister(String name) {
+        return currentMethod.getVarTable().get(name).getVirtualReg();
+    }
+
     private String getType(Type type) {
         return switch (type.getTypeOfElement()) {
             case INT32 -> "I";
@@ -0,0 +1,140 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A line of the body of a Jasmin method: either a label or an opcode with its operands.
+ */
+public class JasminInstruction {
+    private final String label;
+    private final String opcode;
+    private final List<String> operands;
+
+    private JasminInstruction(String label, String opcode, List<String> operands) {
+        this.label = label;
+        this.opcode = opcode;
+        this.operands = operands;
+    }
+
+    public static JasminInstruction label(String label) {
+        return new JasminInstruction(label, null, List.of());
+    }
+
+    public static JasminInstruction of(String opcode, String... operands) {
+        return new JasminInstruction(null, opcode, new ArrayList<>(Arrays.asList(operands)));
+    }
+
+    /**
+     * @param line a line of Jasmin code, such as "iload 4", "iinc 1 -1" or "loop:"
+     * @return the parsed instruction, or null for a blank line
+     */
+    public static JasminInstruction parse(String line) {
+        line = line.strip();
+        if (line.isEmpty()) return null;
+        if (line.endsWith(":")) return label(line.substring(0, line.length() - 1));
+
+        var parts = line.split("\\s+");
+        return of(parts[0], Arrays.copyOfRange(parts, 1, parts.length));
+    }
+
+    /**
+     * @param type the prefix of the opcode, 'i' or 'a'
+     * @param register
+     * @return the shortest load of the register
+     */
+    public static JasminInstruction load(char type, int register) {
+        return register > 3 ? of(type + "load", String.valueOf(register)) : of(type + "load_" + register);
+    }
+
+    public static JasminInstruction store(char type, int register) {
+        return register > 3 ? of(type + "store", String.valueOf(register)) : of(type + "store_" + register);
+    }
+
+    public boolean isLabel() {
+        return label != null;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public String getOpcode() {
+        return opcode;
+    }
+
+    public List<String> getOperands() {
+        return operands;
+    }
+
+    public String getOperand(int index) {
+        return operands.get(index);
+    }
+
+    public boolean is(String... opcodes) {
+        if (isLabel()) return false;
+        for (var op : opcodes) {
+            if (opcode.equals(op)) return true;
+        }
+        return false;
+    }
+
+    public boolean isLoad() {
+        return !isLabel() && (opcode.startsWith("iload") || opcode.startsWith("aload"));
+    }
+
+    public boolean isStore() {
+        return !isLabel() && (opcode.startsWith("istore") || opcode.startsWith("astore"));
+    }
+
+    /**
+     * @return the register of a load, store or iinc
+     */
+    public int getRegister() {
+        if (opcode.equals("iinc")) return Integer.parseInt(operands.get(0));
+
+        int underscore = opcode.indexOf('_');
+        return underscore >= 0 ? Integer.parseInt(opcode.substring(underscore + 1)) : Integer.parseInt(operands.get(0));
+    }
+
+    /**
+     * @return true if the instruction pushes a value without popping anything, e.g. a load or a constant
+     */
+    public boolean isPush() {
+        return isLoad() || !isLabel() && (opcode.startsWith("iconst_") || is("bipush", "sipush", "ldc"));
+    }
+
+    public boolean isJump() {
+        return !isLabel() && (opcode.equals("goto") || opcode.startsWith("if"));
+    }
+
+    public boolean isConditionalJump() {
+        return isJump() && !opcode.equals("goto");
+    }
+
+    /**
+     * @return true if the next instruction is never executed after this one
+     */
+    public boolean endsBlock() {
+        return is("goto", "return", "ireturn", "areturn", "athrow");
+    }
+
+    /**
+     * @return the label a jump goes to
+     */
+    public String getTarget() {
+        return operands.get(operands.size() - 1);
+    }
+
+    public void setTarget(String target) {
+        operands.set(operands.size() - 1, target);
+    }
+
+    @Override
+    public String toString() {
+        if (isLabel()) return label + ":";
+        if (operands.isEmpty()) return opcode;
+        return opcode + " " + String.join(" ", operands);
+    }
+}
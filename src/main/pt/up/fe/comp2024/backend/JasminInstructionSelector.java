@@ -0,0 +1,109 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.InstructionType;
+import pt.up.fe.specs.util.exceptions.NotImplementedException;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToIntFunction;
+
+/**
+ * Table driven instruction selector: an instruction is matched against the patterns registered for its type and the
+ * one with the smallest bytecode is emitted.
+ * <p>
+ * The bytes saved are counted against a fixed baseline size for the instruction type, when one is set, or else against
+ * the first pattern registered for the type that matches, which is taken as the generic translation.
+ */
+public class JasminInstructionSelector {
+    private final Map<InstructionType, List<JasminPattern>> patterns = new EnumMap<>(InstructionType.class);
+    private final Map<InstructionType, ToIntFunction<Instruction>> baselines = new EnumMap<>(InstructionType.class);
+    private int savedBytes = 0;
+
+    public JasminInstructionSelector() {
+
+    }
+
+    public void add(InstructionType type, JasminPattern pattern) {
+        patterns.computeIfAbsent(type, key -> new ArrayList<>()).add(pattern);
+    }
+
+    /**
+     * Sets the size the selected code is compared against to count the bytes saved. It is never emitted, so it may be
+     * the size of code that would not be correct.
+     *
+     * @param type
+     * @param size the size in bytes of the naive code for an instruction of the given type
+     */
+    public void setBaseline(InstructionType type, ToIntFunction<Instruction> size) {
+        baselines.put(type, size);
+    }
+
+    /**
+     * Instructions without patterns, such as calls, are emitted the same way by every pattern that contains them, so
+     * they count as 0 bytes.
+     *
+     * @param instruction
+     * @return the size in bytes of the cheapest code for the instruction
+     */
+    public int cost(Instruction instruction) {
+        if (!patterns.containsKey(instruction.getInstType())) return 0;
+        return select(instruction).cost(instruction);
+    }
+
+    /**
+     * Emits the cheapest code for the instruction. The operand instructions are selected by the pattern emitters,
+     * through this method.
+     *
+     * @param instruction
+     * @return the code of the selected pattern
+     */
+    public String emit(Instruction instruction) {
+        var selected = select(instruction); // throws if no pattern matches
+
+        var baseline = baselines.get(instruction.getInstType());
+        int baselineSize;
+        if (baseline != null) {
+            baselineSize = baseline.applyAsInt(instruction);
+        } else {
+            baselineSize = patterns.get(instruction.getInstType()).stream()
+                    .filter(pattern -> pattern.matches(instruction))
+                    .findFirst()
+                    .orElse(selected)
+                    .cost(instruction);
+        }
+
+        savedBytes += baselineSize - selected.cost(instruction);
+        return selected.emit(instruction);
+    }
+
+    /**
+     * @return the bytes saved since the last reset
+     */
+    public int getSavedBytes() {
+        return savedBytes;
+    }
+
+    public void reset() {
+        savedBytes = 0;
+    }
+
+    private JasminPattern select(Instruction instruction) {
+        JasminPattern best = null;
+        int bestCost = Integer.MAX_VALUE;
+        for (var pattern : patterns.getOrDefault(instruction.getInstType(), List.of())) {
+            if (!pattern.matches(instruction)) continue;
+
+            int cost = pattern.cost(instruction);
+            if (cost < bestCost) {
+                best = pattern;
+                bestCost = cost;
+            }
+        }
+
+        if (best == null) throw new NotImplementedException(instruction);
+        return best;
+    }
+}
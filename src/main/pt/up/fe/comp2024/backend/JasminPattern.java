@@ -0,0 +1,48 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.Instruction;
+
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * An entry of the instruction selection table: a tree pattern over an OLLIR instruction, the size in bytes of the
+ * bytecode it emits and the code generator for it.
+ */
+public class JasminPattern {
+    private final String name;
+    private final Predicate<Instruction> matcher;
+    private final ToIntFunction<Instruction> cost;
+    private final Function<Instruction, String> emitter;
+
+    public JasminPattern(String name, Predicate<Instruction> matcher, ToIntFunction<Instruction> cost,
+                         Function<Instruction, String> emitter) {
+        this.name = name;
+        this.matcher = matcher;
+        this.cost = cost;
+        this.emitter = emitter;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean matches(Instruction instruction) {
+        return matcher.test(instruction);
+    }
+
+    /**
+     * Must not have side effects, since it is called for every matching pattern and not only the one selected.
+     *
+     * @param instruction
+     * @return the size in bytes of the code emitted for the instruction
+     */
+    public int cost(Instruction instruction) {
+        return cost.applyAsInt(instruction);
+    }
+
+    public String emit(Instruction instruction) {
+        return emitter.apply(instruction);
+    }
+}
@@ -0,0 +1,238 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies a list of peephole rules at every position of a method until none of them changes the code, counting how
+ * many times each rule was applied.
+ */
+public class JasminPeephole {
+    private static final Map<String, String> INVERTED_JUMPS = Map.ofEntries(
+            Map.entry("ifeq", "ifne"), Map.entry("ifne", "ifeq"),
+            Map.entry("iflt", "ifge"), Map.entry("ifge", "iflt"),
+            Map.entry("ifgt", "ifle"), Map.entry("ifle", "ifgt"),
+            Map.entry("if_icmpeq", "if_icmpne"), Map.entry("if_icmpne", "if_icmpeq"),
+            Map.entry("if_icmplt", "if_icmpge"), Map.entry("if_icmpge", "if_icmplt"),
+            Map.entry("if_icmpgt", "if_icmple"), Map.entry("if_icmple", "if_icmpgt"));
+
+    private final List<JasminPeepholeRule> rules;
+    private final int maxPasses;
+    private final Map<String, Integer> hits = new LinkedHashMap<>();
+
+    public JasminPeephole() {
+        this(getDefaultRules(), 100);
+    }
+
+    /**
+     * @param rules     the rules, tried in order at each position
+     * @param maxPasses bound on the passes over the code, in case some rules undo each other
+     */
+    public JasminPeephole(List<JasminPeepholeRule> rules, int maxPasses) {
+        this.rules = rules;
+        this.maxPasses = maxPasses;
+        for (var rule : rules) hits.put(rule.getName(), 0);
+    }
+
+    /**
+     * @return the times each rule was applied, over all the methods optimized
+     */
+    public Map<String, Integer> getHits() {
+        return hits;
+    }
+
+    public void optimize(List<JasminInstruction> code) {
+        boolean changed = true;
+        for (int pass = 0; changed && pass < maxPasses; pass++) {
+            changed = false;
+            for (int i = 0; i < code.size(); i++) {
+                for (var rule : rules) {
+                    if (i < code.size() && rule.apply(code, i)) {
+                        hits.merge(rule.getName(), 1, Integer::sum);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    public static List<JasminPeepholeRule> getDefaultRules() {
+        List<JasminPeepholeRule> rules = new ArrayList<>();
+        rules.add(new JasminPeepholeRule("goto-next", JasminPeephole::removeJumpToNext));
+        rules.add(new JasminPeepholeRule("branch-over-goto", JasminPeephole::invertBranchOverGoto));
+        rules.add(new JasminPeepholeRule("jump-to-goto", JasminPeephole::threadJump));
+        rules.add(new JasminPeepholeRule("unused-label", JasminPeephole::removeUnusedLabel));
+        rules.add(new JasminPeepholeRule("unreachable", JasminPeephole::removeUnreachable));
+        rules.add(new JasminPeepholeRule("store-load", JasminPeephole::removeStoreLoad));
+        rules.add(new JasminPeepholeRule("self-copy", JasminPeephole::removeSelfCopy));
+        rules.add(new JasminPeepholeRule("push-pop", JasminPeephole::removePushPop));
+        rules.add(new JasminPeepholeRule("negated-branch", JasminPeephole::removeNegation));
+        rules.add(new JasminPeepholeRule("init-store", JasminPeephole::storeAfterInit));
+        return rules;
+    }
+
+    /**
+     * 'goto L' followed by 'L:', possibly with other labels in between, is removed.
+     */
+    private static boolean removeJumpToNext(List<JasminInstruction> code, int i) {
+        if (!code.get(i).is("goto")) return false;
+
+        var target = code.get(i).getTarget();
+        for (int j = i + 1; j < code.size() && code.get(j).isLabel(); j++) {
+            if (code.get(j).getLabel().equals(target)) {
+                code.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 'ifXX L; goto M; L:' becomes 'if!XX M; L:'.
+     */
+    private static boolean invertBranchOverGoto(List<JasminInstruction> code, int i) {
+        if (i + 2 >= code.size()) return false;
+        var branch = code.get(i);
+        var jump = code.get(i + 1);
+        var next = code.get(i + 2);
+        if (!branch.isConditionalJump() || !INVERTED_JUMPS.containsKey(branch.getOpcode())) return false;
+        if (!jump.is("goto") || !next.isLabel() || !next.getLabel().equals(branch.getTarget())) return false;
+
+        code.set(i, JasminInstruction.of(INVERTED_JUMPS.get(branch.getOpcode()), jump.getTarget()));
+        code.remove(i + 1);
+        return true;
+    }
+
+    /**
+     * A jump to a label followed by 'goto M' goes to M directly.
+     */
+    private static boolean threadJump(List<JasminInstruction> code, int i) {
+        var jump = code.get(i);
+        if (!jump.isJump()) return false;
+
+        int j = indexOfLabel(code, jump.getTarget());
+        while (j < code.size() && code.get(j).isLabel()) j++;
+        if (j >= code.size() || !code.get(j).is("goto")) return false;
+
+        var target = code.get(j).getTarget();
+        if (target.equals(jump.getTarget()) || j == i) return false;
+
+        jump.setTarget(target);
+        return true;
+    }
+
+    private static boolean removeUnusedLabel(List<JasminInstruction> code, int i) {
+        if (!code.get(i).isLabel()) return false;
+
+        var label = code.get(i).getLabel();
+        for (var inst : code) {
+            if (inst.isJump() && inst.getTarget().equals(label)) return false;
+        }
+        code.remove(i);
+        return true;
+    }
+
+    /**
+     * The instructions between a goto or return and the next label are removed.
+     */
+    private static boolean removeUnreachable(List<JasminInstruction> code, int i) {
+        if (!code.get(i).endsBlock() || i + 1 >= code.size() || code.get(i + 1).isLabel()) return false;
+
+        code.remove(i + 1);
+        return true;
+    }
+
+    /**
+     * 'xstore r; xload r' is removed when that load is the only read of r, leaving the value on the stack.
+     */
+    private static boolean removeStoreLoad(List<JasminInstruction> code, int i) {
+        if (i + 1 >= code.size()) return false;
+        var store = code.get(i);
+        var load = code.get(i + 1);
+        if (!store.isStore() || !load.isLoad() || store.getRegister() != load.getRegister()) return false;
+
+        int register = store.getRegister();
+        int reads = 0;
+        for (var inst : code) {
+            if ((inst.isLoad() || inst.is("iinc")) && inst.getRegister() == register) reads++;
+        }
+        if (reads != 1) return false;
+
+        code.remove(i + 1);
+        code.remove(i);
+        return true;
+    }
+
+    /**
+     * 'xload r; xstore r' does nothing.
+     */
+    private static boolean removeSelfCopy(List<JasminInstruction> code, int i) {
+        if (i + 1 >= code.size()) return false;
+        var load = code.get(i);
+        var store = code.get(i + 1);
+        if (!load.isLoad() || !store.isStore() || load.getRegister() != store.getRegister()) return false;
+
+        code.remove(i + 1);
+        code.remove(i);
+        return true;
+    }
+
+    private static boolean removePushPop(List<JasminInstruction> code, int i) {
+        if (i + 1 >= code.size() || !code.get(i).isPush() || !code.get(i + 1).is("pop")) return false;
+
+        code.remove(i + 1);
+        code.remove(i);
+        return true;
+    }
+
+    /**
+     * 'iconst_1; push b; ixor; ifne L' becomes 'push b; ifeq L', and the same for ifeq.
+     */
+    private static boolean removeNegation(List<JasminInstruction> code, int i) {
+        if (i + 3 >= code.size()) return false;
+        var first = code.get(i);
+        var second = code.get(i + 1);
+        if (!code.get(i + 2).is("ixor") || !code.get(i + 3).is("ifeq", "ifne")) return false;
+
+        JasminInstruction operand;
+        if (first.is("iconst_1") && second.isPush()) operand = second;
+        else if (second.is("iconst_1") && first.isPush()) operand = first;
+        else return false;
+
+        var branch = code.get(i + 3);
+        code.set(i + 3, JasminInstruction.of(INVERTED_JUMPS.get(branch.getOpcode()), branch.getTarget()));
+        code.remove(i + 2);
+        code.set(i + 1, operand);
+        code.remove(i);
+        return true;
+    }
+
+    /**
+     * 'new C; dup; astore r; aload r; invokespecial C/init; pop' becomes 'new C; dup; invokespecial C/init; astore r'.
+     */
+    private static boolean storeAfterInit(List<JasminInstruction> code, int i) {
+        if (i + 5 >= code.size()) return false;
+        if (!code.get(i).is("new") || !code.get(i + 1).is("dup")) return false;
+        var store = code.get(i + 2);
+        var load = code.get(i + 3);
+        var init = code.get(i + 4);
+        if (!store.isStore() || !load.isLoad() || store.getRegister() != load.getRegister()) return false;
+        if (!init.is("invokespecial") || !init.getOperand(0).contains("/<init>(") || !code.get(i + 5).is("pop"))
+            return false;
+
+        code.set(i + 2, init);
+        code.set(i + 3, store);
+        code.remove(i + 5);
+        code.remove(i + 4);
+        return true;
+    }
+
+    private static int indexOfLabel(List<JasminInstruction> code, String label) {
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).isLabel() && code.get(i).getLabel().equals(label)) return i;
+        }
+        return code.size();
+    }
+}
@@ -0,0 +1,30 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.List;
+import java.util.function.BiPredicate;
+
+/**
+ * A rewrite of a short window of Jasmin instructions.
+ */
+public class JasminPeepholeRule {
+    private final String name;
+    private final BiPredicate<List<JasminInstruction>, Integer> rewrite;
+
+    /**
+     * @param name
+     * @param rewrite receives the code of the method and the start of the window, and returns true if it changed
+     *                the code
+     */
+    public JasminPeepholeRule(String name, BiPredicate<List<JasminInstruction>, Integer> rewrite) {
+        this.name = name;
+        this.rewrite = rewrite;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean apply(List<JasminInstruction> code, int index) {
+        return rewrite.test(code, index);
+    }
+}
@@ -0,0 +1,137 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the maximum operand stack depth of a method body by propagating the stack height through every path of
+ * the control flow, starting with an empty stack.
+ */
+public class JasminStackAnalysis {
+
+    /**
+     * @param code the body of a method
+     * @return the maximum depth of the operand stack, in slots
+     * @throws RuntimeException if an instruction pops from an empty stack or a label is reached with different heights
+     */
+    public static int getMaxStack(List<JasminInstruction> code) {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = 0; i < code.size(); i++) {
+            if (code.get(i).isLabel()) labels.put(code.get(i).getLabel(), i);
+        }
+
+        var heights = new Integer[code.size()];
+        var worklist = new ArrayDeque<Integer>();
+        int maxStack = 0;
+
+        if (!code.isEmpty()) {
+            heights[0] = 0;
+            worklist.add(0);
+        }
+
+        while (!worklist.isEmpty()) {
+            int index = worklist.poll();
+            var instruction = code.get(index);
+            int height = heights[index];
+
+            if (!instruction.isLabel()) {
+                int popped = getPopped(instruction);
+                if (height < popped) {
+                    throw new RuntimeException("Instruction '" + instruction + "' pops from an empty stack");
+                }
+                height += getPushed(instruction) - popped;
+                maxStack = Math.max(maxStack, height);
+            }
+
+            if (instruction.isJump()) {
+                var target = labels.get(instruction.getTarget());
+                if (target == null) throw new RuntimeException("Jump to undefined label '" + instruction.getTarget() + "'");
+                merge(code, heights, worklist, target, height);
+            }
+            if (!instruction.endsBlock() && index + 1 < code.size()) {
+                merge(code, heights, worklist, index + 1, height);
+            }
+        }
+
+        return maxStack;
+    }
+
+    private static void merge(List<JasminInstruction> code, Integer[] heights, ArrayDeque<Integer> worklist,
+                              int index, int height) {
+        if (heights[index] == null) {
+            heights[index] = height;
+            worklist.add(index);
+        } else if (heights[index] != height) {
+            throw new RuntimeException("Stack height at '" + code.get(index) + "' is both " + heights[index]
+                    + " and " + height);
+        }
+    }
+
+    /**
+     * @param instruction
+     * @return the slots the instruction pops from the stack
+     */
+    public static int getPopped(JasminInstruction instruction) {
+        var opcode = instruction.getOpcode();
+        if (instruction.isLoad() || instruction.is("iinc", "goto", "return", "new", "ldc", "bipush", "sipush")
+                || opcode.startsWith("iconst_")) {
+            return 0;
+        }
+        if (instruction.isStore()) return 1;
+        if (opcode.startsWith("if_")) return 2;
+        if (opcode.startsWith("if")) return 1;
+
+        return switch (opcode) {
+            case "iadd", "isub", "imul", "idiv", "irem", "iand", "ior", "ixor", "ishl", "ishr", "iushr" -> 2;
+            case "iaload", "aaload" -> 2;
+            case "iastore", "aastore" -> 3;
+            case "ineg", "pop", "dup", "newarray", "anewarray", "arraylength", "getfield", "checkcast",
+                 "ireturn", "areturn", "athrow" -> 1;
+            case "putfield", "pop2", "swap" -> 2;
+            case "getstatic" -> 0;
+            case "putstatic" -> 1;
+            case "invokestatic" -> getArgumentsSize(instruction.getOperand(0));
+            case "invokevirtual", "invokespecial", "invokeinterface" -> getArgumentsSize(instruction.getOperand(0)) + 1;
+            default -> throw new RuntimeException("Unknown stack effect of '" + instruction + "'");
+        };
+    }
+
+    /**
+     * @param instruction
+     * @return the slots the instruction pushes onto the stack
+     */
+    public static int getPushed(JasminInstruction instruction) {
+        var opcode = instruction.getOpcode();
+        if (instruction.isPush() || instruction.is("new")) return 1;
+        if (instruction.isStore() || instruction.isJump()) return 0;
+
+        return switch (opcode) {
+            case "iadd", "isub", "imul", "idiv", "irem", "iand", "ior", "ixor", "ishl", "ishr", "iushr", "ineg" -> 1;
+            case "iaload", "aaload", "newarray", "anewarray", "arraylength", "checkcast", "getfield", "getstatic" -> 1;
+            case "dup" -> 2;
+            case "swap" -> 2;
+            case "invokestatic", "invokevirtual", "invokespecial", "invokeinterface" ->
+                    instruction.getOperand(0).endsWith(")V") ? 0 : 1;
+            default -> 0;
+        };
+    }
+
+    /**
+     * @param method a method reference such as "Foo/bar(I[ILjava/lang/String;)V"
+     * @return the slots taken by the arguments of the method
+     */
+    private static int getArgumentsSize(String method) {
+        int size = 0;
+        int i = method.indexOf('(') + 1;
+        while (method.charAt(i) != ')') {
+            while (method.charAt(i) == '[') i++;
+            if (method.charAt(i) == 'L') i = method.indexOf(';', i);
+            // long and double arguments are not supported by the language
+            size++;
+            i++;
+        }
+        return size;
+    }
+}
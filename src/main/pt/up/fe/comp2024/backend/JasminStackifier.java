@@ -0,0 +1,87 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRInstUtils;
+import pt.up.fe.comp2024.optimization.REGopt.REGInstInfo;
+import pt.up.fe.comp2024.optimization.REGopt.REGLiveness;
+
+import java.util.*;
+
+/**
+ * Keeps values on the operand stack instead of going through a local, for the values that are written by one
+ * instruction and only read once, by the instruction right after it. The local may hold other values elsewhere, as the
+ * temps that the OLLIR generator reuses between statements do.
+ * <p>
+ * OLLIR names every intermediate value, so 't := a * b; x := t + 1' would store t and load it back right away. When
+ * the code of the reading instruction starts by loading t, the store and the load are both dropped. If it starts by
+ * pushing some other value and then loading t for a commutative operation, the load is dropped and the other value is
+ * pushed on top of t instead.
+ */
+public class JasminStackifier {
+    private static final Set<String> COMMUTATIVE = Set.of("iadd", "imul", "iand", "ior", "ixor");
+
+    private int stackified = 0;
+
+    /**
+     * @return the number of variables kept on the stack, over all the methods
+     */
+    public int getStackified() {
+        return stackified;
+    }
+
+    /**
+     * @param method
+     * @param code   the code of each instruction of the method, in the same order, starting with its labels
+     */
+    public void stackify(Method method, List<List<JasminInstruction>> code) {
+        var instructions = method.getInstructions();
+        var liveness = new REGLiveness().livenessAnalysis(method);
+
+        for (int i = 0; i + 1 < instructions.size(); i++) {
+            var def = OLLIRInstUtils.getDef(instructions.get(i));
+            if (def == null || !isOnlyReadBy(method, def.getName(), liveness.get(i + 1))) continue;
+
+            var defCode = code.get(i);
+            var useCode = code.get(i + 1);
+            if (defCode.isEmpty() || useCode.size() < 2 || useCode.get(0).isLabel()) continue;
+
+            // the store must be the last thing the writer does, and the read must be the first use of the stack
+            var store = defCode.get(defCode.size() - 1);
+            int register = method.getVarTable().get(def.getName()).getVirtualReg();
+            if (!store.isStore() || store.getRegister() != register) continue;
+
+            var first = useCode.get(0);
+            if (first.isLoad() && first.getRegister() == register) {
+                useCode.remove(0);
+            } else if (useCode.size() >= 3 && first.isPush() && useCode.get(1).isLoad()
+                    && useCode.get(1).getRegister() == register && COMMUTATIVE.contains(useCode.get(2).getOpcode())) {
+                useCode.remove(1);
+            } else {
+                continue;
+            }
+
+            defCode.remove(defCode.size() - 1);
+            stackified++;
+        }
+    }
+
+    /**
+     * @param method
+     * @param name   a variable written by the instruction before the given one
+     * @param next   the liveness of the instruction that follows the write
+     * @return true if the variable is a local that the instruction reads once and that is dead after it
+     */
+    private static boolean isOnlyReadBy(Method method, String name, REGInstInfo next) {
+        var descriptor = method.getVarTable().get(name);
+        if (descriptor == null || descriptor.getScope() != VarScope.LOCAL
+                || descriptor.getVarType().getTypeOfElement() == ElementType.THIS
+                || descriptor.getVarType().getTypeOfElement() == ElementType.CLASS) {
+            return false;
+        }
+
+        long reads = OLLIRInstUtils.getUses(next.getInstruction()).stream()
+                .filter(use -> name.equals(use.getName()))
+                .count();
+        return reads == 1 && !next.getOuts().contains(name);
+    }
+}
@@ -3,10 +3,79 @@ package pt.up.fe.comp2024.optimization.ASTopt;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
 import pt.up.fe.comp.jmm.ast.PostorderJmmVisitor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static pt.up.fe.comp2024.ast.Kind.*;
 
+/**
+ * Folds constant expressions and simplifies the ones that are only partly constant, with a table of rewrite rules
+ * for each operator, tried in order.
+ * <p>
+ * The rules keep the semantics of Java: ints wrap around on overflow, which is why (x + 1) + 2 can become x + 3, a
+ * division by zero is left for the program to throw, and an operand is only dropped if evaluating it can't call a
+ * method, create an object or throw.
+ */
 public class ASTConstantFolder extends PostorderJmmVisitor<Void, Boolean> {
+    private static final Map<String, String> NEGATED_COMPARISONS = Map.of("<", ">=", "<=", ">", ">", "<=", ">=", "<");
+
+    private final Map<String, List<Rule>> rules = new HashMap<>();
+
+    /**
+     * A rewrite of a binary expression.
+     */
+    private interface Rule {
+        /**
+         * @param node the expression
+         * @param lhs  its left operand, without parentheses
+         * @param rhs  its right operand, without parentheses
+         * @return the node that replaced the expression, or null if the rule does not apply
+         */
+        JmmNode apply(JmmNode node, JmmNode lhs, JmmNode rhs);
+    }
+
     public ASTConstantFolder() {
+        for (String op : List.of("+", "-", "*", "/", "<", "<=", ">", ">=", "&&")) {
+            addRule(op, this::foldLiterals);
+        }
+
+        // x + 0, 0 + x, x - 0, x * 1, 1 * x, x / 1
+        addRule("+", (node, lhs, rhs) -> isInteger(rhs, 0) ? replace(node, lhs) : null);
+        addRule("+", (node, lhs, rhs) -> isInteger(lhs, 0) ? replace(node, rhs) : null);
+        addRule("-", (node, lhs, rhs) -> isInteger(rhs, 0) ? replace(node, lhs) : null);
+        addRule("*", (node, lhs, rhs) -> isInteger(rhs, 1) ? replace(node, lhs) : null);
+        addRule("*", (node, lhs, rhs) -> isInteger(lhs, 1) ? replace(node, rhs) : null);
+        addRule("/", (node, lhs, rhs) -> isInteger(rhs, 1) ? replace(node, lhs) : null);
+
+        // x * 0, 0 * x, x - x
+        addRule("*", (node, lhs, rhs) -> (isInteger(rhs, 0) && isPure(lhs)) || (isInteger(lhs, 0) && isPure(rhs))
+                ? replaceByLiteral(node, INTEGER_LITERAL.toString(), "0") : null);
+        addRule("-", (node, lhs, rhs) -> isPure(lhs) && isSameValue(lhs, rhs)
+                ? replaceByLiteral(node, INTEGER_LITERAL.toString(), "0") : null);
+
+        // (x + 1) + 2, (x - 1) + 2, (x + 1) - 2, (x * 2) * 3
+        addRule("+", this::reassociate);
+        addRule("-", this::reassociate);
+        addRule("*", this::reassociate);
+
+        // x < x, x <= x, x > x, x >= x
+        for (String op : List.of("<", "<=", ">", ">=")) {
+            addRule(op, (node, lhs, rhs) -> isPure(lhs) && isSameValue(lhs, rhs)
+                    ? replaceByLiteral(node, BOOLEAN.toString(), Boolean.toString(op.endsWith("="))) : null);
+        }
+
+        // true && x, x && true, false && x (x is never evaluated), x && false
+        addRule("&&", (node, lhs, rhs) -> isBoolean(lhs, true) ? replace(node, rhs) : null);
+        addRule("&&", (node, lhs, rhs) -> isBoolean(rhs, true) ? replace(node, lhs) : null);
+        addRule("&&", (node, lhs, rhs) -> isBoolean(lhs, false) || (isBoolean(rhs, false) && isPure(lhs))
+                ? replaceByLiteral(node, BOOLEAN.toString(), "false") : null);
+    }
+
+    private void addRule(String op, Rule rule) {
+        rules.computeIfAbsent(op, key -> new ArrayList<>()).add(rule);
     }
 
     @Override
@@ -22,87 +91,232 @@ public class ASTConstantFolder extends PostorderJmmVisitor<Void, Boolean> {
         return false; // no changes done for anything else
     }
 
+    /**
+     * Checks if the node is an expression this folder can rewrite.
+     *
+     * @param node
+     * @return true if {@link #fold} may replace the node
+     */
+    public boolean isFoldable(JmmNode node) {
+        return isOperator(node);
+    }
+
+    /**
+     * Folds or simplifies a single node, without visiting its children.
+     *
+     * @param node
+     * @return the node that replaced it (a literal or a part of the expression), or null if nothing was done
+     */
+    public JmmNode fold(JmmNode node) {
+        if (node.isInstance(UNARY_OP)) return foldUnaryOp(node);
+        if (isFoldable(node)) return foldBinaryExpr(node);
+        return null;
+    }
+
     private Boolean visitBinaryExpr(JmmNode node, Void unused) {
-        JmmNode lhs = node.getChild(0);
-        JmmNode rhs = node.getChild(1);
-        String op = node.get("op");
+        return foldBinaryExpr(node) != null;
+    }
 
-        while (lhs.getKind().equals(PAREN_EXPR.toString())) {
-            lhs = lhs.getChild(0);
-        }
-        while (rhs.getKind().equals(PAREN_EXPR.toString())) {
-            rhs = rhs.getChild(0);
+    private Boolean visitUnaryOp(JmmNode node, Void unused) {
+        return foldUnaryOp(node) != null;
+    }
+
+    private JmmNode foldBinaryExpr(JmmNode node) {
+        JmmNode lhs = skipParens(node.getChild(0));
+        JmmNode rhs = skipParens(node.getChild(1));
+
+        for (Rule rule : rules.getOrDefault(node.get("op"), List.of())) {
+            JmmNode newNode = rule.apply(node, lhs, rhs);
+            if (newNode != null) return newNode;
         }
 
-        JmmNode newNode;
-        if (lhs.getKind().equals(INTEGER_LITERAL.toString()) && rhs.getKind().equals(INTEGER_LITERAL.toString())) {
-            int left = Integer.parseInt(lhs.get("value"));
-            int right = Integer.parseInt(rhs.get("value"));
-            int result;
+        return null;
+    }
 
-            switch (op) {
-                case "+" -> result = left + right;
-                case "-" -> result = left - right;
-                case "*" -> result = left * right;
-                case "/" -> result = left / right;
-                case "<" -> result = left < right ? 1 : 0;
-                default -> throw new UnsupportedOperationException("Unsupported operator: " + op);
-            }
+    private JmmNode foldLiterals(JmmNode node, JmmNode lhs, JmmNode rhs) {
+        String op = node.get("op");
+
+        if (lhs.isInstance(BOOLEAN) && rhs.isInstance(BOOLEAN)) {
+            boolean result = lhs.get("value").equals("true") && rhs.get("value").equals("true");
+            return replaceByLiteral(node, BOOLEAN.toString(), Boolean.toString(result));
+        }
 
-            node.removeChild(lhs);
-            node.removeChild(rhs);
+        Integer left = getInteger(lhs);
+        Integer right = getInteger(rhs);
+        if (left == null || right == null) return null;
 
-            if (op.equals("<")){
-                newNode = new JmmNodeImpl(BOOLEAN.toString());
-                newNode.put("value", result==1 ? "true" : "false");
+        int result;
+        switch (op) {
+            case "+" -> result = left + right;
+            case "-" -> result = left - right;
+            case "*" -> result = left * right;
+            case "/" -> {
+                if (right == 0) return null;
+                result = left / right;
             }
-            else{
-                newNode = new JmmNodeImpl(INTEGER_LITERAL.toString());
-                newNode.put("value", Integer.toString(result));
+            case "<" -> result = left < right ? 1 : 0;
+            case "<=" -> result = left <= right ? 1 : 0;
+            case ">" -> result = left > right ? 1 : 0;
+            case ">=" -> result = left >= right ? 1 : 0;
+            default -> {
+                return null;
             }
+        }
 
-            node.replace(newNode);
+        if (node.isInstance(COMPARISON_EXPR)) {
+            return replaceByLiteral(node, BOOLEAN.toString(), Boolean.toString(result == 1));
+        }
+        return replaceByLiteral(node, INTEGER_LITERAL.toString(), Integer.toString(result));
+    }
 
-            return true;
+    /**
+     * (x op1 c1) op2 c2 becomes x op c, where c is computed now. Sums and differences are combined with each other,
+     * products with products.
+     */
+    private JmmNode reassociate(JmmNode node, JmmNode lhs, JmmNode rhs) {
+        Integer outer = getInteger(rhs);
+        if (outer == null || !lhs.isInstance(BINARY_EXPR)) return null;
+        Integer inner = getInteger(skipParens(lhs.getChild(1)));
+        if (inner == null) return null;
+
+        String op = node.get("op");
+        String innerOp = lhs.get("op");
+        int constant;
+        if (op.equals("*") && innerOp.equals("*")) {
+            constant = inner * outer;
+        } else if (!op.equals("*") && !innerOp.equals("*") && !innerOp.equals("/")) {
+            constant = (innerOp.equals("+") ? inner : -inner) + (op.equals("+") ? outer : -outer);
+        } else {
+            return null;
         }
-        else if (lhs.getKind().equals(BOOLEAN.toString()) && rhs.getKind().equals(BOOLEAN.toString())) {
-            boolean left = lhs.get("value").equals("true");
-            boolean right = rhs.get("value").equals("true");
-            boolean result = left && right;
 
-            node.removeChild(lhs);
-            node.removeChild(rhs);
+        if (!op.equals("*") && constant < 0 && constant != Integer.MIN_VALUE) {
+            lhs.put("op", "-");
+            constant = -constant;
+        } else if (!op.equals("*")) {
+            lhs.put("op", "+");
+        }
 
-            newNode = new JmmNodeImpl(BOOLEAN.toString());
-            newNode.put("value", result ? "true" : "false");
-            node.replace(newNode);
+        skipParens(lhs.getChild(1)).put("value", Integer.toString(constant));
+        return replace(node, lhs);
+    }
 
-            return true;
+    private JmmNode foldUnaryOp(JmmNode node) {
+        JmmNode expr = skipParens(node.getChild(0));
+
+        if (expr.isInstance(BOOLEAN)) {
+            String value = expr.get("value").equals("true") ? "false" : "true";
+            return replaceByLiteral(node, BOOLEAN.toString(), value);
         }
 
-        return false;
+        // !!x
+        if (expr.isInstance(UNARY_OP)) {
+            return replace(node, expr.getChild(0));
+        }
+
+        // !(a < b) is a >= b, ints have no NaN
+        if (expr.isInstance(COMPARISON_EXPR)) {
+            expr.put("op", NEGATED_COMPARISONS.get(expr.get("op")));
+            return replace(node, expr);
+        }
+
+        return null;
     }
 
-    private Boolean visitUnaryOp(JmmNode node, Void unused) {
-        JmmNode expr = node.getChild(0);
+    /**
+     * @param node
+     * @param kind  INTEGER_LITERAL or BOOLEAN
+     * @param value
+     * @return the new literal
+     */
+    private static JmmNode replaceByLiteral(JmmNode node, String kind, String value) {
+        JmmNode literal = new JmmNodeImpl(kind);
+        literal.put("value", value);
+        node.replace(literal);
+        return literal;
+    }
+
+    /**
+     * @param node
+     * @param part a descendant of the node, that takes its place
+     * @return the part
+     */
+    private static JmmNode replace(JmmNode node, JmmNode part) {
+        part.detach();
+        node.replace(part);
+        return part;
+    }
+
+    private static JmmNode skipParens(JmmNode node) {
+        while (node.isInstance(PAREN_EXPR)) {
+            node = node.getChild(0);
+        }
+        return node;
+    }
+
+    private static Integer getInteger(JmmNode node) {
+        if (!node.isInstance(INTEGER_LITERAL)) return null;
 
-        while (expr.getKind().equals(PAREN_EXPR.toString())) {
-            expr = expr.getChild(0);
+        try {
+            return Integer.parseInt(node.get("value"));
+        } catch (NumberFormatException e) {
+            return null;
         }
+    }
 
-        if (expr.getKind().equals(BOOLEAN.toString())) {
-            String value = expr.get("value").equals("true") ? "false" : "true";
-            JmmNode newNode;
+    private static boolean isInteger(JmmNode node, int value) {
+        Integer integer = getInteger(node);
+        return integer != null && integer == value;
+    }
 
-            node.removeChild(expr);
+    private static boolean isBoolean(JmmNode node, boolean value) {
+        return node.isInstance(BOOLEAN) && node.get("value").equals(Boolean.toString(value));
+    }
 
-            newNode = new JmmNodeImpl(BOOLEAN.toString());
-            newNode.put("value", value);
-            node.replace(newNode);
+    /**
+     * @param node
+     * @return true if evaluating the expression can't call a method, create an object or throw
+     */
+    private static boolean isPure(JmmNode node) {
+        node = skipParens(node);
 
+        if (node.isInstance(INTEGER_LITERAL) || node.isInstance(BOOLEAN) || node.isInstance(VAR_REF_EXPR)) {
             return true;
         }
+        if (node.isInstance(BINARY_EXPR) && node.get("op").equals("/")) {
+            Integer divisor = getInteger(skipParens(node.getChild(1)));
+            if (divisor == null || divisor == 0) return false;
+        }
+        if (isOperator(node)) {
+            return node.getChildren().stream().allMatch(ASTConstantFolder::isPure);
+        }
 
         return false;
     }
+
+    private static boolean isOperator(JmmNode node) {
+        return node.isInstance(BINARY_EXPR) || node.isInstance(COMPARISON_EXPR) || node.isInstance(BOOLEAN_EXPR)
+                || node.isInstance(UNARY_OP);
+    }
+
+    /**
+     * @param first
+     * @param second
+     * @return true if both are the same expression, reading the same variables
+     */
+    private static boolean isSameValue(JmmNode first, JmmNode second) {
+        first = skipParens(first);
+        second = skipParens(second);
+
+        if (!first.getKind().equals(second.getKind())) return false;
+        for (String attribute : List.of("name", "value", "op")) {
+            if (!first.getOptional(attribute).equals(second.getOptional(attribute))) return false;
+        }
+        if (first.getNumChildren() != second.getNumChildren()) return false;
+
+        for (int i = 0; i < first.getNumChildren(); i++) {
+            if (!isSameValue(first.getChild(i), second.getChild(i))) return false;
+        }
+        return true;
+    }
 }
@@ -1,22 +1,101 @@
 package pt.up.fe.comp2024.optimization.ASTopt;
 
-import jas.Var;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import static pt.up.fe.comp2024.ast.Kind.*;
 
-public class ASTConstantPropagation extends AJmmVisitor<Void, Boolean> {
-    private Map<String, VarInfo> variables = new HashMap<>();
+/**
+ * Constant propagation over a def-use index of a single method.
+ * <p>
+ * {@link #index} walks the method once, keeping for every variable the assignments that may have given it its current
+ * value, and records which assignments reach each use. After that, {@link #propagate} only looks at the uses of the
+ * assignment that just got a constant value: a use is replaced when every assignment reaching it has the same constant.
+ */
+public class ASTConstantPropagation extends AJmmVisitor<Void, Void> {
+    private static final List<JmmNode> UNKNOWN = List.of(); // the value may come from outside the assignments seen
+
+    private final SymbolTable table;
+    private final Set<String> fields = new HashSet<>(); // fields of this visible in the method, never tracked
+    private PersistentMap<String, List<JmmNode>> reaching = PersistentMap.empty(); // shared between branches, never copied
+    private final Map<JmmNode, Set<String>> writes = new IdentityHashMap<>(); // variables assigned inside each if/while
+    private final Map<JmmNode, List<JmmNode>> usesOf = new IdentityHashMap<>(); // assignment -> uses it reaches
+    private final Map<JmmNode, List<JmmNode>> defsOf = new IdentityHashMap<>(); // use -> assignments reaching it
+    private JmmNode method = null;
+    private int visits = 0;
+
+    public ASTConstantPropagation(SymbolTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Builds the def-use index of a method, replacing the one of the previous method.
+     *
+     * @param method
+     */
+    public void index(JmmNode method) {
+        this.method = method;
+        usesOf.clear();
+        defsOf.clear();
+
+        visit(method, null);
+    }
 
-    public ASTConstantPropagation() {
+    /**
+     * Replaces the uses reached by the given assignment, if its value is a constant that every other assignment
+     * reaching the use also has.
+     *
+     * @param assign an assignment of the indexed method
+     * @return the literals inserted
+     */
+    public List<JmmNode> propagate(JmmNode assign) {
+        var value = getConstant(assign);
+        if (value == null) return Collections.emptyList();
+
+        List<JmmNode> propagated = new ArrayList<>();
+        for (var use : usesOf.getOrDefault(assign, Collections.emptyList())) {
+            visits++;
+            var defs = defsOf.get(use);
+            if (defs == null || !ASTOptimizer.isAttached(use, method)) continue; // already replaced, or folded away
+
+            boolean sameValue = true;
+            for (var def : defs) {
+                if (!value.equals(getConstant(def))) {
+                    sameValue = false;
+                    break;
+                }
+            }
+            if (!sameValue) continue;
+
+            var isBoolean = value.equals("true") || value.equals("false");
+            var newNode = new JmmNodeImpl(isBoolean ? BOOLEAN.toString() : INTEGER_LITERAL.toString());
+            newNode.put("value", value);
+            use.replace(newNode);
+            defsOf.remove(use);
+            propagated.add(newNode);
+        }
 
+        return propagated;
+    }
+
+    public int getVisits() {
+        return visits;
+    }
+
+    @Override
+    public Void visit(JmmNode node, Void unused) {
+        visits++;
+        return super.visit(node, unused);
     }
 
     @Override
@@ -29,152 +108,178 @@ public class ASTConstantPropagation extends AJmmVisitor<Void, Boolean> {
         setDefaultVisit(this::visitChildren);
     }
 
-    private Boolean visitMethod(JmmNode node, Void unused){
-        boolean ret = visitChildren(node, unused);
-        for (var variable : variables.values()){
-            if (variable.isNotUsed()){
-                variable.getNode().getParent().removeChild(variable.getNode());
-            }
+    /**
+     * @param assign
+     * @return the value of the literal assigned, or null if the right-hand side is not a literal
+     */
+    private String getConstant(JmmNode assign) {
+        var rhs = assign.getChild(1);
+        while (rhs.isInstance(PAREN_EXPR)) {
+            rhs = rhs.getChild(0);
         }
-        variables.clear();
-        return ret;
+
+        return rhs.isInstance(INTEGER_LITERAL) || rhs.isInstance(BOOLEAN) ? rhs.get("value") : null;
     }
 
-    private Boolean visitChildren(JmmNode node, Void unused){
-        boolean result = false;
+    private Void visitMethod(JmmNode node, Void unused){
+        // any call may change a field, so their values are left to the OLLIR field caching
+        var methodName = node.get("name");
+        fields.clear();
+        table.getFields().forEach(field -> fields.add(field.getName()));
+        table.getLocalVariables(methodName).forEach(local -> fields.remove(local.getName()));
+        table.getParameters(methodName).forEach(param -> fields.remove(param.getName()));
+
+        writes.clear();
+        for (var child : node.getChildren()) {
+            computeWrites(child);
+        }
+
+        visitChildren(node, unused);
+        reaching = PersistentMap.empty();
+        writes.clear();
+        return null;
+    }
 
+    private Void visitChildren(JmmNode node, Void unused){
         for (var child : node.getChildren())
-            result = result | visit(child, unused);
+            visit(child, unused);
 
-        return result;
+        return null;
     }
 
-    private Boolean visitAssignStmt(JmmNode node, Void unused) {
+    private Void visitAssignStmt(JmmNode node, Void unused) {
         JmmNode lhs = node.getChild(0);
-        JmmNode rhs = node.getChild(1);
 
-        while (rhs.getKind().equals(PAREN_EXPR.toString())){
-            rhs = rhs.getChild(0);
+        visit(node.getChild(1), unused);
+
+        if (lhs.getKind().equals(ARRAY_ACCESS.toString())) { // array members are not tracked, the array and the index are uses
+            visitChildren(lhs, unused);
+            return null;
         }
 
-        if (lhs.getKind().equals(ARRAY_ACCESS.toString())) return false; // do not propagate array members
         String varName = lhs.get("name");
-        VarInfo var = variables.get(varName);
-
-        boolean ret = visit(rhs, unused); // check if any more propagation will be done on rhs
-
-        if (var != null && var.isNotUsed()){
-            var.getNode().getParent().removeChild(var.getNode()); // variable is assigned but reassigned without use, destroy it
-            variables.remove(varName);
-        }
-        else if (var!=null && !var.isNotUsed()) variables.remove(varName); // remove the old variable
-        if (rhs.getKind().equals(INTEGER_LITERAL.toString()) || rhs.getKind().equals(BOOLEAN.toString())){
-            var = new VarInfo(lhs.getParent(), rhs.get("value"));
-            variables.put(varName, var);
+        if (!fields.contains(varName)) {
+            reaching = reaching.put(varName, List.of(node)); // the only assignment reaching what follows
         }
-        else if (rhs.getKind().equals(VAR_REF_EXPR.toString())){
-            VarInfo rhsVar = variables.get(rhs.get("name"));
-            if (rhsVar != null && rhsVar.getValue() != null){
-                var = new VarInfo(lhs.getParent(), rhsVar.getValue());
-                variables.put(varName, var);
-            }
-        }
-
 
-        return ret;
+        return null;
     }
 
-    private Boolean visitVarRefExpr(JmmNode node, Void unused) {
+    private Void visitVarRefExpr(JmmNode node, Void unused) {
         String varName = node.get("name");
-        VarInfo var = variables.get(varName);
-
-        if (var != null && var.getValue() != null){
-            var newNode = new JmmNodeImpl(INTEGER_LITERAL.toString());
-            newNode.put("value", var.getValue());
-            node.replace(newNode);
-            var.incrementTimesUsed();
-            return true;
+        if (fields.contains(varName)) return null;
+
+        var defs = getReaching(varName);
+        if (defs == UNKNOWN) return null;
+
+        defsOf.put(node, defs);
+        for (var def : defs) {
+            usesOf.computeIfAbsent(def, key -> new ArrayList<>()).add(node);
         }
 
-        return false;
+        return null;
     }
 
-    public Boolean visitIfStmt(JmmNode node, Void unused){
-        boolean condition = visit(node.getChild(0), unused); // propagate to condition
+    public Void visitIfStmt(JmmNode node, Void unused){
+        visit(node.getChild(0), unused); // uses in the condition
 
-        Set<String> modifiedVariables = visitAssigns(node.getChild(1)); // get all variables modified inside the if
-        Set<String> modifiedVariablesElse = visitAssigns(node.getChild(2)); // get all variables modified inside the else
+        Set<String> modifiedVariables = getWrites(node.getChild(1)); // get all variables modified inside the if
+        Set<String> modifiedVariablesElse = getWrites(node.getChild(2)); // get all variables modified inside the else
 
-        Map<String, VarInfo> beforeIf = new HashMap<>(variables);
+        var beforeIf = reaching;
 
-        boolean ret = condition | visit(node.getChild(1), unused); // visit the thenstmt
+        visit(node.getChild(1), unused); // visit the thenstmt
+        var afterThen = reaching;
 
-        variables = beforeIf; // if we enter else stmt, the context will be that of before the ifstmt
+        reaching = beforeIf; // if we enter else stmt, the context will be that of before the ifstmt
+        visit(node.getChild(2), unused); // visit the elsestmt
 
-        modifiedVariables.forEach(value->{
-            if (variables.containsKey(value)){
-                variables.get(value).incrementTimesUsed(); // this guarantees that the variable is recognized as used for else and beyond, so it doesnt delete the original variable definition for non-use
+        // after the if, a variable assigned in either branch may have the value of any of the two
+        for (var modified : List.of(modifiedVariables, modifiedVariablesElse)) {
+            for (var varName : modified) {
+                if (fields.contains(varName)) continue;
+                reaching = reaching.put(varName, merge(afterThen.get(varName), getReaching(varName)));
             }
-        });
-
-        boolean elseRet = visit(node.getChild(2), unused); // visit the elsestmt with the modified variables removed
+        }
 
-        Map<String, VarInfo> copy = new HashMap<>(variables);
+        return null;
+    }
 
-        copy.forEach((key, value) -> { // this generates the context for allowing either the if and else to have happened
-            if (modifiedVariables.contains(key) || modifiedVariablesElse.contains(key)) { // remove all variables changed by elsestmt and the thenstmt, so that they dont propagate something that could have been changed
-                variables.remove(key); // this variable is no longer acceptable for optimization
-            }
-        });
+    public Void visitWhileStmt(JmmNode node, Void unused){
+        Set<String> modifiedVariables = getWrites(node); // get all variables modified inside the while
 
-        return condition | ret | elseRet;
-    }
+        // the condition and the body also see the values of the previous iteration
+        reaching = reaching.removeAll(modifiedVariables);
 
-    public Boolean visitWhileStmt(JmmNode node, Void unused){
-        boolean condition = visit(node.getChild(0), unused); // propagate to condition
+        visit(node.getChild(0), unused); // the condition, which is also evaluated after each iteration
+        visit(node.getChild(1), unused);
 
-        Set<String> modifiedVariables = visitAssigns(node.getChild(1)); // get all variables modified inside the while
+        reaching = reaching.removeAll(modifiedVariables); // the loop may exit after any iteration
 
-        Map<String, VarInfo> copy = new HashMap<>(variables);
+        return null;
+    }
 
-        copy.forEach((key, value) -> {
-            if (modifiedVariables.contains(key)) { // remove variables that will be modified by the whilestmt
-                variables.remove(key); // this variable is no longer acceptable for optimization
-            }
-        });
+    private List<JmmNode> getReaching(String varName) {
+        var defs = reaching.get(varName);
+        return defs == null ? UNKNOWN : defs;
+    }
 
-        boolean ret = condition | visit(node.getChild(1), unused); // visit the whilestmt with the modified variables removed
+    private List<JmmNode> merge(List<JmmNode> defs, List<JmmNode> otherDefs) {
+        if (defs == null || defs == UNKNOWN || otherDefs == UNKNOWN) return UNKNOWN;
+        if (defs == otherDefs) return defs;
 
-        copy = new HashMap<>(variables);
+        var merged = new ArrayList<>(defs);
+        for (var def : otherDefs) {
+            if (!merged.contains(def)) merged.add(def);
+        }
 
-        copy.forEach((key, value) -> {
-            if (modifiedVariables.contains(key)) { // remove variables modified by the whilestmt
-                variables.remove(key); // this variable is no longer acceptable for optimization
-            }
-        });
+        return Collections.unmodifiableList(merged);
+    }
 
-         return condition | ret;
+    private Set<String> getWrites(JmmNode stmt) {
+        return writes.getOrDefault(stmt, Collections.emptySet());
     }
 
-    public Set<String> visitAssigns(JmmNode node){
-        Set<String> modifiedVariables = new HashSet<>();
+    /**
+     * Computes, bottom-up, the variables assigned inside every statement, so each branch and loop can look them up
+     * instead of walking its body again.
+     *
+     * @param stmt
+     * @return the variables assigned inside the statement
+     */
+    private Set<String> computeWrites(JmmNode stmt) {
+        if (stmt.isInstance(ASSIGN_STMT)) {
+            JmmNode lhs = stmt.getChild(0);
+            var assigned = lhs.isInstance(VAR_REF_EXPR) ? Set.of(lhs.get("name")) : Collections.<String>emptySet();
+            writes.put(stmt, assigned);
+            return assigned;
+        }
 
-        for (var child : node.getChildren()){
-            if (child.getKind().equals(ASSIGN_STMT.toString())){
-                JmmNode lhs = child.getChild(0);
-                String varName = lhs.get("name");
-                modifiedVariables.add(varName);
-            }
-            else if (child.getKind().equals(IF_STMT.toString())){
-                modifiedVariables.addAll(visitAssigns(child.getChild(1)));
-                modifiedVariables.addAll(visitAssigns(child.getChild(2)));
-            }
-            else if (child.getKind().equals(WHILE_STMT.toString())){
-                modifiedVariables.addAll(visitAssigns(child.getChild(1)));
+        if (!stmt.isInstance(IF_STMT) && !stmt.isInstance(WHILE_STMT) && !stmt.isInstance(STMT_BODY)) {
+            return Collections.emptySet();
+        }
+
+        Set<String> modifiedVariables = null;
+        boolean shared = false;
+        for (var child : stmt.getChildren()) {
+            var childWrites = computeWrites(child);
+            if (childWrites.isEmpty()) continue;
+
+            if (modifiedVariables == null) {
+                modifiedVariables = childWrites; // a single child shares its set
+                shared = true;
+            } else {
+                if (shared) {
+                    modifiedVariables = new HashSet<>(modifiedVariables);
+                    shared = false;
+                }
+                modifiedVariables.addAll(childWrites);
             }
         }
 
+        if (modifiedVariables == null) modifiedVariables = Collections.emptySet();
+        writes.put(stmt, modifiedVariables);
         return modifiedVariables;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,124 @@
+package pt.up.fe.comp2024.optimization.ASTopt;
+
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import static pt.up.fe.comp2024.ast.Kind.*;
+
+/**
+ * Runs constant folding and constant propagation until neither can change the tree.
+ * <p>
+ * Instead of re-visiting the whole tree until nothing changes, each method is indexed once (see
+ * {@link ASTConstantPropagation}) and every foldable expression is folded once. After that, only the nodes affected by
+ * a rewrite are revisited: the parent of a folded or propagated node is put back in the worklist, and when an
+ * assignment gets a constant value only the uses it reaches are propagated.
+ */
+public class ASTOptimizer {
+    private final ASTConstantFolder folder = new ASTConstantFolder();
+    private final ASTConstantPropagation propagation;
+
+    private final Deque<JmmNode> worklist = new ArrayDeque<>();
+    private final Deque<JmmNode> constantAssignments = new ArrayDeque<>();
+
+    private int rewrites = 0;
+    private int visits = 0;
+
+    public ASTOptimizer(SymbolTable table) {
+        this.propagation = new ASTConstantPropagation(table);
+    }
+
+    /**
+     * @param root
+     * @return true if the tree was changed
+     */
+    public boolean optimize(JmmNode root) {
+        for (var method : root.getDescendants(METHOD_DECL)) {
+            optimizeMethod(method);
+        }
+
+        return rewrites > 0;
+    }
+
+    public int getRewrites() {
+        return rewrites;
+    }
+
+    /**
+     * @return the number of nodes visited, by the worklist and by the propagation
+     */
+    public int getVisits() {
+        return visits + propagation.getVisits();
+    }
+
+    /**
+     * @param node
+     * @param method
+     * @return true if the node is still part of the method, i.e. it was not removed or replaced by a rewrite
+     */
+    static boolean isAttached(JmmNode node, JmmNode method) {
+        while (node != method) {
+            if (node.getIndexOfSelf() < 0) return false;
+            node = node.getParent();
+        }
+
+        return true;
+    }
+
+    private void optimizeMethod(JmmNode method) {
+        propagation.index(method);
+        constantAssignments.addAll(method.getDescendants(ASSIGN_STMT));
+
+        // children first, so a single pass folds whole constant expressions
+        method.getDescendantsStream().filter(folder::isFoldable).forEach(this::addBefore);
+
+        while (!worklist.isEmpty() || !constantAssignments.isEmpty()) {
+            while (!worklist.isEmpty()) {
+                var node = worklist.poll();
+                if (!isAttached(node, method)) continue; // removed by an earlier rewrite
+                visits++;
+
+                var newNode = folder.fold(node);
+                if (newNode != null) {
+                    rewrites++;
+                    // a simplified expression may be simplified again, e.g. (x + 1) - 1 becomes x + 0
+                    if (folder.isFoldable(newNode)) worklist.push(newNode);
+                    enqueueParent(newNode);
+                }
+            }
+
+            if (!constantAssignments.isEmpty()) {
+                var propagated = propagation.propagate(constantAssignments.poll());
+                rewrites += propagated.size();
+                propagated.forEach(this::enqueueParent);
+            }
+        }
+    }
+
+    /**
+     * Puts back in the worklist whatever may be rewritten now that the given node is in the tree.
+     *
+     * @param node a literal, or what was left of a simplified expression
+     */
+    private void enqueueParent(JmmNode node) {
+        var parent = node.getParent();
+        while (parent != null && parent.isInstance(PAREN_EXPR)) {
+            parent = parent.getParent();
+        }
+        if (parent == null) return;
+
+        if (folder.isFoldable(parent)) {
+            worklist.add(parent);
+        } else if (parent.isInstance(ASSIGN_STMT) && (node.isInstance(INTEGER_LITERAL) || node.isInstance(BOOLEAN))) {
+            // the assignment now has a constant value, the uses it reaches can be propagated
+            constantAssignments.add(parent);
+        }
+    }
+
+    private void addBefore(JmmNode node) {
+        // getDescendantsStream is preorder, adding to the front reverses it into children first
+        worklist.push(node);
+    }
+}
@@ -0,0 +1,228 @@
+package pt.up.fe.comp2024.optimization.ASTopt;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+
+/**
+ * Immutable hash map that shares structure between versions.
+ * <p>
+ * It is a hash array mapped trie: every level uses 5 bits of the hash to choose a slot, and only the slots in use are
+ * stored. Adding or removing a key copies just the nodes on the path to that key, so keeping an old version around
+ * (e.g. the environment before an if) is free.
+ *
+ * @param <K>
+ * @param <V>
+ */
+public class PersistentMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_SHIFT = 30; // after this every bit of the hash was used, keys are chained
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (root == null) return null;
+
+        var entry = root.find(key, key.hashCode(), 0);
+        return entry == null ? null : (V) entry.value;
+    }
+
+    public boolean containsKey(K key) {
+        return root != null && root.find(key, key.hashCode(), 0) != null;
+    }
+
+    public PersistentMap<K, V> put(K key, V value) {
+        var start = root == null ? Node.EMPTY : root;
+        var added = new boolean[1];
+        var newRoot = start.put(new Entry(key, key.hashCode(), value, null), 0, added);
+
+        return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentMap<K, V> remove(K key) {
+        if (root == null) return this;
+
+        var newRoot = root.remove(key, key.hashCode(), 0);
+        if (newRoot == root) return this;
+
+        return new PersistentMap<>(newRoot, size - 1);
+    }
+
+    public PersistentMap<K, V> removeAll(Collection<K> keys) {
+        var result = this;
+        for (var key : keys) {
+            if (result.isEmpty()) break;
+            result = result.remove(key);
+        }
+
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<V> action) {
+        if (root != null) root.forEach(entry -> action.accept((V) entry.value));
+    }
+
+    /**
+     * Key-value pair. Keys that cannot be told apart by their hash are chained through 'next'.
+     */
+    private static class Entry {
+        final Object key;
+        final int hash;
+        final Object value;
+        final Entry next;
+
+        Entry(Object key, int hash, Object value, Entry next) {
+            this.key = key;
+            this.hash = hash;
+            this.value = value;
+            this.next = next;
+        }
+
+        Entry find(Object key) {
+            for (var entry = this; entry != null; entry = entry.next) {
+                if (entry.key.equals(key)) return entry;
+            }
+            return null;
+        }
+
+        Entry without(Object key) {
+            if (this.key.equals(key)) return next;
+            if (next == null) return this;
+
+            var newNext = next.without(key);
+            return newNext == next ? this : new Entry(this.key, hash, value, newNext);
+        }
+    }
+
+    /**
+     * Trie node, 'bitmap' tells which of the 32 slots are in use and 'slots' holds them in order.
+     * A slot is either an {@link Entry} or a deeper {@link Node}.
+     */
+    private static class Node {
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Entry find(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return null;
+
+            var slot = slots[index(bit)];
+            if (slot instanceof Node node) return node.find(key, hash, shift + BITS);
+
+            return ((Entry) slot).find(key);
+        }
+
+        Node put(Entry newEntry, int shift, boolean[] added) {
+            int bit = 1 << ((newEntry.hash >>> shift) & MASK);
+            int idx = index(bit);
+
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                var newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, idx);
+                newSlots[idx] = newEntry;
+                System.arraycopy(slots, idx, newSlots, idx + 1, slots.length - idx);
+                return new Node(bitmap | bit, newSlots);
+            }
+
+            var slot = slots[idx];
+            Object newSlot;
+            if (slot instanceof Node node) {
+                newSlot = node.put(newEntry, shift + BITS, added);
+            } else {
+                var entry = (Entry) slot;
+                if (entry.find(newEntry.key) != null) {
+                    added[0] = false;
+                    newSlot = new Entry(newEntry.key, newEntry.hash, newEntry.value, entry.without(newEntry.key));
+                } else if (entry.hash == newEntry.hash || shift >= MAX_SHIFT) {
+                    // no bits left to tell them apart, chain them
+                    added[0] = true;
+                    newSlot = new Entry(newEntry.key, newEntry.hash, newEntry.value, entry);
+                } else {
+                    added[0] = true;
+                    newSlot = EMPTY.put(entry, shift + BITS, new boolean[1]).put(newEntry, shift + BITS, new boolean[1]);
+                }
+            }
+
+            var newSlots = Arrays.copyOf(slots, slots.length);
+            newSlots[idx] = newSlot;
+            return new Node(bitmap, newSlots);
+        }
+
+        Node remove(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return this;
+
+            int idx = index(bit);
+            var slot = slots[idx];
+            Object newSlot;
+            if (slot instanceof Node node) {
+                var newNode = node.remove(key, hash, shift + BITS);
+                if (newNode == node) return this;
+                newSlot = newNode.slots.length == 0 ? null : newNode;
+            } else {
+                var entry = (Entry) slot;
+                if (entry.find(key) == null) return this;
+                newSlot = entry.without(key);
+            }
+
+            if (newSlot == null) {
+                var newSlots = new Object[slots.length - 1];
+                System.arraycopy(slots, 0, newSlots, 0, idx);
+                System.arraycopy(slots, idx + 1, newSlots, idx, slots.length - idx - 1);
+                return new Node(bitmap & ~bit, newSlots);
+            }
+
+            var newSlots = Arrays.copyOf(slots, slots.length);
+            newSlots[idx] = newSlot;
+            return new Node(bitmap, newSlots);
+        }
+
+        void forEach(Consumer<Entry> action) {
+            for (var slot : slots) {
+                if (slot instanceof Node node) {
+                    node.forEach(action);
+                    continue;
+                }
+                for (var entry = (Entry) slot; entry != null; entry = entry.next) {
+                    action.accept(entry);
+                }
+            }
+        }
+    }
+}
@@ -4,9 +4,14 @@ import pt.up.fe.comp.TestUtils;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
-import pt.up.fe.comp2024.optimization.ASTopt.ASTConstantFolder;
-import pt.up.fe.comp2024.optimization.ASTopt.ASTConstantPropagation;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.optimization.ASTopt.ASTOptimizer;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIROptimizer;
+import pt.up.fe.comp2024.optimization.REGopt.REGLinearScan;
 import pt.up.fe.comp2024.optimization.REGopt.REGRegisterAllocator;
+import pt.up.fe.comp2024.optimization.REGopt.REGSlotOrdering;
 
 
 import java.util.Collections;
@@ -30,11 +35,24 @@ public class JmmOptimizationImpl implements JmmOptimization {
 
     @Override
     public OllirResult optimize(OllirResult ollirResult) {
-        int maxRegisters = Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "-1"));
+        if (ollirResult.getConfig().getOrDefault("optimize", "false").equals("true")) {
+            ollirResult = new OLLIROptimizer().optimize(ollirResult);
+        }
 
-        if (maxRegisters >= 0) {
-            var regAlloc = new REGRegisterAllocator();
-            ollirResult = regAlloc.allocateRegisters(ollirResult, maxRegisters);
+        int maxRegisters = Integer.parseInt(ollirResult.getConfig().getOrDefault("registerAllocation", "-1"));
+        switch (CompilerConfig.getRegisterAllocator(ollirResult.getConfig())) {
+            case "graph" -> {
+                var regAlloc = new REGRegisterAllocator();
+                ollirResult = regAlloc.allocateRegisters(ollirResult, Math.max(0, maxRegisters));
+                ollirResult = new REGSlotOrdering().reorder(ollirResult);
+            }
+            case "linear" -> {
+                ollirResult = new REGLinearScan().allocateRegisters(ollirResult, maxRegisters);
+                ollirResult = new REGSlotOrdering().reorder(ollirResult);
+            }
+            default -> {
+                // "none", every variable keeps its own register
+            }
         }
 
         return ollirResult;
@@ -42,18 +60,14 @@ public class JmmOptimizationImpl implements JmmOptimization {
 
     @Override
     public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
-        var ASTConstantFolder = new ASTConstantFolder();
-        var ASTConstantPropagation = new ASTConstantPropagation();
         if (semanticsResult.getConfig().getOrDefault("optimize", "false").equals("false")) {
             return semanticsResult;
         }
-        boolean optimized;
-        do{
-            optimized = false;
-            optimized |= ASTConstantFolder.visit(semanticsResult.getRootNode(), null); // if any optimization is done, the loop will continue
-            optimized |= ASTConstantPropagation.visit(semanticsResult.getRootNode(), null);
-        }
-        while(optimized);
+        var ASTOptimizer = new ASTOptimizer(semanticsResult.getSymbolTable());
+        ASTOptimizer.optimize(semanticsResult.getRootNode()); // folds and propagates until nothing else changes
+        semanticsResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("AST optimizations: %d rewrites, %d nodes visited",
+                        ASTOptimizer.getRewrites(), ASTOptimizer.getVisits()), null));
         return semanticsResult;
     }
 }
@@ -0,0 +1,90 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.Instruction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Basic block of an OLLIR method: instructions that always run in sequence, only the first can be jumped to and only
+ * the last can jump.
+ */
+public class OLLIRBlock {
+    private final int index;
+    private final List<Instruction> instructions = new ArrayList<>();
+    private final List<OLLIRBlock> successors = new ArrayList<>();
+    private final List<OLLIRBlock> predecessors = new ArrayList<>();
+
+    private OLLIRBlock immediateDominator = null;
+    private final List<OLLIRBlock> dominated = new ArrayList<>();
+    private int postorder = -1;
+
+    public OLLIRBlock(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the position of the block in the method, in instruction order
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public Instruction getFirst() {
+        return instructions.get(0);
+    }
+
+    public Instruction getLast() {
+        return instructions.get(instructions.size() - 1);
+    }
+
+    public List<OLLIRBlock> getSuccessors() {
+        return successors;
+    }
+
+    public List<OLLIRBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * @return the immediate dominator, or null for the entry block and for unreachable blocks
+     */
+    public OLLIRBlock getImmediateDominator() {
+        return immediateDominator;
+    }
+
+    void setImmediateDominator(OLLIRBlock immediateDominator) {
+        this.immediateDominator = immediateDominator;
+    }
+
+    /**
+     * @return the children of this block in the dominator tree
+     */
+    public List<OLLIRBlock> getDominated() {
+        return dominated;
+    }
+
+    int getPostorder() {
+        return postorder;
+    }
+
+    void setPostorder(int postorder) {
+        this.postorder = postorder;
+    }
+
+    /**
+     * @return true if the block can be reached from the entry of the method
+     */
+    public boolean isReachable() {
+        return postorder >= 0;
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index;
+    }
+}
@@ -0,0 +1,275 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRSSA.Value;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation ("Constant Propagation with Conditional Branches", Wegman and Zadeck).
+ * <p>
+ * Values start unknown (TOP) and only go down to a constant and then to BOTTOM. A block is only evaluated once an edge
+ * into it is found to be executable, so the constants of a branch that never runs do not spoil the phis after it, and
+ * a loop whose variables keep their first value folds like straight-line code.
+ * <p>
+ * Afterwards, the uses of constant values are replaced by literals, the assignments of constant values get a literal
+ * right-hand side and the branches with a constant condition become a goto or are removed. The blocks that were found
+ * unreachable are left untouched.
+ */
+public class OLLIRConstantPropagation {
+
+    private enum Level {TOP, CONSTANT, BOTTOM}
+
+    private record Lattice(Level level, int constant) {
+        static final Lattice TOP = new Lattice(Level.TOP, 0);
+        static final Lattice BOTTOM = new Lattice(Level.BOTTOM, 0);
+
+        static Lattice of(int constant) {
+            return new Lattice(Level.CONSTANT, constant);
+        }
+
+        boolean isConstant() {
+            return level == Level.CONSTANT;
+        }
+
+        Lattice meet(Lattice other) {
+            if (level == Level.TOP) return other;
+            if (other.level == Level.TOP) return this;
+            if (level == Level.BOTTOM || other.level == Level.BOTTOM) return BOTTOM;
+            return constant == other.constant ? this : BOTTOM;
+        }
+    }
+
+    private OLLIRSSA ssa;
+    private OLLIRControlFlow cfg;
+
+    private final Map<Value, Lattice> values = new HashMap<>();
+    private final Map<OLLIRBlock, Set<OLLIRBlock>> executableEdges = new HashMap<>();
+    private final Set<OLLIRBlock> executableBlocks = new HashSet<>();
+    private final Deque<OLLIRBlock[]> flowWorklist = new ArrayDeque<>();
+    private final Deque<Value> ssaWorklist = new ArrayDeque<>();
+
+    private int rewrites = 0;
+    private int foldedBranches = 0;
+
+    public OLLIRConstantPropagation() {
+
+    }
+
+    public int getRewrites() {
+        return rewrites;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        cfg = new OLLIRControlFlow(method);
+        if (cfg.getEntry() == null) return false;
+
+        ssa = new OLLIRSSA(cfg);
+        values.clear();
+        executableEdges.clear();
+        executableBlocks.clear();
+
+        propagate();
+        return rewrite(method);
+    }
+
+    private void propagate() {
+        for (var entryValue : ssa.getEntryValues()) {
+            values.put(entryValue, Lattice.BOTTOM);
+        }
+
+        flowWorklist.add(new OLLIRBlock[]{null, cfg.getEntry()});
+
+        while (!flowWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            while (!flowWorklist.isEmpty()) {
+                var edge = flowWorklist.poll();
+                var block = edge[1];
+                if (!executableEdges.computeIfAbsent(block, key -> new HashSet<>()).add(edge[0])) continue;
+
+                for (var phi : ssa.getPhis(block)) {
+                    visitPhi(phi);
+                }
+
+                if (executableBlocks.add(block)) {
+                    for (var instruction : block.getInstructions()) {
+                        visitInstruction(instruction);
+                    }
+                }
+            }
+
+            while (!ssaWorklist.isEmpty()) {
+                var value = ssaWorklist.poll();
+
+                for (var phi : value.getPhiUsers()) {
+                    if (executableBlocks.contains(phi.getPhiBlock())) visitPhi(phi);
+                }
+                for (var user : value.getUsers()) {
+                    if (executableBlocks.contains(cfg.getBlock(user))) visitInstruction(user);
+                }
+            }
+        }
+    }
+
+    private void visitPhi(Value phi) {
+        var executable = executableEdges.getOrDefault(phi.getPhiBlock(), Collections.emptySet());
+
+        var result = Lattice.TOP;
+        for (var operand : phi.getPhiOperands().entrySet()) {
+            if (executable.contains(operand.getKey())) result = result.meet(getLattice(operand.getValue()));
+        }
+
+        update(phi, result);
+    }
+
+    private void visitInstruction(Instruction instruction) {
+        var def = ssa.getDefValue(instruction);
+        if (def != null) {
+            update(def, evaluate(instruction, ((AssignInstruction) instruction).getRhs()));
+        }
+
+        var block = cfg.getBlock(instruction);
+        if (block.getLast() != instruction) return;
+
+        switch (instruction.getInstType()) {
+            case RETURN -> {
+            }
+            case BRANCH -> {
+                var condition = evaluate(instruction, ((CondBranchInstruction) instruction).getCondition());
+                if (condition.isConstant()) {
+                    addEdge(block, condition.constant() != 0 ? cfg.getBranchTarget(block) : cfg.getFallthrough(block));
+                } else if (condition.level() == Level.BOTTOM) {
+                    block.getSuccessors().forEach(successor -> addEdge(block, successor));
+                }
+            }
+            default -> block.getSuccessors().forEach(successor -> addEdge(block, successor));
+        }
+    }
+
+    private void addEdge(OLLIRBlock from, OLLIRBlock to) {
+        if (to == null) return;
+
+        var executable = executableEdges.get(to);
+        if (executable == null || !executable.contains(from)) flowWorklist.add(new OLLIRBlock[]{from, to});
+    }
+
+    private void update(Value value, Lattice lattice) {
+        var old = getLattice(value);
+        var result = old.meet(lattice);
+        if (!result.equals(old)) {
+            values.put(value, result);
+            ssaWorklist.add(value);
+        }
+    }
+
+    private Lattice getLattice(Value value) {
+        return values.getOrDefault(value, Lattice.TOP);
+    }
+
+    /**
+     * @param top        the instruction of the method, used to find the versions of the variables read
+     * @param expression the instruction that computes the value
+     * @return the value of the expression given what is known so far
+     */
+    private Lattice evaluate(Instruction top, Instruction expression) {
+        return switch (expression.getInstType()) {
+            case NOPER -> evaluate(top, ((SingleOpInstruction) expression).getSingleOperand());
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) expression;
+                var left = evaluate(top, binaryOp.getLeftOperand());
+                var right = evaluate(top, binaryOp.getRightOperand());
+
+                if (left.level() == Level.BOTTOM || right.level() == Level.BOTTOM) yield Lattice.BOTTOM;
+                if (left.level() == Level.TOP || right.level() == Level.TOP) yield Lattice.TOP;
+
+                var opType = binaryOp.getOperation().getOpType();
+                var result = OLLIRInstUtils.evaluate(opType, left.constant(), right.constant());
+                yield result == null ? Lattice.BOTTOM : Lattice.of(result);
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) expression;
+                var operand = evaluate(top, unaryOp.getOperand());
+                var opType = unaryOp.getOperation().getOpType();
+
+                if (!operand.isConstant()) yield operand;
+                if (opType != OperationType.NOTB && opType != OperationType.NOT) yield Lattice.BOTTOM;
+                yield Lattice.of(operand.constant() == 0 ? 1 : 0);
+            }
+            default -> Lattice.BOTTOM;
+        };
+    }
+
+    private Lattice evaluate(Instruction top, Element element) {
+        var literal = OLLIRInstUtils.literalValue(element);
+        if (literal != null) return Lattice.of(literal);
+
+        var value = ssa.getValue(top, element);
+        return value == null ? Lattice.BOTTOM : getLattice(value);
+    }
+
+    private boolean rewrite(Method method) {
+        boolean changed = false;
+
+        for (var block : cfg.getBlocks()) {
+            if (!executableBlocks.contains(block)) continue;
+
+            for (var instruction : block.getInstructions()) {
+                changed |= rewriteInstruction(method, instruction);
+            }
+        }
+
+        return changed;
+    }
+
+    private boolean rewriteInstruction(Method method, Instruction instruction) {
+        var def = ssa.getDefValue(instruction);
+        if (def != null && getLattice(def).isConstant()) {
+            var assign = (AssignInstruction) instruction;
+            if (assign.getRhs() instanceof SingleOpInstruction singleOp
+                    && OLLIRInstUtils.literalValue(singleOp.getSingleOperand()) != null) {
+                return false;
+            }
+
+            var dest = (Operand) assign.getDest();
+            var literal = OLLIRInstUtils.literal(getLattice(def).constant(), dest.getType());
+            var newAssign = new AssignInstruction(dest, assign.getTypeOfAssign(), new SingleOpInstruction(literal));
+            OLLIRInstUtils.replaceInstruction(method, instruction, newAssign);
+            rewrites++;
+            return true;
+        }
+
+        if (instruction instanceof CondBranchInstruction branch) {
+            var condition = evaluate(instruction, branch.getCondition());
+            if (condition.isConstant()) {
+                if (condition.constant() != 0) {
+                    OLLIRInstUtils.replaceInstruction(method, instruction, new GotoInstruction(branch.getLabel()));
+                } else if (!OLLIRInstUtils.removeInstruction(method, instruction)) {
+                    return false;
+                }
+                foldedBranches++;
+                return true;
+            }
+        }
+
+        boolean changed = false;
+        for (var use : ssa.getUses(instruction)) {
+            if (!use.isReplaceable() || !use.isScalar()) continue;
+
+            var value = ssa.getValue(instruction, use.get());
+            if (value == null || !getLattice(value).isConstant()) continue;
+
+            use.set(OLLIRInstUtils.literal(getLattice(value).constant(), use.get().getType()));
+            rewrites++;
+            changed = true;
+        }
+
+        return changed;
+    }
+}
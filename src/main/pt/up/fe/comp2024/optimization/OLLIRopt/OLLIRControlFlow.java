@@ -0,0 +1,283 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Basic blocks, dominator tree and dominance frontiers of a method, built on top of {@link Method#buildCFG()}.
+ * <p>
+ * The instruction level edges come from buildCFG, except that a return has no successor other than the end of the
+ * method (buildCFG also links it to the next instruction). The structure is a snapshot: after the instructions of the
+ * method change, a new one has to be built.
+ */
+public class OLLIRControlFlow {
+    private final Method method;
+    private final List<OLLIRBlock> blocks = new ArrayList<>();
+    private final Map<Instruction, OLLIRBlock> blockOf = new HashMap<>();
+    private final List<OLLIRBlock> reversePostorder = new ArrayList<>();
+    private final Map<OLLIRBlock, Set<OLLIRBlock>> frontiers = new HashMap<>();
+
+    public OLLIRControlFlow(Method method) {
+        this.method = method;
+
+        resetCFG(method);
+        method.buildCFG();
+
+        buildBlocks();
+        computeOrder();
+        computeDominators();
+        computeFrontiers();
+    }
+
+    /**
+     * buildCFG only ever adds edges, so the old ones have to be removed before building it again.
+     *
+     * @param method
+     */
+    public static void resetCFG(Method method) {
+        for (var instruction : method.getInstructions()) {
+            instruction.getSuccessors().clear();
+            instruction.getPredecessors().clear();
+        }
+
+        try {
+            method.getBeginNode().getSuccessors().clear();
+            method.getEndNode().getPredecessors().clear();
+        } catch (RuntimeException e) {
+            // the CFG was never built, there is nothing to clear
+        }
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return every block, in instruction order
+     */
+    public List<OLLIRBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the first block, or null if the method has no instructions
+     */
+    public OLLIRBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    public OLLIRBlock getBlock(Instruction instruction) {
+        return blockOf.get(instruction);
+    }
+
+    /**
+     * @return the reachable blocks, each one after all of its predecessors except for loop back edges
+     */
+    public List<OLLIRBlock> getReversePostorder() {
+        return reversePostorder;
+    }
+
+    public Set<OLLIRBlock> getDominanceFrontier(OLLIRBlock block) {
+        return frontiers.getOrDefault(block, Collections.emptySet());
+    }
+
+    /**
+     * @param dominator
+     * @param block
+     * @return true if every path from the entry to block goes through dominator
+     */
+    public boolean dominates(OLLIRBlock dominator, OLLIRBlock block) {
+        for (var current = block; current != null; current = current.getImmediateDominator()) {
+            if (current == dominator) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return for each reachable block, the number of natural loops that contain it
+     */
+    public Map<OLLIRBlock, Integer> getLoopDepths() {
+        Map<OLLIRBlock, Set<OLLIRBlock>> loops = new HashMap<>();
+
+        for (var block : reversePostorder) {
+            for (var header : block.getSuccessors()) {
+                if (!dominates(header, block)) continue;
+
+                // back edge, the loop has every block that reaches 'block' without going through the header
+                var loop = loops.computeIfAbsent(header, key -> new HashSet<>(List.of(key)));
+                Deque<OLLIRBlock> worklist = new ArrayDeque<>();
+                if (loop.add(block)) worklist.push(block);
+
+                while (!worklist.isEmpty()) {
+                    for (var pred : worklist.pop().getPredecessors()) {
+                        if (pred.isReachable() && loop.add(pred)) worklist.push(pred);
+                    }
+                }
+            }
+        }
+
+        Map<OLLIRBlock, Integer> depths = new HashMap<>();
+        for (var block : reversePostorder) depths.put(block, 0);
+        for (var loop : loops.values()) {
+            for (var block : loop) depths.merge(block, 1, Integer::sum);
+        }
+        return depths;
+    }
+
+    /**
+     * @param block a block that ends in a conditional branch
+     * @return the block that runs when the condition is true
+     */
+    public OLLIRBlock getBranchTarget(OLLIRBlock block) {
+        var label = ((CondBranchInstruction) block.getLast()).getLabel();
+        return blockOf.get(method.getLabels().get(label));
+    }
+
+    /**
+     * @param block
+     * @return the block that follows in instruction order, or null for the last one
+     */
+    public OLLIRBlock getFallthrough(OLLIRBlock block) {
+        int next = block.getIndex() + 1;
+        return next < blocks.size() ? blocks.get(next) : null;
+    }
+
+    private void buildBlocks() {
+        var instructions = method.getInstructions();
+        if (instructions.isEmpty()) return;
+
+        Set<Instruction> leaders = new HashSet<>(method.getLabels().values());
+        leaders.add(instructions.get(0));
+        for (int i = 0; i < instructions.size() - 1; i++) {
+            if (endsBlock(instructions.get(i))) leaders.add(instructions.get(i + 1));
+        }
+
+        OLLIRBlock current = null;
+        for (var instruction : instructions) {
+            if (leaders.contains(instruction)) {
+                current = new OLLIRBlock(blocks.size());
+                blocks.add(current);
+            }
+            current.getInstructions().add(instruction);
+            blockOf.put(instruction, current);
+        }
+
+        for (var block : blocks) {
+            var last = block.getLast();
+            if (last.getInstType() == InstructionType.RETURN) continue;
+
+            for (var successor : last.getSuccessors()) {
+                if (successor.getNodeType() == NodeType.END) continue;
+
+                var successorBlock = blockOf.get((Instruction) successor);
+                if (!block.getSuccessors().contains(successorBlock)) {
+                    block.getSuccessors().add(successorBlock);
+                    successorBlock.getPredecessors().add(block);
+                }
+            }
+        }
+    }
+
+    private static boolean endsBlock(Instruction instruction) {
+        var type = instruction.getInstType();
+        return type == InstructionType.GOTO || type == InstructionType.BRANCH || type == InstructionType.RETURN;
+    }
+
+    private void computeOrder() {
+        if (blocks.isEmpty()) return;
+
+        // iterative depth-first search, a block gets its number once all of its successors are done
+        List<OLLIRBlock> postorder = new ArrayList<>();
+        Set<OLLIRBlock> visited = new HashSet<>();
+        Deque<Iterator<OLLIRBlock>> stack = new ArrayDeque<>();
+        Deque<OLLIRBlock> path = new ArrayDeque<>();
+
+        visited.add(getEntry());
+        path.push(getEntry());
+        stack.push(getEntry().getSuccessors().iterator());
+        while (!stack.isEmpty()) {
+            var successors = stack.peek();
+            if (successors.hasNext()) {
+                var next = successors.next();
+                if (visited.add(next)) {
+                    path.push(next);
+                    stack.push(next.getSuccessors().iterator());
+                }
+            } else {
+                stack.pop();
+                var done = path.pop();
+                done.setPostorder(postorder.size());
+                postorder.add(done);
+            }
+        }
+
+        for (int i = postorder.size() - 1; i >= 0; i--) {
+            reversePostorder.add(postorder.get(i));
+        }
+    }
+
+    /**
+     * "A Simple, Fast Dominance Algorithm", by Cooper, Harvey and Kennedy.
+     */
+    private void computeDominators() {
+        if (blocks.isEmpty()) return;
+
+        var entry = getEntry();
+        Map<OLLIRBlock, OLLIRBlock> idom = new HashMap<>();
+        idom.put(entry, entry);
+
+        boolean changed;
+        do {
+            changed = false;
+            for (var block : reversePostorder) {
+                if (block == entry) continue;
+
+                OLLIRBlock newIdom = null;
+                for (var pred : block.getPredecessors()) {
+                    if (!idom.containsKey(pred)) continue; // not processed yet, or unreachable
+
+                    newIdom = newIdom == null ? pred : intersect(pred, newIdom, idom);
+                }
+
+                if (newIdom != idom.get(block)) {
+                    idom.put(block, newIdom);
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        for (var block : reversePostorder) {
+            if (block == entry) continue;
+
+            var dominator = idom.get(block);
+            block.setImmediateDominator(dominator);
+            dominator.getDominated().add(block);
+        }
+    }
+
+    private static OLLIRBlock intersect(OLLIRBlock first, OLLIRBlock second, Map<OLLIRBlock, OLLIRBlock> idom) {
+        while (first != second) {
+            while (first.getPostorder() < second.getPostorder()) first = idom.get(first);
+            while (second.getPostorder() < first.getPostorder()) second = idom.get(second);
+        }
+
+        return first;
+    }
+
+    private void computeFrontiers() {
+        for (var block : reversePostorder) {
+            var reachablePreds = block.getPredecessors().stream().filter(OLLIRBlock::isReachable).toList();
+            if (reachablePreds.size() < 2 && !(block == getEntry() && !reachablePreds.isEmpty())) continue;
+
+            for (var pred : reachablePreds) {
+                // the entry is also reached from the start of the method, so it is a join point even with one pred
+                for (var runner = pred; runner != null && runner != block.getImmediateDominator();
+                     runner = runner.getImmediateDominator()) {
+                    frontiers.computeIfAbsent(runner, key -> new HashSet<>()).add(block);
+                }
+            }
+        }
+    }
+}
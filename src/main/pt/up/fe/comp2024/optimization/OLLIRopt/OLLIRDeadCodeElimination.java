@@ -0,0 +1,164 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.OptUtils;
+import pt.up.fe.comp2024.optimization.REGopt.REGLiveness;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * Removes the code of a method that can never run or whose result is never used.
+ * <p>
+ * Each round folds the branches whose condition is made of literals, removes the blocks that cannot be reached from
+ * the entry, the jumps to the next instruction and the labels no jump refers to, and finally the side-effect-free
+ * assignments to temporaries that are not live afterwards. Rounds repeat while something is removed, since each step
+ * can expose more work for the others.
+ */
+public class OLLIRDeadCodeElimination {
+    private int removedInstructions = 0;
+    private int removedLabels = 0;
+    private int foldedBranches = 0;
+
+    public OLLIRDeadCodeElimination() {
+
+    }
+
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    public int getRemovedLabels() {
+        return removedLabels;
+    }
+
+    public int getFoldedBranches() {
+        return foldedBranches;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        boolean changed = false;
+
+        boolean roundChanged;
+        do {
+            roundChanged = foldBranches(method);
+            roundChanged |= removeUnreachable(method);
+            roundChanged |= removeFallthroughJumps(method);
+            roundChanged |= removeUnusedLabels(method);
+            roundChanged |= removeDeadTemps(method);
+            changed |= roundChanged;
+        } while (roundChanged);
+
+        return changed;
+    }
+
+    private boolean foldBranches(Method method) {
+        boolean changed = false;
+
+        for (var instruction : new ArrayList<>(method.getInstructions())) {
+            if (!(instruction instanceof CondBranchInstruction branch)) continue;
+
+            var condition = OLLIRInstUtils.evaluate(branch.getCondition());
+            if (condition == null) continue;
+
+            if (condition != 0) {
+                OLLIRInstUtils.replaceInstruction(method, branch, new GotoInstruction(branch.getLabel()));
+            } else if (!OLLIRInstUtils.removeInstruction(method, branch)) {
+                continue;
+            }
+            foldedBranches++;
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    private boolean removeUnreachable(Method method) {
+        var cfg = new OLLIRControlFlow(method);
+
+        Set<Instruction> unreachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (var block : cfg.getBlocks()) {
+            if (!block.isReachable()) unreachable.addAll(block.getInstructions());
+        }
+        if (unreachable.isEmpty()) return false;
+
+        // only unreachable jumps can go to an unreachable block, so its labels go away with it
+        removedLabels += removeLabelsIf(method, unreachable::contains);
+        removedInstructions += unreachable.size();
+        method.getInstructions().removeIf(unreachable::contains);
+        return true;
+    }
+
+    /**
+     * Removes the gotos to the next instruction, and the branches to it whose condition has no side effects.
+     */
+    private boolean removeFallthroughJumps(Method method) {
+        boolean changed = false;
+        var instructions = method.getInstructions();
+
+        for (int i = instructions.size() - 2; i >= 0; i--) {
+            var jump = instructions.get(i);
+            String label;
+            if (jump instanceof GotoInstruction gotoInstruction) {
+                label = gotoInstruction.getLabel();
+            } else if (jump instanceof CondBranchInstruction branch
+                    && !OLLIRInstUtils.hasSideEffects(branch.getCondition())) {
+                label = branch.getLabel();
+            } else {
+                continue;
+            }
+            if (method.getLabels().get(label) != instructions.get(i + 1)) continue;
+
+            OLLIRInstUtils.removeInstruction(method, jump);
+            removedInstructions++;
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    private boolean removeUnusedLabels(Method method) {
+        Set<String> used = new HashSet<>();
+        for (var instruction : method.getInstructions()) {
+            if (instruction instanceof GotoInstruction jump) used.add(jump.getLabel());
+            if (instruction instanceof CondBranchInstruction branch) used.add(branch.getLabel());
+        }
+
+        Set<String> unused = new HashSet<>(method.getLabels().keySet());
+        unused.removeAll(used);
+        unused.forEach(method.getLabels()::remove);
+
+        removedLabels += unused.size();
+        return !unused.isEmpty();
+    }
+
+    private boolean removeDeadTemps(Method method) {
+        boolean changed = false;
+
+        for (var info : new REGLiveness().livenessAnalysis(method)) {
+            var instruction = info.getInstruction();
+            var def = OLLIRInstUtils.getDef(instruction);
+
+            if (def == null || !OptUtils.isTemp(def.getName())) continue;
+            if (info.getOuts().contains(def.getName()) || OLLIRInstUtils.hasSideEffects(instruction)) continue;
+
+            if (OLLIRInstUtils.removeInstruction(method, instruction)) {
+                removedInstructions++;
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    private static int removeLabelsIf(Method method, Predicate<Instruction> condition) {
+        var labels = method.getLabels().values();
+        int before = labels.size();
+        labels.removeIf(condition);
+        return before - labels.size();
+    }
+}
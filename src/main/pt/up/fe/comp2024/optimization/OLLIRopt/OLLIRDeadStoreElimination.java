@@ -0,0 +1,156 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.REGopt.REGLiveness;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Removes the assignments to locals and temporaries whose value is never read, alternating with copy propagation
+ * until neither changes the method.
+ * <p>
+ * Copy propagation replaces the uses of 'x' after 'x := y' by 'y', as long as 'y' still has the same value there
+ * (checked with {@link OLLIRSSA#getReachingValue}), which usually leaves the copy dead. A dead assignment whose
+ * right-hand side is a call is replaced by the call alone; other right-hand sides that may throw are kept.
+ * At the end, the locals that are no longer mentioned are removed from the variable table.
+ */
+public class OLLIRDeadStoreElimination {
+    private int removedInstructions = 0;
+    private int removedLocals = 0;
+    private int propagatedCopies = 0;
+
+    public OLLIRDeadStoreElimination() {
+
+    }
+
+    /**
+     * @return the instructions removed from the last method optimized
+     */
+    public int getRemovedInstructions() {
+        return removedInstructions;
+    }
+
+    /**
+     * @return the locals removed from the last method optimized
+     */
+    public int getRemovedLocals() {
+        return removedLocals;
+    }
+
+    public int getPropagatedCopies() {
+        return propagatedCopies;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        removedInstructions = 0;
+        removedLocals = 0;
+        propagatedCopies = 0;
+
+        boolean changed = false;
+        boolean roundChanged;
+        do {
+            roundChanged = propagateCopies(method);
+            roundChanged |= removeDeadStores(method);
+            changed |= roundChanged;
+        } while (roundChanged);
+
+        return removeUnusedLocals(method) || changed;
+    }
+
+    private boolean propagateCopies(Method method) {
+        var cfg = new OLLIRControlFlow(method);
+        if (cfg.getEntry() == null) return false;
+
+        var ssa = new OLLIRSSA(cfg);
+        boolean changed = false;
+
+        for (var block : cfg.getReversePostorder()) {
+            for (var instruction : block.getInstructions()) {
+                for (var use : ssa.getUses(instruction)) {
+                    if (!use.isReplaceable() || !use.isScalar()) continue;
+
+                    var value = ssa.getValue(instruction, use.get());
+                    var source = value == null ? null : getCopySource(value);
+                    if (source == null) continue;
+
+                    var sourceValue = ssa.getValue(value.getDefinition(), source);
+                    if (ssa.getReachingValue(instruction, source.getName()) != sourceValue) continue;
+
+                    use.set(new Operand(source.getName(), source.getType()));
+                    propagatedCopies++;
+                    changed = true;
+                }
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * @param value
+     * @return the variable copied into the value, if it is defined by 'x := y' with y a variable
+     */
+    private static Operand getCopySource(OLLIRSSA.Value value) {
+        if (!(value.getDefinition() instanceof AssignInstruction assign)) return null;
+        if (!(assign.getRhs() instanceof SingleOpInstruction singleOp)) return null;
+
+        var operand = singleOp.getSingleOperand();
+        if (!(operand instanceof Operand source) || operand instanceof ArrayOperand) return null;
+        if (source.getName().equals(value.getVar())) return null;
+
+        return source;
+    }
+
+    private boolean removeDeadStores(Method method) {
+        boolean changed = false;
+
+        for (var info : new REGLiveness().livenessAnalysis(method)) {
+            var instruction = info.getInstruction();
+            var def = OLLIRInstUtils.getDef(instruction);
+            if (def == null || info.getOuts().contains(def.getName())) continue;
+
+            var rhs = ((AssignInstruction) instruction).getRhs();
+            if (rhs.getInstType() == InstructionType.CALL) {
+                // the value is not needed, but the call still has to happen
+                OLLIRInstUtils.replaceInstruction(method, instruction, rhs);
+            } else if (OLLIRInstUtils.hasSideEffects(instruction)
+                    || !OLLIRInstUtils.removeInstruction(method, instruction)) {
+                continue;
+            }
+
+            removedInstructions++;
+            changed = true;
+        }
+
+        return changed;
+    }
+
+    private boolean removeUnusedLocals(Method method) {
+        Set<String> mentioned = new HashSet<>();
+        for (var instruction : method.getInstructions()) {
+            var def = OLLIRInstUtils.getDef(instruction);
+            if (def != null) mentioned.add(def.getName());
+
+            for (var use : OLLIRInstUtils.getUses(instruction)) {
+                if (use.getName() != null) mentioned.add(use.getName());
+            }
+        }
+
+        for (var param : method.getParams()) {
+            if (param instanceof Operand operand) mentioned.add(operand.getName());
+        }
+        mentioned.add("this");
+
+        var varTable = method.getVarTable();
+        int before = varTable.size();
+        varTable.keySet().removeIf(var -> !mentioned.contains(var));
+        removedLocals = before - varTable.size();
+
+        return removedLocals > 0;
+    }
+}
@@ -0,0 +1,155 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Scalar replacement of the fields of "this": a field that a method uses often is kept in a local for the whole
+ * method, so its getfields become copies of the local and its putfields assignments to it.
+ * <p>
+ * The local is loaded at the start of the method. Calls may read or write the field through another reference to the
+ * object, so the local is written back to the field before each call, if the method writes the field anywhere, and
+ * loaded again after it. The last value is also written back before each return. Java-- only reaches fields of other
+ * objects through their methods, so calls are the only aliasing there is.
+ * <p>
+ * A field is only cached when the accesses it saves outweigh the loads and write-backs it adds, counting each
+ * instruction as {@link #LOOP_WEIGHT} times more frequent for every loop around it.
+ */
+public class OLLIRFieldCaching {
+    private static final int LOOP_WEIGHT = 10;
+    private static final int MAX_DEPTH = 4;
+
+    private int cached = 0;
+
+    public OLLIRFieldCaching() {
+
+    }
+
+    /**
+     * @return the number of fields kept in locals, over all the methods
+     */
+    public int getCached() {
+        return cached;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        if (method.isStaticMethod() || method.isConstructMethod()) return false;
+
+        var controlFlow = new OLLIRControlFlow(method);
+        var depths = controlFlow.getLoopDepths();
+
+        Map<String, FieldInstruction> fields = new LinkedHashMap<>();
+        Map<String, Integer> savedAccesses = new HashMap<>();
+        Set<String> written = new HashSet<>();
+        int calls = 0;
+        int returns = 0;
+
+        for (var instruction : method.getInstructions()) {
+            var block = controlFlow.getBlock(instruction);
+            int depth = block == null ? 0 : Math.min(depths.getOrDefault(block, 0), MAX_DEPTH);
+            int weight = (int) Math.pow(LOOP_WEIGHT, depth);
+
+            var access = getThisFieldAccess(instruction);
+            if (access != null) {
+                String name = access.getField().getName();
+                fields.putIfAbsent(name, access);
+                savedAccesses.merge(name, weight, Integer::sum);
+                if (access instanceof PutFieldInstruction) written.add(name);
+            } else if (isCall(instruction)) {
+                calls += weight;
+            } else if (instruction instanceof ReturnInstruction) {
+                returns += weight;
+            }
+        }
+
+        boolean changed = false;
+        for (var field : fields.entrySet()) {
+            boolean isWritten = written.contains(field.getKey());
+            int addedAccesses = 1 + calls + (isWritten ? calls + returns : 0);
+            if (savedAccesses.get(field.getKey()) <= addedAccesses) continue;
+
+            cacheField(method, field.getValue(), isWritten);
+            cached++;
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void cacheField(Method method, FieldInstruction access, boolean isWritten) {
+        var object = access.getObject();
+        var field = access.getField();
+        var local = OLLIRInstUtils.newTemp(method, field.getType());
+        var instructions = method.getInstructions();
+
+        for (var instruction : new ArrayList<>(instructions)) {
+            var fieldAccess = getThisFieldAccess(instruction);
+
+            if (fieldAccess != null && fieldAccess.getField().getName().equals(field.getName())) {
+                Instruction newInstruction = fieldAccess instanceof PutFieldInstruction putField
+                        ? new AssignInstruction(copy(local), local.getType(), new SingleOpInstruction(putField.getValue()))
+                        : new AssignInstruction(((AssignInstruction) instruction).getDest(), local.getType(),
+                        new SingleOpInstruction(copy(local)));
+                OLLIRInstUtils.replaceInstruction(method, instruction, newInstruction);
+            } else if (isCall(instruction)) {
+                if (isWritten) OLLIRInstUtils.insertBefore(method, instruction, writeBack(object, field, local));
+                // the labels stay on the next instruction, the jumps to it don't come from the call
+                instructions.add(instructions.indexOf(instruction) + 1, load(object, field, local));
+            } else if (instruction instanceof ReturnInstruction && isWritten) {
+                OLLIRInstUtils.insertBefore(method, instruction, writeBack(object, field, local));
+            }
+        }
+
+        // before the labels, a jump to the start of the method finds the local already loaded
+        instructions.add(0, load(object, field, local));
+    }
+
+    /**
+     * @param instruction
+     * @return the getfield assigned by the instruction or the putfield it does, if it accesses a field of
+     * "this", otherwise null
+     */
+    private static FieldInstruction getThisFieldAccess(Instruction instruction) {
+        FieldInstruction access = null;
+        if (instruction instanceof PutFieldInstruction putField) {
+            access = putField;
+        } else if (instruction instanceof AssignInstruction assign
+                && assign.getRhs() instanceof GetFieldInstruction getField) {
+            access = getField;
+        }
+
+        if (access == null || access.getObject().getType().getTypeOfElement() != ElementType.THIS) return null;
+        return access;
+    }
+
+    /**
+     * @param instruction
+     * @return true if the instruction calls a method, which may access the fields
+     */
+    private static boolean isCall(Instruction instruction) {
+        // unlike OLLIRInstUtils.getCall, this includes the calls whose result is stored into an array
+        var rhs = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+        if (!(rhs instanceof CallInstruction call)) return false;
+
+        var invocationType = call.getInvocationType();
+        return invocationType != CallType.NEW && invocationType != CallType.arraylength
+                && invocationType != CallType.ldc;
+    }
+
+    private static Instruction load(Operand object, Operand field, Operand local) {
+        return new AssignInstruction(copy(local), local.getType(),
+                new GetFieldInstruction(copy(object), copy(field), field.getType()));
+    }
+
+    private static Instruction writeBack(Operand object, Operand field, Operand local) {
+        return new PutFieldInstruction(copy(object), copy(field), copy(local), new Type(ElementType.VOID));
+    }
+
+    private static Operand copy(Operand operand) {
+        return new Operand(operand.getName(), operand.getType());
+    }
+}
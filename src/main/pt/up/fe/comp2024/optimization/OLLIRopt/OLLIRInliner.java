@@ -0,0 +1,285 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Replaces the calls to small methods of the class, on "this" or static, by a copy of their body.
+ * <p>
+ * The parameters and locals of the callee become new locals of the caller, each argument is copied into its
+ * parameter before the body, and every 'ret' becomes a copy into the variable that received the result followed by a
+ * jump past the body. Recursive methods (the ones that can reach themselves through calls of the class) are never
+ * inlined, and the methods are handled callees first, so what was inlined into a callee is inlined with it.
+ * <p>
+ * The cost of a call site is how much the caller grows: the instructions of the callee plus the copies of the
+ * arguments, minus the call. It must fit the budget, which grows with each loop around the call since that is where
+ * saving the call matters, and a method can't grow more than {@link #GROWTH_LIMIT} budgets in total.
+ * <p>
+ * Java-- classes are never extended by the code compiled with them, so a call on "this" always reaches the method of
+ * the class.
+ */
+public class OLLIRInliner {
+    private static final int GROWTH_LIMIT = 4;
+    private static final String INLINE_LABEL = "inline";
+
+    private final int budget;
+
+    private int inlined = 0;
+    private int inlineNumber = 0;
+
+    /**
+     * @param budget how many instructions a call may add to its method, 0 to never inline
+     */
+    public OLLIRInliner(int budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return the number of calls replaced by the body of the method
+     */
+    public int getInlined() {
+        return inlined;
+    }
+
+    public void optimize(ClassUnit classUnit) {
+        if (budget <= 0) return;
+
+        Map<String, Method> methods = getInlinableMethods(classUnit);
+        Map<Method, Set<Method>> callGraph = new HashMap<>();
+        for (Method method : classUnit.getMethods()) {
+            Set<Method> callees = new LinkedHashSet<>();
+            for (var instruction : method.getInstructions()) {
+                var callee = getCallee(classUnit, methods, instruction);
+                if (callee != null) callees.add(callee);
+            }
+            callGraph.put(method, callees);
+        }
+
+        Set<Method> recursive = new HashSet<>();
+        for (Method method : classUnit.getMethods()) {
+            if (reaches(callGraph, method, method)) recursive.add(method);
+        }
+        methods.values().removeAll(recursive);
+
+        List<Method> order = new ArrayList<>();
+        Set<Method> visited = new HashSet<>();
+        for (Method method : classUnit.getMethods()) {
+            addPostorder(callGraph, method, visited, order);
+        }
+
+        for (Method method : order) {
+            inlineCalls(classUnit, methods, method);
+        }
+    }
+
+    /**
+     * @param classUnit
+     * @return the methods of the class by name, leaving out constructors, varargs and overloaded names
+     */
+    private static Map<String, Method> getInlinableMethods(ClassUnit classUnit) {
+        Map<String, Method> methods = new HashMap<>();
+        Set<String> overloaded = new HashSet<>();
+        for (Method method : classUnit.getMethods()) {
+            if (method.isConstructMethod() || method.isVarargs()) continue;
+            if (methods.put(method.getMethodName(), method) != null) overloaded.add(method.getMethodName());
+        }
+        overloaded.forEach(methods::remove);
+        return methods;
+    }
+
+    /**
+     * @return the method of the class called by the instruction, or null if it doesn't call one on "this" or static
+     */
+    private static Method getCallee(ClassUnit classUnit, Map<String, Method> methods, Instruction instruction) {
+        var call = OLLIRInstUtils.getCall(instruction);
+        if (call == null) return null;
+
+        var callee = methods.get(OLLIRInstUtils.getCalledMethodName(classUnit, call));
+        if (callee == null || callee.isStaticMethod() != (call.getInvocationType() == CallType.invokestatic)
+                || callee.getParams().size() != call.getArguments().size()) {
+            return null;
+        }
+        return callee;
+    }
+
+    private static boolean reaches(Map<Method, Set<Method>> callGraph, Method from, Method target) {
+        Set<Method> visited = new HashSet<>();
+        Deque<Method> worklist = new ArrayDeque<>(callGraph.get(from));
+        while (!worklist.isEmpty()) {
+            Method method = worklist.pop();
+            if (method == target) return true;
+            if (visited.add(method)) worklist.addAll(callGraph.get(method));
+        }
+        return false;
+    }
+
+    private static void addPostorder(Map<Method, Set<Method>> callGraph, Method method, Set<Method> visited,
+                                     List<Method> order) {
+        if (!visited.add(method)) return;
+        for (Method callee : callGraph.get(method)) {
+            addPostorder(callGraph, callee, visited, order);
+        }
+        order.add(method);
+    }
+
+    private void inlineCalls(ClassUnit classUnit, Map<String, Method> methods, Method method) {
+        OLLIRControlFlow controlFlow = new OLLIRControlFlow(method);
+        var depths = controlFlow.getLoopDepths();
+        var instructions = method.getInstructions();
+
+        // the call sites are found first, inlining one doesn't change the others
+        Map<Instruction, Method> sites = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < instructions.size(); i++) {
+            var callee = getCallee(classUnit, methods, instructions.get(i));
+            if (callee != null) sites.put(instructions.get(i), callee);
+        }
+
+        int growth = 0;
+        for (var site : sites.entrySet()) {
+            var instruction = site.getKey();
+            var callee = site.getValue();
+            var block = controlFlow.getBlock(instruction);
+            int depth = block == null ? 0 : depths.getOrDefault(block, 0);
+
+            int cost = callee.getInstructions().size() + callee.getParams().size() - 1;
+            if (cost > budget * (depth + 1) || growth + cost > budget * GROWTH_LIMIT) continue;
+
+            inline(method, instruction, callee);
+            growth += cost;
+            inlined++;
+        }
+    }
+
+    private void inline(Method method, Instruction instruction, Method callee) {
+        var call = OLLIRInstUtils.getCall(instruction);
+        var dest = instruction instanceof AssignInstruction assign ? assign : null;
+        String prefix = INLINE_LABEL + (++inlineNumber) + "_";
+        String endLabel = prefix + "end";
+
+        Map<String, String> names = new HashMap<>();
+        for (var entry : callee.getVarTable().entrySet()) {
+            var elementType = entry.getValue().getVarType().getTypeOfElement();
+            if (elementType == ElementType.THIS || elementType == ElementType.CLASS) continue;
+            names.put(entry.getKey(), OLLIRInstUtils.newTemp(method, entry.getValue().getVarType()).getName());
+        }
+
+        List<Instruction> body = new ArrayList<>();
+        var params = callee.getParams();
+        for (int i = 0; i < params.size(); i++) {
+            var param = copy(params.get(i), names);
+            body.add(new AssignInstruction(param, param.getType(),
+                    new SingleOpInstruction(copy(call.getArguments().get(i), Map.of()))));
+        }
+
+        Map<Instruction, Integer> starts = new HashMap<>();
+        for (var calleeInstruction : callee.getInstructions()) {
+            starts.put(calleeInstruction, body.size());
+
+            if (calleeInstruction instanceof ReturnInstruction ret) {
+                if (ret.hasReturnValue() && dest != null) {
+                    body.add(new AssignInstruction(copy(dest.getDest(), Map.of()), dest.getTypeOfAssign(),
+                            new SingleOpInstruction(copy(ret.getOperand(), names))));
+                }
+                body.add(new GotoInstruction(endLabel));
+            } else {
+                body.add(copy(calleeInstruction, names, prefix));
+            }
+        }
+
+        // the last return falls through to the code after the call
+        if (body.get(body.size() - 1) instanceof GotoInstruction jump && jump.getLabel().equals(endLabel)) {
+            body.remove(body.size() - 1);
+        }
+
+        var instructions = method.getInstructions();
+        var next = instructions.get(instructions.indexOf(instruction) + 1);
+        for (var newInstruction : body) {
+            OLLIRInstUtils.insertBefore(method, instruction, newInstruction);
+        }
+        OLLIRInstUtils.removeInstruction(method, instruction);
+
+        method.addLabel(endLabel, next);
+        for (var label : callee.getLabels().entrySet()) {
+            int start = starts.get(label.getValue());
+            method.addLabel(prefix + label.getKey(), start < body.size() ? body.get(start) : next);
+        }
+    }
+
+    /**
+     * @param instruction
+     * @param names       the new name of each variable that is renamed
+     * @param prefix      added to the labels
+     * @return a copy of the instruction that doesn't share any element with it
+     */
+    private static Instruction copy(Instruction instruction, Map<String, String> names, String prefix) {
+        return switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                yield new AssignInstruction(copy(assign.getDest(), names), assign.getTypeOfAssign(),
+                        copy(assign.getRhs(), names, prefix));
+            }
+            case NOPER -> new SingleOpInstruction(copy(((SingleOpInstruction) instruction).getSingleOperand(), names));
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                yield new BinaryOpInstruction(copy(binaryOp.getLeftOperand(), names), binaryOp.getOperation(),
+                        copy(binaryOp.getRightOperand(), names));
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                yield new UnaryOpInstruction(unaryOp.getOperation(), copy(unaryOp.getOperand(), names));
+            }
+            case BRANCH -> {
+                var branch = (CondBranchInstruction) instruction;
+                var condition = copy(branch.getCondition(), names, prefix);
+                CondBranchInstruction newBranch = condition instanceof SingleOpInstruction singleOp
+                        ? new SingleOpCondInstruction(singleOp) : new OpCondInstruction((OpInstruction) condition);
+                newBranch.setLabel(prefix + branch.getLabel());
+                yield newBranch;
+            }
+            case GOTO -> new GotoInstruction(prefix + ((GotoInstruction) instruction).getLabel());
+            case CALL -> {
+                var call = (CallInstruction) instruction;
+                List<Element> arguments = new ArrayList<>();
+                for (var argument : call.getArguments()) {
+                    arguments.add(copy(argument, names));
+                }
+                var caller = copy(call.getCaller(), names);
+                yield call.getMethodNameTry().isPresent()
+                        ? new CallInstruction(call.getInvocationType(), caller, copy(call.getMethodName(), names),
+                        arguments, call.getReturnType())
+                        : new CallInstruction(call.getInvocationType(), caller, arguments, call.getReturnType());
+            }
+            case PUTFIELD -> {
+                var putField = (PutFieldInstruction) instruction;
+                yield new PutFieldInstruction((Operand) copy(putField.getObject(), names),
+                        (Operand) copy(putField.getField(), Map.of()), copy(putField.getValue(), names),
+                        putField.getFieldType());
+            }
+            case GETFIELD -> {
+                var getField = (GetFieldInstruction) instruction;
+                yield new GetFieldInstruction((Operand) copy(getField.getObject(), names),
+                        (Operand) copy(getField.getField(), Map.of()), getField.getFieldType());
+            }
+            default -> throw new RuntimeException("Cannot inline instruction " + instruction.getInstType());
+        };
+    }
+
+    private static Element copy(Element element, Map<String, String> names) {
+        if (element instanceof ArrayOperand arrayOperand) {
+            List<Element> indexes = new ArrayList<>();
+            for (var index : arrayOperand.getIndexOperands()) {
+                indexes.add(copy(index, names));
+            }
+            return new ArrayOperand(names.getOrDefault(arrayOperand.getName(), arrayOperand.getName()),
+                    arrayOperand.getType(), indexes);
+        }
+        if (element instanceof Operand operand) {
+            return new Operand(names.getOrDefault(operand.getName(), operand.getName()), operand.getType());
+        }
+        if (element instanceof LiteralElement literal) {
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        }
+        return element;
+    }
+}
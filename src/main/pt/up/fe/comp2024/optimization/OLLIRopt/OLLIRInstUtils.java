@@ -0,0 +1,308 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.OptUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Helpers to inspect and edit OLLIR instructions in place.
+ */
+public class OLLIRInstUtils {
+
+    /**
+     * @param instruction
+     * @return every place where the instruction reads a value, including the indexes of array accesses
+     */
+    public static List<OLLIRUse> getUses(Instruction instruction) {
+        List<OLLIRUse> uses = new ArrayList<>();
+        addUses(instruction, instruction, uses);
+        return uses;
+    }
+
+    private static void addUses(Instruction top, Instruction instruction, List<OLLIRUse> uses) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                if (assign.getDest() instanceof ArrayOperand arrayOperand) {
+                    // storing into an array reads the array reference and the indexes
+                    addElementUses(top, arrayOperand, null, uses);
+                }
+                addUses(top, assign.getRhs(), uses);
+            }
+            case NOPER -> {
+                var singleOp = (SingleOpInstruction) instruction;
+                addElementUses(top, singleOp.getSingleOperand(), singleOp::setSingleOperand, uses);
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                addElementUses(top, binaryOp.getLeftOperand(), binaryOp::setLeftOperand, uses);
+                addElementUses(top, binaryOp.getRightOperand(), binaryOp::setRightOperand, uses);
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                addElementUses(top, unaryOp.getOperand(), unaryOp::setOperand, uses);
+            }
+            case BRANCH -> addUses(top, ((CondBranchInstruction) instruction).getCondition(), uses);
+            case RETURN -> {
+                var ret = (ReturnInstruction) instruction;
+                if (ret.hasReturnValue()) addElementUses(top, ret.getOperand(), ret::setOperand, uses);
+            }
+            case CALL -> {
+                var call = (CallInstruction) instruction;
+                if (call.getCaller() instanceof Operand) addElementUses(top, call.getCaller(), null, uses);
+                var arguments = call.getArguments();
+                for (int i = 0; i < arguments.size(); i++) {
+                    int index = i;
+                    addElementUses(top, arguments.get(i), element -> arguments.set(index, element), uses);
+                }
+            }
+            case PUTFIELD -> {
+                var operands = ((PutFieldInstruction) instruction).getOperands();
+                addElementUses(top, operands.get(0), null, uses);
+                addElementUses(top, operands.get(2), element -> operands.set(2, element), uses);
+            }
+            case GETFIELD -> addElementUses(top, ((GetFieldInstruction) instruction).getObject(), null, uses);
+            default -> {
+            }
+        }
+    }
+
+    private static void addElementUses(Instruction top, Element element, Consumer<Element> setter,
+                                       List<OLLIRUse> uses) {
+        if (element == null) return;
+
+        uses.add(new OLLIRUse(top, () -> element, setter));
+
+        if (element instanceof ArrayOperand arrayOperand) {
+            var indexes = arrayOperand.getIndexOperands();
+            for (int i = 0; i < indexes.size(); i++) {
+                int index = i;
+                uses.add(new OLLIRUse(top, () -> indexes.get(index), newIndex -> indexes.set(index, newIndex)));
+            }
+        }
+    }
+
+    /**
+     * @param instruction
+     * @return the variable written by the instruction, or null if it does not write a whole variable
+     */
+    public static Operand getDef(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof Operand operand
+                && !(operand instanceof ArrayOperand)) {
+            return operand;
+        }
+
+        return null;
+    }
+
+    /**
+     * @param instruction
+     * @return the call done by a call instruction or by the right side of an assignment to a variable, or null
+     */
+    public static CallInstruction getCall(Instruction instruction) {
+        if (instruction instanceof CallInstruction call) return call;
+        if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand)
+                && assign.getRhs() instanceof CallInstruction call) {
+            return call;
+        }
+        return null;
+    }
+
+    /**
+     * @param classUnit
+     * @param call
+     * @return the name of the method called, if it is a method of the class called on "this" or a static one of the
+     * class, otherwise null
+     */
+    public static String getCalledMethodName(ClassUnit classUnit, CallInstruction call) {
+        if (!(call.getMethodNameTry().orElse(null) instanceof LiteralElement name)) return null;
+
+        boolean onThis = call.getInvocationType() == CallType.invokevirtual
+                && call.getCaller().getType().getTypeOfElement() == ElementType.THIS;
+        boolean onClass = call.getInvocationType() == CallType.invokestatic
+                && call.getCaller() instanceof Operand caller && caller.getName().equals(classUnit.getClassName());
+        if (!onThis && !onClass) return null;
+
+        return name.getLiteral().replace("\"", "");
+    }
+
+    /**
+     * @param type
+     * @return true for the types tracked by the scalar optimizations (int and boolean)
+     */
+    public static boolean isScalarType(Type type) {
+        var elementType = type.getTypeOfElement();
+        return elementType == ElementType.INT32 || elementType == ElementType.BOOLEAN;
+    }
+
+    /**
+     * Checks if removing the instruction can change what the program does, besides the variable it writes.
+     * Array accesses, divisions and object creation are kept, since they can throw or run code.
+     *
+     * @param instruction
+     * @return true if the instruction must be kept even if its result is never read
+     */
+    public static boolean hasSideEffects(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign) {
+            return assign.getDest() instanceof ArrayOperand || hasSideEffects(assign.getRhs());
+        }
+
+        return switch (instruction.getInstType()) {
+            case NOPER -> ((SingleOpInstruction) instruction).getSingleOperand() instanceof ArrayOperand;
+            case BINARYOPER -> ((BinaryOpInstruction) instruction).getOperation().getOpType() == OperationType.DIV;
+            case UNARYOPER, GETFIELD -> false;
+            default -> true;
+        };
+    }
+
+    public static LiteralElement literal(int value, Type type) {
+        return new LiteralElement(Integer.toString(value), type);
+    }
+
+    /**
+     * @param element
+     * @return the value of an int or boolean literal, or null if the element is not one
+     */
+    public static Integer literalValue(Element element) {
+        if (!(element instanceof LiteralElement literal) || !isScalarType(literal.getType())) return null;
+
+        try {
+            return Integer.parseInt(literal.getLiteral());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Same semantics as the JVM, booleans are 0 or 1.
+     *
+     * @param opType
+     * @param left
+     * @param right
+     * @return the result, or null if it cannot be computed at compile time
+     */
+    public static Integer evaluate(OperationType opType, int left, int right) {
+        return switch (opType) {
+            case ADD -> left + right;
+            case SUB -> left - right;
+            case MUL -> left * right;
+            case DIV -> right == 0 ? null : left / right;
+            case SHL -> left << right;
+            case SHR -> left >> right;
+            case SHRR -> left >>> right;
+            case XOR -> left ^ right;
+            case AND, ANDB -> left & right;
+            case OR, ORB -> left | right;
+            case LTH -> left < right ? 1 : 0;
+            case GTH -> left > right ? 1 : 0;
+            case LTE -> left <= right ? 1 : 0;
+            case GTE -> left >= right ? 1 : 0;
+            case EQ -> left == right ? 1 : 0;
+            case NEQ -> left != right ? 1 : 0;
+            default -> null;
+        };
+    }
+
+    /**
+     * @param expression
+     * @return the value of an expression made only of literals, or null if it is not one
+     */
+    public static Integer evaluate(Instruction expression) {
+        return switch (expression.getInstType()) {
+            case NOPER -> literalValue(((SingleOpInstruction) expression).getSingleOperand());
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) expression;
+                var left = literalValue(binaryOp.getLeftOperand());
+                var right = literalValue(binaryOp.getRightOperand());
+                if (left == null || right == null) yield null;
+                yield evaluate(binaryOp.getOperation().getOpType(), left, right);
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) expression;
+                var operand = literalValue(unaryOp.getOperand());
+                var opType = unaryOp.getOperation().getOpType();
+                if (operand == null || (opType != OperationType.NOTB && opType != OperationType.NOT)) yield null;
+                yield operand == 0 ? 1 : 0;
+            }
+            default -> null;
+        };
+    }
+
+    /**
+     * Puts a new instruction in the place of another, keeping the labels that pointed to the old one.
+     *
+     * @param method
+     * @param oldInst
+     * @param newInst
+     */
+    public static void replaceInstruction(Method method, Instruction oldInst, Instruction newInst) {
+        var instructions = method.getInstructions();
+        instructions.set(instructions.indexOf(oldInst), newInst);
+        moveLabels(method, oldInst, newInst);
+    }
+
+    /**
+     * Removes an instruction, the labels that pointed to it move to the next instruction.
+     *
+     * @param method
+     * @param inst
+     * @return false if the instruction is the last one and has labels, in which case it is not removed
+     */
+    public static boolean removeInstruction(Method method, Instruction inst) {
+        var instructions = method.getInstructions();
+        int index = instructions.indexOf(inst);
+
+        if (index == instructions.size() - 1) {
+            if (method.getLabels().containsValue(inst)) return false;
+        } else {
+            moveLabels(method, inst, instructions.get(index + 1));
+        }
+
+        instructions.remove(index);
+        return true;
+    }
+
+    /**
+     * Adds an instruction before another, the labels that pointed to the old one now point to the new one.
+     *
+     * @param method
+     * @param position
+     * @param newInst
+     */
+    public static void insertBefore(Method method, Instruction position, Instruction newInst) {
+        var instructions = method.getInstructions();
+        instructions.add(instructions.indexOf(position), newInst);
+        moveLabels(method, position, newInst);
+    }
+
+    /**
+     * Creates a new local variable in the method, with a register after every other one.
+     *
+     * @param method
+     * @param type
+     * @return an operand that refers to the new variable
+     */
+    public static Operand newTemp(Method method, Type type) {
+        var varTable = method.getVarTable();
+
+        String name;
+        do {
+            name = OptUtils.getTemp();
+        } while (varTable.containsKey(name));
+
+        int register = varTable.values().stream().mapToInt(Descriptor::getVirtualReg).max().orElse(0) + 1;
+        varTable.put(name, new Descriptor(VarScope.LOCAL, register, type));
+
+        return new Operand(name, type);
+    }
+
+    private static void moveLabels(Method method, Instruction from, Instruction to) {
+        for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
+            if (label.getValue() == from) label.setValue(to);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.REGopt.REGInstInfo;
+import pt.up.fe.comp2024.optimization.REGopt.REGLiveness;
+
+import java.util.*;
+
+/**
+ * Loop-invariant code motion: the assignments inside a natural loop whose value is the same in every iteration are
+ * moved to a preheader, right before the loop header.
+ * <p>
+ * An assignment 'x := e' is moved if the operands of e are not written in the loop (or only by assignments already
+ * moved), it is the only write to x in the loop, x is not read by the header before being written, and x is either dead
+ * at the exits of the loop or written in a block that runs before any exit. Expressions that can throw (arraylength,
+ * array loads, divisions) are only moved if they are the first thing with side effects in the header, so they throw
+ * exactly when the original code would. Getfields need a loop without putfields or calls, and array loads a loop
+ * without array stores or calls.
+ * <p>
+ * Loops laid out so that the code before the header is part of the loop are left alone.
+ * Loops are handled one at a time, innermost first, and the control flow is rebuilt after each one, so code moved out
+ * of an inner loop can then leave the outer one as well.
+ */
+public class OLLIRLoopInvariantMotion {
+
+    private static final String PREHEADER_LABEL = "preheader";
+
+    private int hoisted = 0;
+    private int preheaderNumber = 0;
+
+    public OLLIRLoopInvariantMotion() {
+
+    }
+
+    /**
+     * @return the number of instructions moved out of loops
+     */
+    public int getHoisted() {
+        return hoisted;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        boolean changed = false;
+
+        boolean hoistedAny;
+        do {
+            hoistedAny = false;
+            var cfg = new OLLIRControlFlow(method);
+
+            for (var loop : findLoops(cfg)) {
+                if (hoistLoop(method, cfg, loop)) {
+                    hoistedAny = true;
+                    changed = true;
+                    break; // the control flow changed, look for the loops again
+                }
+            }
+        } while (hoistedAny);
+
+        return changed;
+    }
+
+    /**
+     * @return the natural loops of the method, merged by header, smallest (innermost) first
+     */
+    private static List<Loop> findLoops(OLLIRControlFlow cfg) {
+        Map<OLLIRBlock, Loop> loops = new LinkedHashMap<>();
+
+        for (var block : cfg.getReversePostorder()) {
+            for (var successor : block.getSuccessors()) {
+                if (!cfg.dominates(successor, block)) continue;
+
+                // back edge, the loop is the header plus every block that reaches 'block' without going through it
+                var loop = loops.computeIfAbsent(successor, Loop::new);
+                Deque<OLLIRBlock> worklist = new ArrayDeque<>();
+                if (loop.blocks.add(block)) worklist.push(block);
+
+                while (!worklist.isEmpty()) {
+                    for (var pred : worklist.pop().getPredecessors()) {
+                        if (pred.isReachable() && loop.blocks.add(pred)) worklist.push(pred);
+                    }
+                }
+            }
+        }
+
+        List<Loop> sorted = new ArrayList<>(loops.values());
+        sorted.sort(Comparator.comparingInt(loop -> loop.blocks.size()));
+        return sorted;
+    }
+
+    private boolean hoistLoop(Method method, OLLIRControlFlow cfg, Loop loop) {
+        if (fallsIntoHeader(method, cfg, loop)) return false;
+
+        List<Instruction> loopInstructions = new ArrayList<>();
+        for (var block : cfg.getReversePostorder()) {
+            if (loop.blocks.contains(block)) loopInstructions.addAll(block.getInstructions());
+        }
+
+        Map<String, Integer> defCounts = new HashMap<>();
+        boolean writesArrays = false;
+        boolean writesFields = false;
+        for (var instruction : loopInstructions) {
+            var def = OLLIRInstUtils.getDef(instruction);
+            if (def != null) defCounts.merge(def.getName(), 1, Integer::sum);
+
+            var effect = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+            if (effect instanceof CallInstruction call && call.getInvocationType() != CallType.arraylength
+                    && call.getInvocationType() != CallType.NEW) {
+                writesArrays = true;
+                writesFields = true;
+            }
+            if (instruction.getInstType() == InstructionType.PUTFIELD) writesFields = true;
+            if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof ArrayOperand) {
+                writesArrays = true;
+            }
+        }
+
+        Map<Instruction, REGInstInfo> liveness = new HashMap<>();
+        for (var info : new REGLiveness().livenessAnalysis(method)) {
+            liveness.put(info.getInstruction(), info);
+        }
+
+        var exits = getExits(loop);
+        Set<String> liveAtExits = new HashSet<>();
+        for (var exit : exits) {
+            liveAtExits.addAll(liveness.get(exit.getFirst()).getIns());
+        }
+        var liveAtHeader = liveness.get(loop.header.getFirst()).getIns();
+
+        // blocks that run on every iteration before the loop can be left
+        Set<OLLIRBlock> beforeExits = new HashSet<>();
+        for (var block : loop.blocks) {
+            boolean dominatesAll = true;
+            for (var exit : exits) {
+                for (var pred : exit.getPredecessors()) {
+                    if (loop.blocks.contains(pred) && !cfg.dominates(block, pred)) dominatesAll = false;
+                }
+            }
+            if (dominatesAll) beforeExits.add(block);
+        }
+
+        var headerInstructions = loop.header.getInstructions();
+        Set<String> hoistedVars = new HashSet<>();
+        Set<Instruction> invariant = new HashSet<>();
+        boolean found;
+        do {
+            found = false;
+            for (var instruction : loopInstructions) {
+                if (invariant.contains(instruction)) continue;
+
+                var def = OLLIRInstUtils.getDef(instruction);
+                if (def == null || defCounts.get(def.getName()) != 1) continue;
+                if (liveAtHeader.contains(def.getName())) continue;
+                if (liveAtExits.contains(def.getName()) && !beforeExits.contains(cfg.getBlock(instruction))) continue;
+
+                var rhs = ((AssignInstruction) instruction).getRhs();
+                boolean safeToThrow = runsFirst(instruction, headerInstructions, invariant);
+                if (!canMove(rhs, safeToThrow, writesArrays, writesFields)) continue;
+                if (!operandsInvariant(instruction, defCounts, hoistedVars)) continue;
+
+                invariant.add(instruction);
+                hoistedVars.add(def.getName());
+                found = true;
+            }
+        } while (found);
+
+        if (invariant.isEmpty()) return false;
+
+        // in loop order, which also puts every definition before its uses
+        var ordered = loopInstructions.stream().filter(invariant::contains).toList();
+        moveToPreheader(method, loop, ordered);
+        hoisted += ordered.size();
+        return true;
+    }
+
+    /**
+     * An instruction that may throw can only be moved if it is the first thing with side effects that runs in each
+     * iteration: it must be in the header, after instructions that have no side effects or are also moved.
+     */
+    private static boolean runsFirst(Instruction instruction, List<Instruction> headerInstructions,
+                                     Set<Instruction> invariant) {
+        int index = headerInstructions.indexOf(instruction);
+        if (index < 0) return false;
+
+        for (var previous : headerInstructions.subList(0, index)) {
+            if (OLLIRInstUtils.hasSideEffects(previous) && !invariant.contains(previous)) return false;
+        }
+
+        return true;
+    }
+
+    private static boolean canMove(Instruction rhs, boolean safeToThrow, boolean writesArrays, boolean writesFields) {
+        // getfield cannot throw ('this' is never null), but it reads memory
+        if (rhs.getInstType() == InstructionType.GETFIELD) return !writesFields;
+
+        if (!OLLIRInstUtils.hasSideEffects(rhs)) return true;
+        if (!safeToThrow) return false;
+
+        return switch (rhs.getInstType()) {
+            case CALL -> ((CallInstruction) rhs).getInvocationType() == CallType.arraylength;
+            case NOPER -> !writesArrays;
+            case BINARYOPER -> true; // a division, if it throws it does so in the first iteration anyway
+            default -> false;
+        };
+    }
+
+    private static boolean operandsInvariant(Instruction instruction, Map<String, Integer> defCounts,
+                                             Set<String> hoistedVars) {
+        for (var use : OLLIRInstUtils.getUses(instruction)) {
+            var name = use.getName();
+            if (name == null || name.equals("this")) continue;
+            if (defCounts.containsKey(name) && !hoistedVars.contains(name)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * The preheader is placed right before the header, which does not work if the code there is part of the loop and
+     * falls through into the header.
+     */
+    private static boolean fallsIntoHeader(Method method, OLLIRControlFlow cfg, Loop loop) {
+        var instructions = method.getInstructions();
+        int index = instructions.indexOf(loop.header.getFirst());
+        if (index == 0) return false;
+
+        var previous = instructions.get(index - 1);
+        var type = previous.getInstType();
+        return type != InstructionType.GOTO && type != InstructionType.RETURN
+                && loop.blocks.contains(cfg.getBlock(previous));
+    }
+
+    /**
+     * @return the blocks outside the loop that are reached from inside it
+     */
+    private static Set<OLLIRBlock> getExits(Loop loop) {
+        Set<OLLIRBlock> exits = new LinkedHashSet<>();
+        for (var block : loop.blocks) {
+            for (var successor : block.getSuccessors()) {
+                if (!loop.blocks.contains(successor)) exits.add(successor);
+            }
+        }
+
+        return exits;
+    }
+
+    /**
+     * Puts the instructions right before the header. Entering the loop by falling through already runs them; the jumps
+     * from outside the loop to the header are moved to a new label on the first of them.
+     */
+    private void moveToPreheader(Method method, Loop loop, List<Instruction> invariant) {
+        // the first instruction that stays in the header, its labels are the ones of the header after the removals
+        var header = loop.header.getInstructions().stream()
+                .filter(instruction -> !invariant.contains(instruction))
+                .findFirst().orElseThrow();
+
+        for (var instruction : invariant) {
+            OLLIRInstUtils.removeInstruction(method, instruction);
+        }
+
+        var instructions = method.getInstructions();
+        instructions.addAll(instructions.indexOf(header), invariant);
+
+        String headerLabel = null;
+        for (var label : method.getLabels().entrySet()) {
+            if (label.getValue() == header) headerLabel = label.getKey();
+        }
+        if (headerLabel == null) return;
+
+        String preheaderLabel = null;
+        for (var pred : loop.header.getPredecessors()) {
+            if (loop.blocks.contains(pred)) continue;
+
+            var last = pred.getLast();
+            if (last instanceof GotoInstruction jump && jump.getLabel().equals(headerLabel)) {
+                if (preheaderLabel == null) preheaderLabel = newPreheaderLabel(method, invariant.get(0));
+                jump.setLabel(preheaderLabel);
+            } else if (last instanceof CondBranchInstruction branch && branch.getLabel().equals(headerLabel)) {
+                if (preheaderLabel == null) preheaderLabel = newPreheaderLabel(method, invariant.get(0));
+                branch.setLabel(preheaderLabel);
+            }
+        }
+    }
+
+    private String newPreheaderLabel(Method method, Instruction first) {
+        String label;
+        do {
+            label = PREHEADER_LABEL + (++preheaderNumber);
+        } while (method.getLabels().containsKey(label));
+
+        method.getLabels().put(label, first);
+        return label;
+    }
+
+    private static class Loop {
+        final OLLIRBlock header;
+        final Set<OLLIRBlock> blocks = new HashSet<>();
+
+        Loop(OLLIRBlock header) {
+            this.header = header;
+            blocks.add(header);
+        }
+    }
+}
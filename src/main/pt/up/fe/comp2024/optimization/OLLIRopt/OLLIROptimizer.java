@@ -0,0 +1,72 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
+
+/**
+ * Runs the OLLIR level optimizations over every method of the class, changing the instructions in place.
+ */
+public class OLLIROptimizer {
+    private final OLLIRFieldCaching fieldCaching = new OLLIRFieldCaching();
+    private final OLLIRConstantPropagation constantPropagation = new OLLIRConstantPropagation();
+    private final OLLIRDeadCodeElimination deadCodeElimination = new OLLIRDeadCodeElimination();
+    private final OLLIRValueNumbering valueNumbering = new OLLIRValueNumbering();
+    private final OLLIRLoopInvariantMotion loopInvariantMotion = new OLLIRLoopInvariantMotion();
+    private final OLLIRDeadStoreElimination deadStoreElimination = new OLLIRDeadStoreElimination();
+
+    public OLLIROptimizer() {
+
+    }
+
+    public OllirResult optimize(OllirResult ollirResult) {
+        // first, so the new code is optimized with the rest, and methods that stop being recursive can be inlined
+        var tailCallElimination = new OLLIRTailCallElimination();
+        for (Method method : ollirResult.getOllirClass().getMethods()) {
+            tailCallElimination.optimize(method);
+        }
+        var inliner = new OLLIRInliner(CompilerConfig.getInlineBudget(ollirResult.getConfig()));
+        inliner.optimize(ollirResult.getOllirClass());
+
+        for (Method method : ollirResult.getOllirClass().getMethods()) {
+            fieldCaching.optimize(method); // before the rest, which then sees the fields as locals
+            constantPropagation.optimize(method);
+            deadCodeElimination.optimize(method);
+            valueNumbering.optimize(method);
+            loopInvariantMotion.optimize(method);
+
+            deadStoreElimination.optimize(method);
+            ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                    String.format("Dead store elimination in %s: %d instructions, %d locals removed, "
+                                    + "%d copies propagated", method.getMethodName(),
+                            deadStoreElimination.getRemovedInstructions(), deadStoreElimination.getRemovedLocals(),
+                            deadStoreElimination.getPropagatedCopies()), null));
+
+            deadCodeElimination.optimize(method); // the removed stores may leave empty branches behind
+        }
+
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR tail call elimination: %d calls turned into jumps",
+                        tailCallElimination.getEliminated()), null));
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR inlining: %d calls inlined", inliner.getInlined()), null));
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR field caching: %d fields kept in locals", fieldCaching.getCached()), null));
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR constant propagation: %d rewrites, %d branches folded",
+                        constantPropagation.getRewrites(), constantPropagation.getFoldedBranches()), null));
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR value numbering: %d redundant expressions removed",
+                        valueNumbering.getEliminated()), null));
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR loop-invariant code motion: %d instructions hoisted",
+                        loopInvariantMotion.getHoisted()), null));
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("OLLIR dead code elimination: %d instructions, %d labels removed, %d branches folded",
+                        deadCodeElimination.getRemovedInstructions(), deadCodeElimination.getRemovedLabels(),
+                        deadCodeElimination.getFoldedBranches()), null));
+        return ollirResult;
+    }
+}
@@ -0,0 +1,284 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Static single assignment view of the local variables and parameters of a method.
+ * <p>
+ * The instructions are not changed: every definition, phi and use is mapped to a {@link Value} on the side, using the
+ * dominance frontiers of {@link OLLIRControlFlow} to place the phis. Since no instruction is moved, every version of a
+ * variable can share the original variable, so leaving SSA needs no copies.
+ * Only reachable blocks are renamed, the uses in unreachable blocks have no value.
+ */
+public class OLLIRSSA {
+
+    /**
+     * One version of a variable. It is defined by an instruction, by a phi, or by the entry of the method (parameters
+     * and variables read before being written).
+     */
+    public static class Value {
+        private final String var;
+        private final Instruction definition;
+        private final OLLIRBlock phiBlock;
+        private final Map<OLLIRBlock, Value> phiOperands = new LinkedHashMap<>();
+        private final List<Instruction> users = new ArrayList<>();
+        private final List<Value> phiUsers = new ArrayList<>();
+
+        private Value(String var, Instruction definition, OLLIRBlock phiBlock) {
+            this.var = var;
+            this.definition = definition;
+            this.phiBlock = phiBlock;
+        }
+
+        public String getVar() {
+            return var;
+        }
+
+        /**
+         * @return the assignment that defines this value, or null for phis and entry values
+         */
+        public Instruction getDefinition() {
+            return definition;
+        }
+
+        public boolean isPhi() {
+            return phiBlock != null;
+        }
+
+        public boolean isEntry() {
+            return definition == null && phiBlock == null;
+        }
+
+        public OLLIRBlock getPhiBlock() {
+            return phiBlock;
+        }
+
+        /**
+         * @return the value that reaches the phi from each predecessor, the null key stands for the start of the method
+         */
+        public Map<OLLIRBlock, Value> getPhiOperands() {
+            return phiOperands;
+        }
+
+        /**
+         * @return the instructions that read this value
+         */
+        public List<Instruction> getUsers() {
+            return users;
+        }
+
+        public List<Value> getPhiUsers() {
+            return phiUsers;
+        }
+
+        @Override
+        public String toString() {
+            return var + (isPhi() ? "@phi" + phiBlock : isEntry() ? "@entry" : "@def");
+        }
+    }
+
+    private final OLLIRControlFlow cfg;
+    private final Set<String> tracked = new HashSet<>();
+    private final Map<String, Value> entryValues = new HashMap<>();
+    private final Map<OLLIRBlock, List<Value>> phis = new HashMap<>();
+    private final Map<Instruction, List<OLLIRUse>> uses = new HashMap<>();
+    private final Map<Instruction, Map<Element, Value>> useValues = new HashMap<>();
+    private final Map<Instruction, Value> defValues = new HashMap<>();
+    private final Map<String, Deque<Value>> stacks = new HashMap<>();
+
+    public OLLIRSSA(OLLIRControlFlow cfg) {
+        this.cfg = cfg;
+
+        if (cfg.getEntry() == null) return;
+
+        findTracked();
+        placePhis();
+        rename(cfg.getEntry());
+    }
+
+    public OLLIRControlFlow getControlFlow() {
+        return cfg;
+    }
+
+    /**
+     * @param var
+     * @return true if the variable is a local or a parameter (not 'this')
+     */
+    public boolean isTracked(String var) {
+        return tracked.contains(var);
+    }
+
+    public Collection<Value> getEntryValues() {
+        return entryValues.values();
+    }
+
+    public List<Value> getPhis(OLLIRBlock block) {
+        return phis.getOrDefault(block, Collections.emptyList());
+    }
+
+    /**
+     * @param instruction
+     * @return the uses of the instruction, as they were when the SSA was built
+     */
+    public List<OLLIRUse> getUses(Instruction instruction) {
+        return uses.computeIfAbsent(instruction, OLLIRInstUtils::getUses);
+    }
+
+    /**
+     * @param instruction an instruction of the method
+     * @param element     an element read by that instruction, for an array access the array is the variable read
+     * @return the version of the variable read, or null if the element is not a tracked variable
+     */
+    public Value getValue(Instruction instruction, Element element) {
+        var values = useValues.get(instruction);
+        return values == null ? null : values.get(element);
+    }
+
+    /**
+     * @param instruction
+     * @return the version defined by the instruction, or null if it does not define a tracked variable
+     */
+    public Value getDefValue(Instruction instruction) {
+        return defValues.get(instruction);
+    }
+
+    /**
+     * @param instruction an instruction in a reachable block
+     * @param var         a tracked variable
+     * @return the version of the variable that the instruction would read
+     */
+    public Value getReachingValue(Instruction instruction, String var) {
+        var block = cfg.getBlock(instruction);
+        var instructions = block.getInstructions();
+
+        for (int i = instructions.indexOf(instruction) - 1; i >= 0; i--) {
+            var def = defValues.get(instructions.get(i));
+            if (def != null && def.getVar().equals(var)) return def;
+        }
+
+        return getValueAtStart(block, var);
+    }
+
+    private Value getValueAtStart(OLLIRBlock block, String var) {
+        for (var phi : getPhis(block)) {
+            if (phi.getVar().equals(var)) return phi;
+        }
+
+        // without a phi, the version is the same as at the end of the immediate dominator
+        var dominator = block.getImmediateDominator();
+        if (dominator == null) return entryValues.get(var);
+
+        return getValueAtEnd(dominator, var);
+    }
+
+    private Value getValueAtEnd(OLLIRBlock block, String var) {
+        var instructions = block.getInstructions();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            var def = defValues.get(instructions.get(i));
+            if (def != null && def.getVar().equals(var)) return def;
+        }
+
+        return getValueAtStart(block, var);
+    }
+
+    private void findTracked() {
+        var varTable = cfg.getMethod().getVarTable();
+        for (var var : varTable.keySet()) {
+            if (!var.equals("this")) tracked.add(var);
+        }
+
+        for (var param : cfg.getMethod().getParams()) {
+            if (param instanceof Operand operand) tracked.add(operand.getName());
+        }
+
+        for (var var : tracked) {
+            var value = new Value(var, null, null);
+            entryValues.put(var, value);
+            stacks.computeIfAbsent(var, key -> new ArrayDeque<>()).push(value);
+        }
+    }
+
+    /**
+     * Every variable gets a phi in the iterated dominance frontier of the blocks that define it. The entry defines
+     * every variable, so a loop back to it also gets phis.
+     */
+    private void placePhis() {
+        Map<String, Set<OLLIRBlock>> defBlocks = new HashMap<>();
+        for (var block : cfg.getReversePostorder()) {
+            for (var instruction : block.getInstructions()) {
+                var def = OLLIRInstUtils.getDef(instruction);
+                if (def != null && tracked.contains(def.getName())) {
+                    defBlocks.computeIfAbsent(def.getName(), key -> new HashSet<>()).add(block);
+                }
+            }
+        }
+
+        for (var var : tracked) {
+            Set<OLLIRBlock> hasPhi = new HashSet<>();
+            Set<OLLIRBlock> queued = new HashSet<>(defBlocks.getOrDefault(var, Collections.emptySet()));
+            queued.add(cfg.getEntry());
+            Deque<OLLIRBlock> worklist = new ArrayDeque<>(queued);
+
+            while (!worklist.isEmpty()) {
+                var block = worklist.poll();
+                for (var frontier : cfg.getDominanceFrontier(block)) {
+                    if (!hasPhi.add(frontier)) continue;
+
+                    var phi = new Value(var, null, frontier);
+                    if (frontier == cfg.getEntry()) phi.getPhiOperands().put(null, entryValues.get(var));
+                    phis.computeIfAbsent(frontier, key -> new ArrayList<>()).add(phi);
+
+                    if (queued.add(frontier)) worklist.add(frontier);
+                }
+            }
+        }
+    }
+
+    private void rename(OLLIRBlock block) {
+        List<String> pushed = new ArrayList<>();
+
+        for (var phi : getPhis(block)) {
+            push(phi, pushed);
+        }
+
+        for (var instruction : block.getInstructions()) {
+            for (var use : getUses(instruction)) {
+                if (use.getName() == null || !tracked.contains(use.getName())) continue;
+
+                var value = stacks.get(use.getName()).peek();
+                useValues.computeIfAbsent(instruction, key -> new IdentityHashMap<>()).put(use.get(), value);
+                value.getUsers().add(instruction);
+            }
+
+            var def = OLLIRInstUtils.getDef(instruction);
+            if (def != null && tracked.contains(def.getName())) {
+                var value = new Value(def.getName(), instruction, null);
+                defValues.put(instruction, value);
+                push(value, pushed);
+            }
+        }
+
+        for (var successor : block.getSuccessors()) {
+            for (var phi : getPhis(successor)) {
+                var value = stacks.get(phi.getVar()).peek();
+                phi.getPhiOperands().put(block, value);
+                value.getPhiUsers().add(phi);
+            }
+        }
+
+        for (var child : block.getDominated()) {
+            rename(child);
+        }
+
+        for (var var : pushed) {
+            stacks.get(var).pop();
+        }
+    }
+
+    private void push(Value value, List<String> pushed) {
+        stacks.get(value.getVar()).push(value);
+        pushed.add(value.getVar());
+    }
+}
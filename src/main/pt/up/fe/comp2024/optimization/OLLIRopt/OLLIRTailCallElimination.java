@@ -0,0 +1,134 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tail call elimination: a call of a method to itself whose result is returned right away becomes an assignment of
+ * the arguments to the parameters and a jump to the start of the method, so the recursion runs as a loop in the same
+ * frame.
+ * <p>
+ * The call is in tail position if the code after it, following gotos, is a 'ret' of the variable that received the
+ * result (or a 'ret.V' for a call whose result is not kept). The arguments are all read before any parameter is
+ * written, through temps, since an argument may read a parameter that comes before it.
+ */
+public class OLLIRTailCallElimination {
+    private static final String ENTRY_LABEL = "tail_entry";
+
+    private int eliminated = 0;
+
+    public OLLIRTailCallElimination() {
+
+    }
+
+    /**
+     * @return the number of calls replaced by jumps
+     */
+    public int getEliminated() {
+        return eliminated;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        if (method.isConstructMethod() || method.isVarargs()) return false;
+
+        List<Instruction> tailCalls = new ArrayList<>();
+        for (var instruction : method.getInstructions()) {
+            if (isTailCall(method, instruction)) tailCalls.add(instruction);
+        }
+        if (tailCalls.isEmpty()) return false;
+
+        // getLabels(Instruction) caches its result on the first call, so the label map is searched instead
+        var entry = method.getInstructions().get(0);
+        String entryLabel = method.getLabels().entrySet().stream()
+                .filter(label -> label.getValue() == entry)
+                .map(Map.Entry::getKey)
+                .findFirst().orElse(null);
+        if (entryLabel == null) {
+            entryLabel = ENTRY_LABEL;
+            for (int number = 1; method.getLabels().containsKey(entryLabel); number++) {
+                entryLabel = ENTRY_LABEL + number;
+            }
+            method.addLabel(entryLabel, entry);
+        }
+
+        for (var instruction : tailCalls) {
+            replaceCall(method, instruction, entryLabel);
+            eliminated++;
+        }
+        return true;
+    }
+
+    private static boolean isTailCall(Method method, Instruction instruction) {
+        var call = OLLIRInstUtils.getCall(instruction);
+        if (call == null
+                || !method.getMethodName().equals(OLLIRInstUtils.getCalledMethodName(method.getOllirClass(), call))
+                || method.isStaticMethod() != (call.getInvocationType() == CallType.invokestatic)
+                || method.getParams().size() != call.getArguments().size()) {
+            return false;
+        }
+
+        if (!(getNextExecuted(method, instruction) instanceof ReturnInstruction ret)) return false;
+        if (!ret.hasReturnValue()) return true;
+
+        return instruction instanceof AssignInstruction assign && ret.getOperand() instanceof Operand operand
+                && !(operand instanceof ArrayOperand) && operand.getName().equals(((Operand) assign.getDest()).getName());
+    }
+
+    /**
+     * @return the instruction that runs after the given one, skipping gotos, or null if there is none
+     */
+    private static Instruction getNextExecuted(Method method, Instruction instruction) {
+        var instructions = method.getInstructions();
+        int index = instructions.indexOf(instruction) + 1;
+
+        // a loop of gotos never reaches a return, give up after visiting every instruction
+        for (int steps = 0; index < instructions.size() && steps < instructions.size(); steps++) {
+            var next = instructions.get(index);
+            if (!(next instanceof GotoInstruction jump)) return next;
+            index = instructions.indexOf(method.getLabels().get(jump.getLabel()));
+        }
+        return null;
+    }
+
+    private static void replaceCall(Method method, Instruction instruction, String entryLabel) {
+        var call = OLLIRInstUtils.getCall(instruction);
+        var params = method.getParams();
+        var arguments = call.getArguments();
+
+        List<Instruction> assignments = new ArrayList<>();
+        List<Instruction> copies = new ArrayList<>();
+        for (int i = 0; i < params.size(); i++) {
+            var param = (Operand) params.get(i);
+            var argument = arguments.get(i);
+            if (argument instanceof Operand operand && !(operand instanceof ArrayOperand)
+                    && operand.getName().equals(param.getName())) {
+                continue; // the parameter keeps its value
+            }
+
+            var value = argument;
+            if (argument instanceof Operand) {
+                var temp = OLLIRInstUtils.newTemp(method, param.getType());
+                copies.add(new AssignInstruction(temp, param.getType(), new SingleOpInstruction(argument)));
+                value = new Operand(temp.getName(), temp.getType());
+            }
+            assignments.add(new AssignInstruction(new Operand(param.getName(), param.getType()), param.getType(),
+                    new SingleOpInstruction(value)));
+        }
+
+        var jump = new GotoInstruction(entryLabel);
+        OLLIRInstUtils.replaceInstruction(method, instruction, jump);
+        for (var copy : copies) {
+            OLLIRInstUtils.insertBefore(method, jump, copy);
+        }
+        for (var assignment : assignments) {
+            OLLIRInstUtils.insertBefore(method, jump, assignment);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.ArrayOperand;
+import org.specs.comp.ollir.Element;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Operand;
+
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A place inside an instruction where a value is read, which can be replaced by another element.
+ */
+public class OLLIRUse {
+    private final Instruction instruction;
+    private final Supplier<Element> getter;
+    private final Consumer<Element> setter;
+
+    public OLLIRUse(Instruction instruction, Supplier<Element> getter, Consumer<Element> setter) {
+        this.instruction = instruction;
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    /**
+     * @return the instruction of the method that contains this use
+     */
+    public Instruction getInstruction() {
+        return instruction;
+    }
+
+    public Element get() {
+        return getter.get();
+    }
+
+    /**
+     * @return the name of the variable read, or null if a literal is read
+     */
+    public String getName() {
+        return get() instanceof Operand operand ? operand.getName() : null;
+    }
+
+    /**
+     * @return true if a whole scalar variable is read here, i.e. not a literal nor an array element
+     */
+    public boolean isScalar() {
+        return get() instanceof Operand && !(get() instanceof ArrayOperand);
+    }
+
+    public boolean isReplaceable() {
+        return setter != null;
+    }
+
+    public void set(Element element) {
+        setter.accept(element);
+    }
+}
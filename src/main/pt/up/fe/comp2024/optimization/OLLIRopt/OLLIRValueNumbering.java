@@ -0,0 +1,346 @@
+package pt.up.fe.comp2024.optimization.OLLIRopt;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRSSA.Value;
+
+import java.util.*;
+
+/**
+ * Dominator-based global value numbering: an expression that was already computed by a dominating instruction, and
+ * whose result is still in a variable, is replaced by a copy of that variable.
+ * <p>
+ * Arithmetic, comparisons and arraylength depend only on their operands, so they are reused anywhere in the dominator
+ * tree. Array loads and getfields also depend on memory, which is modelled conservatively: every array may alias every
+ * other array and every call may write any array or field. Their value number includes a memory version that changes
+ * at every array store, putfield or call, and at the start of any block that is not only reached from its immediate
+ * dominator (so nothing can run between the two).
+ * <p>
+ * An array load in the middle of an expression (e.g. 'a[i] + a[i]') has no variable to reuse, so when the same load is
+ * found again further on in the block it is first moved to a new temporary.
+ */
+public class OLLIRValueNumbering {
+
+    private record Available(String holder, Value holderValue, int number) {
+    }
+
+    private Method method;
+    private OLLIRSSA ssa;
+
+    private final Map<Value, Integer> valueNumbers = new HashMap<>();
+    private final Map<String, Integer> keyNumbers = new HashMap<>();
+    private final Map<Element, Integer> insertedNumbers = new IdentityHashMap<>();
+    private final Map<String, Available> available = new HashMap<>();
+    private int nextNumber = 0;
+
+    private int arrayVersion = 0;
+    private int fieldVersion = 0;
+    private int nextVersion = 0;
+
+    private int eliminated = 0;
+
+    public OLLIRValueNumbering() {
+
+    }
+
+    /**
+     * @return the number of expressions and loads replaced by a variable that already had their value
+     */
+    public int getEliminated() {
+        return eliminated;
+    }
+
+    /**
+     * @param method
+     * @return true if the method was changed
+     */
+    public boolean optimize(Method method) {
+        this.method = method;
+        var cfg = new OLLIRControlFlow(method);
+        if (cfg.getEntry() == null) return false;
+
+        ssa = new OLLIRSSA(cfg);
+        valueNumbers.clear();
+        keyNumbers.clear();
+        insertedNumbers.clear();
+        available.clear();
+
+        int before = eliminated;
+        visitBlock(cfg.getEntry(), newVersion(), newVersion());
+        return eliminated > before;
+    }
+
+    private void visitBlock(OLLIRBlock block, int parentArrayVersion, int parentFieldVersion) {
+        var preds = block.getPredecessors();
+        if (preds.size() == 1 && preds.get(0) == block.getImmediateDominator()) {
+            arrayVersion = parentArrayVersion;
+            fieldVersion = parentFieldVersion;
+        } else {
+            arrayVersion = newVersion();
+            fieldVersion = newVersion();
+        }
+
+        // entries added in this block, to restore the table when leaving the dominator subtree
+        Map<String, Available> shadowed = new HashMap<>();
+
+        var instructions = block.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            reuseLoads(instruction, instructions.subList(i + 1, instructions.size()), shadowed);
+            numberDefinition(instruction, shadowed);
+            applyKills(instruction);
+        }
+
+        int endArrayVersion = arrayVersion;
+        int endFieldVersion = fieldVersion;
+        for (var child : block.getDominated()) {
+            visitBlock(child, endArrayVersion, endFieldVersion);
+        }
+
+        for (var entry : shadowed.entrySet()) {
+            if (entry.getValue() == null) {
+                available.remove(entry.getKey());
+            } else {
+                available.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Replaces the array loads inside an expression by a variable that holds the same value, creating one if the load
+     * is repeated in the rest of the block.
+     */
+    private void reuseLoads(Instruction instruction, List<Instruction> rest, Map<String, Available> shadowed) {
+        if (isLoad(instruction)) return; // 'x := a[i]' is handled as a whole, x will hold the value
+
+        var uses = ssa.getUses(instruction);
+        for (int i = 0; i < uses.size(); i++) {
+            var use = uses.get(i);
+            if (!(use.get() instanceof ArrayOperand load) || !use.isReplaceable()) continue;
+
+            var key = loadKey(instruction, load);
+            var holder = findAvailable(key, instruction);
+            if (holder != null) {
+                use.set(inserted(new Operand(holder.holder(), load.getType()), holder.number()));
+                eliminated++;
+                continue;
+            }
+
+            if (!isRepeated(load, instruction, uses.subList(i + 1, uses.size()), rest)) continue;
+
+            int number = numberOf(key);
+            var temp = OLLIRInstUtils.newTemp(method, load.getType());
+            OLLIRInstUtils.insertBefore(method, instruction,
+                    new AssignInstruction(temp, load.getType(), new SingleOpInstruction(load)));
+            use.set(inserted(temp, number));
+
+            addAvailable(key, new Available(temp.getName(), null, number), shadowed);
+        }
+    }
+
+    private void numberDefinition(Instruction instruction, Map<String, Available> shadowed) {
+        var def = ssa.getDefValue(instruction);
+        if (def == null) return;
+
+        var assign = (AssignInstruction) instruction;
+        var rhs = assign.getRhs();
+
+        // a copy has the same number as its source
+        if (rhs instanceof SingleOpInstruction singleOp && !(singleOp.getSingleOperand() instanceof ArrayOperand)) {
+            valueNumbers.put(def, number(instruction, singleOp.getSingleOperand()));
+            return;
+        }
+
+        var key = expressionKey(instruction, rhs);
+        if (key == null) {
+            valueNumbers.put(def, nextNumber++);
+            return;
+        }
+
+        var holder = findAvailable(key, instruction);
+        if (holder != null) {
+            var dest = (Operand) assign.getDest();
+            var copy = new SingleOpInstruction(new Operand(holder.holder(), dest.getType()));
+            var newAssign = new AssignInstruction(dest, assign.getTypeOfAssign(), copy);
+            OLLIRInstUtils.replaceInstruction(method, instruction, newAssign);
+            valueNumbers.put(def, holder.number());
+            eliminated++;
+            return;
+        }
+
+        int number = numberOf(key);
+        valueNumbers.put(def, number);
+        addAvailable(key, new Available(def.getVar(), def, number), shadowed);
+    }
+
+    private void applyKills(Instruction instruction) {
+        var effect = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+
+        if (effect instanceof CallInstruction call && call.getInvocationType() != CallType.arraylength
+                && call.getInvocationType() != CallType.NEW) {
+            arrayVersion = newVersion();
+            fieldVersion = newVersion();
+        }
+        if (instruction.getInstType() == InstructionType.PUTFIELD) {
+            fieldVersion = newVersion();
+        }
+        if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof ArrayOperand) {
+            arrayVersion = newVersion();
+        }
+    }
+
+    /**
+     * @return a key that is equal for two expressions with the same value, or null if the value cannot be reused
+     */
+    private String expressionKey(Instruction top, Instruction rhs) {
+        return switch (rhs.getInstType()) {
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) rhs;
+                var opType = binaryOp.getOperation().getOpType();
+                int left = number(top, binaryOp.getLeftOperand());
+                int right = number(top, binaryOp.getRightOperand());
+
+                if (isCommutative(opType) && left > right) {
+                    int swap = left;
+                    left = right;
+                    right = swap;
+                }
+                yield opType + " " + left + " " + right;
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) rhs;
+                yield unaryOp.getOperation().getOpType() + " " + number(top, unaryOp.getOperand());
+            }
+            case NOPER -> loadKey(top, (ArrayOperand) ((SingleOpInstruction) rhs).getSingleOperand());
+            case CALL -> {
+                var call = (CallInstruction) rhs;
+                if (call.getInvocationType() != CallType.arraylength) yield null;
+                yield "arraylength " + number(top, call.getCaller());
+            }
+            case GETFIELD -> {
+                var getField = (GetFieldInstruction) rhs;
+                yield "getfield " + number(top, getField.getObject()) + " " + getField.getField().getName()
+                        + " @" + fieldVersion;
+            }
+            default -> null;
+        };
+    }
+
+    private String loadKey(Instruction top, ArrayOperand load) {
+        var index = load.getIndexOperands().get(0);
+        return "load " + number(top, load) + " " + number(top, index) + " @" + arrayVersion;
+    }
+
+    /**
+     * @return the value number of an operand; for an array access, the number of the array
+     */
+    private int number(Instruction top, Element element) {
+        var literal = OLLIRInstUtils.literalValue(element);
+        if (literal != null) return numberOf("literal " + literal);
+
+        if (!(element instanceof Operand operand)) return nextNumber++;
+
+        var insertedNumber = insertedNumbers.get(element);
+        if (insertedNumber != null) return insertedNumber;
+
+        var value = ssa.getValue(top, element);
+        if (value == null) return numberOf("variable " + operand.getName()); // 'this', never changes
+
+        return valueNumbers.computeIfAbsent(value, key -> nextNumber++);
+    }
+
+    private Element inserted(Operand operand, int number) {
+        insertedNumbers.put(operand, number);
+        return operand;
+    }
+
+    private int numberOf(String key) {
+        return keyNumbers.computeIfAbsent(key, unused -> nextNumber++);
+    }
+
+    /**
+     * @return the variable that holds the value of the key, if it still holds it at the instruction
+     */
+    private Available findAvailable(String key, Instruction instruction) {
+        var entry = available.get(key);
+        if (entry == null) return null;
+
+        // temporaries created here are written only once
+        if (entry.holderValue() == null) return entry;
+
+        return ssa.getReachingValue(instruction, entry.holder()) == entry.holderValue() ? entry : null;
+    }
+
+    private void addAvailable(String key, Available entry, Map<String, Available> shadowed) {
+        var previous = available.put(key, entry);
+        shadowed.putIfAbsent(key, previous);
+    }
+
+    private static boolean isLoad(Instruction instruction) {
+        return instruction instanceof AssignInstruction assign
+                && !(assign.getDest() instanceof ArrayOperand)
+                && assign.getRhs() instanceof SingleOpInstruction singleOp
+                && singleOp.getSingleOperand() instanceof ArrayOperand;
+    }
+
+    /**
+     * Looks for the same load (same array and index variables or literal) later in the instruction or in the rest
+     * of the block, stopping at anything that may change the array, the index or the memory.
+     */
+    private static boolean isRepeated(ArrayOperand load, Instruction instruction, List<OLLIRUse> sameInstruction,
+                                      List<Instruction> rest) {
+        for (var use : sameInstruction) {
+            if (isSameLoad(load, use.get())) return true;
+        }
+        if (mayChange(instruction, load)) return false;
+
+        for (var next : rest) {
+            for (var use : OLLIRInstUtils.getUses(next)) {
+                if (isSameLoad(load, use.get())) return true;
+            }
+            if (mayChange(next, load)) return false;
+        }
+
+        return false;
+    }
+
+    private static boolean mayChange(Instruction instruction, ArrayOperand load) {
+        var index = load.getIndexOperands().get(0);
+        var def = OLLIRInstUtils.getDef(instruction);
+        if (def != null && (def.getName().equals(load.getName())
+                || index instanceof Operand operand && def.getName().equals(operand.getName()))) {
+            return true;
+        }
+
+        var effect = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+        if (effect instanceof CallInstruction call && call.getInvocationType() != CallType.arraylength
+                && call.getInvocationType() != CallType.NEW) {
+            return true;
+        }
+
+        return instruction instanceof AssignInstruction assign && assign.getDest() instanceof ArrayOperand;
+    }
+
+    private static boolean isSameLoad(ArrayOperand load, Element element) {
+        if (!(element instanceof ArrayOperand other) || !other.getName().equals(load.getName())) return false;
+
+        var index = load.getIndexOperands().get(0);
+        var otherIndex = other.getIndexOperands().get(0);
+        if (index instanceof Operand operand) {
+            return otherIndex instanceof Operand otherOperand && operand.getName().equals(otherOperand.getName());
+        }
+
+        var literal = OLLIRInstUtils.literalValue(index);
+        return literal != null && literal.equals(OLLIRInstUtils.literalValue(otherIndex));
+    }
+
+    private static boolean isCommutative(OperationType opType) {
+        return switch (opType) {
+            case ADD, MUL, AND, OR, ANDB, ORB, XOR, EQ, NEQ -> true;
+            default -> false;
+        };
+    }
+
+    private int newVersion() {
+        return nextVersion++;
+    }
+}
@@ -5,11 +5,14 @@ import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
 import pt.up.fe.comp.jmm.analysis.table.Type;
 import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.ast.AJmmVisitor;
+import pt.up.fe.comp2024.ast.CallBinder;
+import pt.up.fe.comp2024.ast.CallTarget.VarargShape;
 import pt.up.fe.comp2024.ast.TypeUtils;
 import pt.up.fe.comp2024.symboltable.JmmSymbolTable;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import static pt.up.fe.comp2024.ast.Kind.*;
 
@@ -20,15 +23,55 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
     private static final String SPACE = " ";
     private static final String ASSIGN = ":=";
+    private static final Map<String, String> NEGATED_COMPARISONS = Map.of("<", ">=", "<=", ">", ">", "<=", ">=", "<");
     private final String END_STMT = ";\n";
     private final String NEW_LINE = "\n";
 
     private final JmmSymbolTable table;
 
+    private JmmNode assignedNode;
+    private String assignedName;
+    private String assignedType;
+
     public OllirExprGeneratorVisitor(SymbolTable table) {
         this.table = (JmmSymbolTable) table;
     }
 
+    /**
+     * Generates an expression whose value is assigned to a variable. When the expression is computed by an
+     * instruction that gives a single value, that instruction writes the variable directly instead of a temp that
+     * would then be copied to it.
+     *
+     * @param node      the expression
+     * @param name      the variable
+     * @param ollirType the type of the variable
+     * @return the result, with the variable as its code if it was written by the computation
+     */
+    public OllirExprResult visitAssigned(JmmNode node, String name, String ollirType) {
+        while (node.isInstance(PAREN_EXPR)) {
+            node = node.getJmmChild(0);
+        }
+
+        assignedNode = node;
+        assignedName = name;
+        assignedType = ollirType;
+        try {
+            return visit(node);
+        } finally {
+            assignedNode = null;
+        }
+    }
+
+    /**
+     * @param node      the expression whose value is kept
+     * @param ollirType the type of the value
+     * @return the variable assigned to the expression, if there is one of the same type, or a temp of the statement
+     */
+    private String getResultVar(JmmNode node, String ollirType) {
+        if (node == assignedNode && ollirType.equals(assignedType)) return assignedName;
+        return OptUtils.getStatementTemp(ollirType);
+    }
+
     @Override
     protected void buildVisitor() {
         addVisit(VAR_REF_EXPR, this::visitVarRef);
@@ -53,8 +96,8 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         StringBuilder computation = new StringBuilder();
 
-        String tempToUse = OptUtils.getTemp();
         String ollirIntType = OptUtils.toOllirType(node);
+        String tempToUse = getResultVar(node, ollirIntType);
         String className = node.get("id");
 
         computation.append(tempToUse);
@@ -87,13 +130,15 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
             StringBuilder computation = new StringBuilder();
 
             String arrayType = OptUtils.toOllirType(new Type(node.getJmmChild(0).get("id"), true));
-            String size = visit(node.getJmmChild(1)).getCode();
+            var sizeResult = visit(node.getJmmChild(1));
+            String size = sizeResult.getCode();
 
 
-            String arrayTemp = OptUtils.getTemp();
+            String arrayTemp = getResultVar(node, arrayType);
             code.append(arrayTemp);
             code.append(arrayType);
 
+            computation.append(sizeResult.getComputation());
             computation.append(code);
             computation.append(SPACE);
             computation.append(ASSIGN);
@@ -122,8 +167,8 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         }
         int size = funcArgsNode.getChildren().size();
 
-        // create temp
-        String arrayTemp = OptUtils.getTemp();
+        // create temp, the values may read the variable the array is assigned to
+        String arrayTemp = OptUtils.getStatementTemp(arrayType);
         code.append(arrayTemp);
         code.append(arrayType);
 
@@ -166,7 +211,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         String arrayType = visit(node.getJmmChild(0)).getCode();
         String intType = OptUtils.toOllirType(new Type(TypeUtils.getIntTypeName(), false));
 
-        code.append(OptUtils.getTemp());
+        code.append(getResultVar(node, intType));
         code.append(intType);
 
         computation.append(code);
@@ -206,8 +251,8 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
             return new OllirExprResult(code.toString(), computation);
         }
 
-        String temp = OptUtils.getTemp();
         String tempType = OptUtils.toOllirType(new Type(type, false));
+        String temp = getResultVar(node, tempType);
         computation.append(temp);
         computation.append(tempType);
         computation.append(SPACE);
@@ -247,11 +292,11 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         // code to compute self
         Type resType = TypeUtils.getExprType(node, table);
         String resOllirType = OptUtils.toOllirType(resType);
-        String code = OptUtils.getTemp() + resOllirType;
+        String code = getResultVar(node, resOllirType) + resOllirType;
 
         String lhsCode = lhs.getCode();
         if(lhs.getCode().contains("invokevirtual")){
-            String type = OptUtils.getTemp() + resOllirType;
+            String type = OptUtils.getStatementTemp(resOllirType) + resOllirType;
             computation.append(type);
             computation.append(SPACE);
             computation.append(ASSIGN);
@@ -289,11 +334,11 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         // code to compute self
         Type resType = TypeUtils.getExprType(node, table);
         String resOllirType = OptUtils.toOllirType(resType);
-        String code = OptUtils.getTemp() + resOllirType;
+        String code = getResultVar(node, resOllirType) + resOllirType;
 
         String lhsCode = lhs.getCode();
         if(lhs.getCode().contains("invokevirtual")){
-            String type = OptUtils.getTemp() + resOllirType;
+            String type = OptUtils.getStatementTemp(resOllirType) + resOllirType;
             computation.append(type);
             computation.append(SPACE);
             computation.append(ASSIGN);
@@ -305,7 +350,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         String rhsCode = rhs.getCode();
         if(rhs.getCode().contains("invokevirtual")){
-            String type = OptUtils.getTemp() + resOllirType;
+            String type = OptUtils.getStatementTemp(resOllirType) + resOllirType;
             computation.append(type);
             computation.append(SPACE);
             computation.append(ASSIGN);
@@ -326,6 +371,72 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         return new OllirExprResult(code, computation);
     }
 
+    /**
+     * Generates the code of a condition as jumps, for the statements that branch on it: a comparison is tested by the
+     * branch itself, a '!' swaps the outcome that jumps and an '&&' jumps out as soon as its result is known, so the
+     * boolean value is never computed.
+     *
+     * @param node     the condition
+     * @param jumpWhen the result of the condition that jumps to the label, the other one falls through
+     * @param label
+     * @return the code of the condition, ending with the jump
+     */
+    public String visitCondition(JmmNode node, boolean jumpWhen, String label) {
+        StringBuilder code = new StringBuilder();
+
+        if (node.isInstance(PAREN_EXPR)) {
+            return visitCondition(node.getJmmChild(0), jumpWhen, label);
+        }
+
+        if (node.isInstance(BOOLEAN)) {
+            boolean value = node.get("value").equals("true");
+            return value == jumpWhen ? "goto " + label + END_STMT : "";
+        }
+
+        if (node.isInstance(UNARY_OP)) {
+            return visitCondition(node.getJmmChild(0), !jumpWhen, label);
+        }
+
+        if (node.isInstance(BOOLEAN_EXPR)) {
+            if (!jumpWhen) {
+                code.append(visitCondition(node.getJmmChild(0), false, label));
+                code.append(visitCondition(node.getJmmChild(1), false, label));
+                return code.toString();
+            }
+
+            // when the left side is false the whole condition is, and the code after it runs
+            String endLabel = "and_end_" + OptUtils.getIfNumber();
+            code.append(visitCondition(node.getJmmChild(0), false, endLabel));
+            code.append(visitCondition(node.getJmmChild(1), true, label));
+            code.append(endLabel).append(":").append(NEW_LINE);
+            return code.toString();
+        }
+
+        if (node.isInstance(COMPARISON_EXPR)) {
+            var lhs = visit(node.getJmmChild(0));
+            var rhs = visit(node.getJmmChild(1));
+            String op = jumpWhen ? node.get("op") : NEGATED_COMPARISONS.get(node.get("op"));
+            String type = OptUtils.toOllirType(TypeUtils.getExprType(node, table));
+
+            code.append(lhs.getComputation());
+            code.append(rhs.getComputation());
+            code.append("if (").append(lhs.getCode()).append(SPACE).append(op).append(type).append(SPACE)
+                    .append(rhs.getCode()).append(") goto ").append(label).append(END_STMT);
+            return code.toString();
+        }
+
+        var condition = visit(node);
+        String type = OptUtils.toOllirType(new Type("boolean", false));
+        code.append(condition.getComputation());
+        code.append("if (");
+        if (!jumpWhen) {
+            code.append("!").append(type).append(SPACE);
+        }
+        code.append(condition.getCode()).append(") goto ").append(label).append(END_STMT);
+
+        return code.toString();
+    }
+
     private OllirExprResult visitBoolExpr(JmmNode node, Void unused) {
 
         var lhs = visit(node.getJmmChild(0));
@@ -335,7 +446,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         Type resType = TypeUtils.getExprType(node, table);
         String resOllirType = OptUtils.toOllirType(resType);
-        String temp = OptUtils.getTemp() + resOllirType;
+        String temp = getResultVar(node, resOllirType) + resOllirType;
 
         String n = OptUtils.getIfNumber();
         String shortCircuitLabel = "true_" + n;
@@ -383,7 +494,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         for(Symbol symbol : table.getFields()){
             if(symbol.getName().equals(id)){
                 // It is a field!
-                var tempUsed = OptUtils.getTemp();
+                var tempUsed = getResultVar(node, ollirType);
                 computation.append(tempUsed);
                 computation.append(ollirType);
                 computation.append(SPACE);
@@ -410,244 +521,90 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         StringBuilder code = new StringBuilder();
         StringBuilder computation = new StringBuilder();
 
-        var headNode = node.getChild(0);
-        String objectType = getObjectType(headNode);
-        String objectName = "";
-        String exprCode = "";
-        if (objectType.equals(FUNC_CALL.toString())){
-            var visitedFuncCall = visit(headNode);
-            code.append(visitedFuncCall.getComputation());
-            exprCode = visitedFuncCall.getCode();
-        }else{
-            objectName = getObjectName(headNode);
-        }
-
+        var target = CallBinder.bind(node, table);
         var methodCalledName = node.get("id");
-        String invoke = "invokevirtual";
 
-        var methodNode = node.getAncestor(METHOD_DECL);
-        if(methodNode.isEmpty()) return new OllirExprResult("");
-
-        var methodName = methodNode.get().get("name");
-        boolean isStatic = false;
-
-        // Check in imports
-        for(String importt : table.getImports()){
-            if(importt.equals(objectName)){
-                isStatic = true;
-                break;
-            }
+        var headNode = node.getChild(0);
+        while (headNode.isInstance(PAREN_EXPR)) {
+            headNode = headNode.getChild(0);
         }
 
-        String callerType = "";
-
-        // Check in class methods
-        if (!isStatic){
-            boolean found = false;
-
-            if (objectName.equals("this")){
-                callerType = table.getClassName();
-                String type = OptUtils.toOllirType(new Type(callerType,false));
-                objectName = objectName + type;
+        String caller;
+        switch (target.getCallerKind()) {
+            case IMPORT -> caller = target.getOwnerClass();
+            case THIS, LOCAL, PARAM -> caller = headNode.get("name") + OptUtils.toOllirType(target.getReceiverType());
+            default -> {
+                // fields, 'new' and chained calls need their own computation first
+                var visitedHead = visit(headNode);
+                code.append(visitedHead.getComputation());
+                caller = visitedHead.getCode();
             }
-            else{
-                for (Symbol local : table.getLocalVariables(methodName)){
-                    if (local.getName().equals(objectName)){
-                        callerType = local.getType().getName();
-                        String type = OptUtils.toOllirType(new Type(callerType,false));
-                        objectName = objectName + type;
-                        found = true;
-                        break;
-                    }
-                }
-
-                if (!found){
-                    for (Symbol parameter : table.getParameters(methodName)){
-                        if (parameter.getName().equals(objectName)){
-                            callerType = parameter.getType().getName();
-                            String type = OptUtils.toOllirType(new Type(callerType,false));
-                            objectName = objectName + type;
-                            found = true;
-                            break;
-                        }
-                    }
-                }
-
-                if (!found){
-                    for (Symbol field: table.getFields()){
-                        if (field.getName().equals(objectName)){
-                            callerType = field.getType().getName();
-                            String tempUsed = OptUtils.getTemp();
-                            String type = OptUtils.toOllirType(field.getType());
-                            code.append(tempUsed);
-                            code.append(type);
-                            code.append(SPACE);
-                            code.append(ASSIGN);
-                            code.append(type);
-                            code.append(" getfield(this, ");
-                            code.append(objectName);
-                            code.append(type);
-                            code.append(")");
-                            code.append(type);
-                            code.append(END_STMT);
-
-                            objectName = tempUsed + type;
-
-                            break;
-                        }
-                    }
-                }
-            }
-
-        }
-
-        if(objectType.equals(NEW_CLASS.getNodeName())){
-            var visitedHead = visit(headNode);
-            code.append(visitedHead.getComputation());
-            objectName = visitedHead.getCode();
-        }
-
-        if(isStatic){
-            invoke = "invokestatic";
         }
 
         StringBuilder params = new StringBuilder();
 
         // PARSING PARAMETERS
-
-        // VarArgs
         List<JmmNode> argNodes = new ArrayList<>();
         if(node.getChildren().size()>1){
             argNodes = node.getChild(1).getChildren();
         }
 
-        List<Symbol> methodParameters = new ArrayList<>();
-
-        if(table.methodHasParams(methodCalledName)) {
-            methodParameters = table.getParameters(methodCalledName);
+        int fixedArgs = Math.min(target.getFixedArgs(), argNodes.size());
+        for(JmmNode argNode : argNodes.subList(0, fixedArgs)){
+            var visitedArgNode = visit(argNode);
+            code.append(visitedArgNode.getComputation());
+            params.append(", ");
+            params.append(visitedArgNode.getCode());
         }
-        List<JmmNode> varArgsNodes = new ArrayList<>();
-        boolean varArgs = hasVarArgs(methodParameters, argNodes);
-        if(varArgs){
-            for(int i = argNodes.size()-1; i > methodParameters.size()-2; i--){
-                varArgsNodes.add(argNodes.get(i));
-            }
-        }
-
-        if(node.getChildren().size() > 1){
-            var toVisit = node.getChild(1).getChildren();
-            if(!isStatic && varArgs){
-                toVisit = argNodes.subList(0, methodParameters.size()-1);
-            }
-            for(JmmNode argNode : toVisit){
-                var visitedArgNode = visit(argNode);
-                params.append(", ");
-                code.append(visitedArgNode.getComputation());
-                params.append(visitedArgNode.getCode());
-                // When accessing arrays, create a temporary variable
-                /*
-                if(argNode.getKind().equals(ARRAY_ACCESS.getNodeName())) {
-                    String temp = OptUtils.getTemp() + OptUtils.toOllirType(TypeUtils.getExprType(argNode,table));
-                    computation.append(visitedArgNode.getComputation());
-                    computation.append(temp);
-                    computation.append(SPACE);
-                    computation.append(ASSIGN);
-                    computation.append(OptUtils.toOllirType(TypeUtils.getExprType(argNode,table)));
-                    computation.append(SPACE);
-                    computation.append(visitedArgNode.getCode());
-                    computation.append(END_STMT);
-                    params.append(temp);
-                }else {
-                    code.append(visitedArgNode.getComputation());
-                    params.append(visitedArgNode.getCode());
-                }
-                */
 
-            }
-        }
+        // VarArgs, the remaining arguments are packed into a new array, in order
+        if(target.getVarargShape() == VarargShape.PACKED){
+            var varArgsNodes = argNodes.subList(fixedArgs, argNodes.size());
 
+            String arrayType = OptUtils.toOllirType(new Type(TypeUtils.getIntTypeName(), true));
+            String arrayValuesType = OptUtils.toOllirType(new Type(TypeUtils.getIntTypeName(), false));
+            int size = varArgsNodes.size();
+            String arrayTemp = OptUtils.getStatementTemp(arrayType);
+            String temp = arrayTemp + arrayType;
 
-        if(varArgs || (!methodParameters.isEmpty() && methodParameters.get(methodParameters.size()-1).getType().getName().equals("int..."))){
-            if (varArgsNodes.isEmpty() || !TypeUtils.getExprType(varArgsNodes.get(0), table).isArray()) {
-                String arrayType = OptUtils.toOllirType(new Type(TypeUtils.getIntTypeName(), true));
-                String arrayValuesType = OptUtils.toOllirType(new Type(TypeUtils.getIntTypeName(), false));
-                int size = varArgsNodes.size();
-                String arrayTemp = OptUtils.getTemp();
-                String temp = arrayTemp + arrayType;
+            params.append(", ").append(temp);
 
-                params.append(", ").append(temp);
+            code.append(temp);
+            code.append(SPACE);
+            code.append(ASSIGN);
+            code.append(arrayType);
+            code.append(SPACE);
+            code.append("new(array, ");
+            code.append(size);
+            code.append(arrayValuesType);
+            code.append(")");
+            code.append(arrayType);
+            code.append(END_STMT);
 
-                code.append(temp);
+            for (int i = 0; i < size; i++) {
+                OllirExprResult arg = visit(varArgsNodes.get(i));
+                code.append(arg.getComputation());
+                code.append(arrayTemp);
+                code.append("[");
+                code.append(i);
+                code.append(".i32");
+                code.append("]");
+                code.append(arrayValuesType);
                 code.append(SPACE);
                 code.append(ASSIGN);
-                code.append(arrayType);
-                code.append(SPACE);
-                code.append("new(array, ");
-                code.append(size);
                 code.append(arrayValuesType);
-                code.append(")");
-                code.append(arrayType);
+                code.append(SPACE);
+                code.append(arg.getCode());
                 code.append(END_STMT);
-
-                for (int i = 0; i < size; i++) {
-                    OllirExprResult arg = visit(varArgsNodes.get(i));
-                    code.append(arg.getComputation());
-                    code.append(arrayTemp);
-                    code.append("[");
-                    code.append(i);
-                    code.append(".i32");
-                    code.append("]");
-                    code.append(arrayValuesType);
-                    code.append(SPACE);
-                    code.append(ASSIGN);
-                    code.append(arrayValuesType);
-                    code.append(SPACE);
-                    code.append(arg.getCode());
-                    code.append(END_STMT);
-                }
-            } else {
-                OllirExprResult arg = visit(varArgsNodes.get(0));
-                code.append(arg.getComputation());
-                params.append(", ").append(arg.getCode());
-            }
-        }
-
-        var returnType = "";
-
-        if(callerType.equals(table.getClassName())){
-            returnType = OptUtils.toOllirType(new Type(table.getReturnType(methodCalledName).getName(),false));
-        }
-        else{
-            var parent = node.getParent();
-            if (parent.getKind().equals(ASSIGN_STMT.toString())){
-                returnType = OptUtils.toOllirType(TypeUtils.getExprType(parent.getChild(0),table));
-            }
-            else if (parent.getKind().equals(FUNC_ARGS.toString())){
-                int k = -1;
-                for (int i = 0; i<parent.getNumChildren(); i++){
-                    if (parent.getChild(i).equals(node)){
-                        k = i;
-                        break;
-                    }
-                }
-                returnType = OptUtils.toOllirType(table.getParameters(parent.getParent().get("id")).get(k).getType());
-            }
-            else if (parent.getKind().equals(RETURN_STMT.toString())){
-                returnType = OptUtils.toOllirType(table.getReturnType(methodName));
-            }
-            else{
-                returnType = ".V";
             }
         }
 
-        var input = "";
-        if (exprCode.isEmpty()) input = objectName;
-        else input = exprCode;
+        var returnType = OptUtils.toOllirType(target.getReturnType());
 
-        var funcOllir = invoke + "(" + input + ", \"" + methodCalledName + "\"" + params + ")"+returnType+END_STMT;
+        var funcOllir = target.getInvocation() + "(" + caller + ", \"" + methodCalledName + "\"" + params + ")"+returnType+END_STMT;
 
         if(!node.getParent().isInstance(DEFAULT_STMT)){
-            StringBuilder temp = new StringBuilder (OptUtils.getTemp()+returnType);
+            StringBuilder temp = new StringBuilder (getResultVar(node, returnType)+returnType);
             computation = code;
             computation.append(temp+SPACE+ASSIGN+returnType+SPACE+funcOllir);
             code = temp;
@@ -658,29 +615,6 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         return new OllirExprResult(code.toString(), computation);
     }
 
-    private boolean hasVarArgs(List<Symbol> methodParameters, List<JmmNode> argNodes){
-        if(methodParameters.isEmpty()) return false;
-        if(!methodParameters.get(methodParameters.size()-1).getType().getName().equals("int...")) return false;
-        return argNodes.size() >= methodParameters.size();
-    }
-    String getObjectName(JmmNode node){
-        if(node.getKind().equals(PAREN_EXPR.getNodeName())){
-            return getObjectName(node.getChild(0));
-        }
-
-        if(node.getKind().equals(NEW_CLASS.getNodeName())) return node.get("id");
-
-        return node.get("name");
-    }
-
-    String getObjectType(JmmNode node){
-        if(node.getKind().equals(PAREN_EXPR.getNodeName())){
-            return getObjectType(node.getChild(0));
-        }
-
-        return node.getKind();
-    }
-
     /**
      * Default visitor. Visits every child node and return an empty result.
      *
@@ -60,6 +60,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
 
     private String visitDefaultStmt(JmmNode node, Void unused){
         var stmt = node.getChild(0);
+        OptUtils.endStatement();
 
         // method only defined for FUNC_CALL for now
         if(!stmt.getKind().equals(FUNC_CALL.getNodeName())) return "";
@@ -71,6 +72,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
     private String visitAssignStmt(JmmNode node, Void unused) {
 
         StringBuilder code = new StringBuilder();
+        OptUtils.endStatement();
 
         if(!node.getJmmChild(0).getKind().equals("ArrayAccess")){
             var name = node.getJmmChild(0).get("name");
@@ -92,18 +94,25 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
             }
         }
 
+        // statement has type of lhs
+        Type thisType = TypeUtils.getExprType(node.getJmmChild(0), table);
+        String typeString = OptUtils.toOllirType(thisType);
+
         var lhs = exprVisitor.visit(node.getJmmChild(0));
-        var rhs = exprVisitor.visit(node.getJmmChild(1));
+        var rhs = node.getJmmChild(0).isInstance(VAR_REF_EXPR)
+                ? exprVisitor.visitAssigned(node.getJmmChild(1), node.getJmmChild(0).get("name"), typeString)
+                : exprVisitor.visit(node.getJmmChild(1));
 
         // code to compute the children
         code.append(lhs.getComputation());
         code.append(rhs.getComputation());
 
-        // code to compute self
-        // statement has type of lhs
-        Type thisType = TypeUtils.getExprType(node.getJmmChild(0), table);
-        String typeString = OptUtils.toOllirType(thisType);
+        // the value was computed into the variable
+        if (rhs.getCode().equals(lhs.getCode())) {
+            return code.toString();
+        }
 
+        // code to compute self
 
         code.append(lhs.getCode());
         code.append(SPACE);
@@ -125,6 +134,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         Type retType = table.getReturnType(methodName);
 
         StringBuilder code = new StringBuilder();
+        OptUtils.endStatement();
 
         var expr = OllirExprResult.EMPTY;
 
@@ -157,6 +167,8 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
     private String visitMethodDecl(JmmNode node, Void unused) {
 
         StringBuilder code = new StringBuilder(".method ");
+        OptUtils.resetLabelNumbers();
+        OptUtils.resetStatementTemps();
 
         boolean isPublic = NodeUtils.getBooleanAttribute(node, "isPublic", "false");
         if (isPublic) {
@@ -276,22 +288,19 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         StringBuilder code = new StringBuilder();
 
         var n = OptUtils.getIfNumber();
-        var condition = exprVisitor.visit(node.getJmmChild(0));
         var thenStmt = node.getJmmChild(1);
         var elseStmt = node.getJmmChild(2);
 
-        code.append(condition.getComputation());
-        code.append("if (");
-        code.append(condition.getCode());
-        code.append(") goto if").append(n).append(";\n");
+        OptUtils.endStatement();
+        code.append(exprVisitor.visitCondition(node.getJmmChild(0), false, "else" + n));
 
-        code.append(scopedCode(visit(elseStmt)));
+        code.append(scopedCode(visit(thenStmt)));
 
         code.append("goto endif").append(n).append(";\n");
 
-        code.append("if").append(n).append(":\n");
+        code.append("else").append(n).append(":\n");
 
-        code.append(scopedCode(visit(thenStmt)));
+        code.append(scopedCode(visit(elseStmt)));
         code.append("endif").append(n).append(":\n");
 
         return code.toString();
@@ -312,24 +321,24 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         return code.toString();
     }
 
+    /**
+     * Generates the loop in rotated form: the condition is tested once before the loop, to skip it, and then at the
+     * end of the body, jumping back while it holds, so each iteration only runs that branch.
+     */
     private String visitWhileStmt(JmmNode node, Void unused) {
         StringBuilder code = new StringBuilder();
 
         var n = OptUtils.getWhileNumber();
-        var condition = exprVisitor.visit(node.getJmmChild(0));
+        var condition = node.getJmmChild(0);
         var stmt = node.getJmmChild(1);
 
-        code.append("whileCond").append(n).append(":\n");
-        code.append(scopedCode(condition.getComputation()));
-
-        code.append("if (");
-        code.append(condition.getCode());
-        code.append(") goto whileLoop").append(n).append(";\n");
-        code.append("goto whileEnd").append(n).append(";\n");
+        OptUtils.endStatement();
+        code.append(exprVisitor.visitCondition(condition, false, "whileEnd" + n));
 
         code.append("whileLoop").append(n).append(":\n");
         code.append(scopedCode(visit(stmt)));
-        code.append("goto whileCond").append(n).append(";\n");
+        OptUtils.endStatement();
+        code.append(scopedCode(exprVisitor.visitCondition(condition, true, "whileLoop" + n)));
         code.append("whileEnd").append(n).append(":\n");
 
         return code.toString();
@@ -6,8 +6,7 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp2024.ast.NodeUtils;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
 
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
 
 import static pt.up.fe.comp2024.ast.Kind.*;
 import static pt.up.fe.comp2024.ast.Kind.TYPE;
@@ -16,12 +15,22 @@ public class OptUtils {
     private static int tempNumber = -1;
     private static Integer ifNumber = 0;
     private static Integer whileNumber = 0;
+    private static final Map<String, String> methodTemps = new LinkedHashMap<>();
+    private static final Set<String> statementTemps = new HashSet<>();
 
     public static String getTemp() {
 
         return getTemp("tmp");
     }
 
+    /**
+     * @param name
+     * @return true if the variable was created by {@link #getTemp()}
+     */
+    public static boolean isTemp(String name) {
+        return name.matches("tmp\\d+");
+    }
+
     public static String getIfNumber() {
         return String.valueOf(++ifNumber);
     }
@@ -29,6 +38,47 @@ public class OptUtils {
         return String.valueOf(++whileNumber);
     }
 
+    /**
+     * Restarts the numbers of the labels, which only need to be unique inside a method.
+     */
+    public static void resetLabelNumbers() {
+        ifNumber = 0;
+        whileNumber = 0;
+    }
+
+    /**
+     * Gets a temp for a value of the statement being generated. A temp of the same type that an earlier statement of
+     * the method used is reused, since every temp of a statement is read before the next statement starts.
+     *
+     * @param ollirType
+     * @return the name of the temp
+     */
+    public static String getStatementTemp(String ollirType) {
+        for (var temp : methodTemps.entrySet()) {
+            if (temp.getValue().equals(ollirType) && statementTemps.add(temp.getKey())) return temp.getKey();
+        }
+
+        String name = getTemp();
+        methodTemps.put(name, ollirType);
+        statementTemps.add(name);
+        return name;
+    }
+
+    /**
+     * Ends the statement being generated, its temps can be reused by the next one.
+     */
+    public static void endStatement() {
+        statementTemps.clear();
+    }
+
+    /**
+     * Forgets the temps of the previous method, a method only reuses its own.
+     */
+    public static void resetStatementTemps() {
+        methodTemps.clear();
+        statementTemps.clear();
+    }
+
     public static String getTemp(String prefix) {
 
         return prefix + getNextTempNum();
@@ -0,0 +1,103 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+import java.util.Arrays;
+
+/**
+ * Fixed size set of dense indexes, stored as the bits of a long array.
+ */
+public class REGBitSet {
+    private final long[] words;
+
+    public REGBitSet(int size) {
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    private REGBitSet(long[] words) {
+        this.words = words;
+    }
+
+    public REGBitSet copy() {
+        return new REGBitSet(words.clone());
+    }
+
+    public boolean get(int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public void set(int index) {
+        words[index >>> 6] |= 1L << index;
+    }
+
+    public void clear(int index) {
+        words[index >>> 6] &= ~(1L << index);
+    }
+
+    /**
+     * @param other a set of the same size
+     * @return true if a bit was added
+     */
+    public boolean or(REGBitSet other) {
+        boolean changed = false;
+        for (int i = 0; i < words.length; i++) {
+            long word = words[i] | other.words[i];
+            changed |= word != words[i];
+            words[i] = word;
+        }
+        return changed;
+    }
+
+    /**
+     * Removes every bit set in other.
+     *
+     * @param other a set of the same size
+     */
+    public void andNot(REGBitSet other) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] &= ~other.words[i];
+        }
+    }
+
+    /**
+     * Same as {@code andNot(kill)} followed by {@code or(gen)}, without the intermediate copy.
+     *
+     * @param kill
+     * @param gen
+     */
+    public void transfer(REGBitSet kill, REGBitSet gen) {
+        for (int i = 0; i < words.length; i++) {
+            words[i] = (words[i] & ~kill.words[i]) | gen.words[i];
+        }
+    }
+
+    /**
+     * @param from
+     * @return the first set index at or after from, or -1 if there is none
+     */
+    public int nextSetBit(int from) {
+        int wordIndex = from >>> 6;
+        if (wordIndex >= words.length) return -1;
+
+        long word = words[wordIndex] & (-1L << from);
+        while (true) {
+            if (word != 0) return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+            if (++wordIndex == words.length) return -1;
+            word = words[wordIndex];
+        }
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words) count += Long.bitCount(word);
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof REGBitSet bitSet && Arrays.equals(words, bitSet.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+}
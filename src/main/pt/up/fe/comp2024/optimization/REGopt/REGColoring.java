@@ -2,41 +2,329 @@ package pt.up.fe.comp2024.optimization.REGopt;
 
 import java.util.*;
 
+/**
+ * Chaitin-Briggs graph coloring with iterated (conservative) coalescing, following Appel's formulation:
+ * simplify, coalesce, freeze and spill until the graph is empty, then select the colors.
+ * <p>
+ * Nodes that don't fit in the available colors are not rewritten, they get the lowest colors above the available
+ * ones that their neighbours don't use, i.e. extra local slots. Precolored nodes keep their color and are never
+ * simplified or spilled, a move into one of them is coalesced with George's test.
+ */
 public class REGColoring {
-    public REGColoring() {
+    private final int numColors;
+
+    private final Map<String, Set<String>> adjacent = new HashMap<>();
+    private final Map<String, Integer> degree = new HashMap<>();
+    private final Map<String, Double> cost = new HashMap<>();
+    private final Map<String, Set<REGMove>> moveList = new HashMap<>();
+    private final Map<String, String> alias = new HashMap<>();
+    private final Map<String, Integer> colors = new HashMap<>();
+    private final Set<String> precolored = new HashSet<>();
+
+    private final Set<String> simplifyWorklist = new LinkedHashSet<>();
+    private final Set<String> freezeWorklist = new LinkedHashSet<>();
+    private final Set<String> spillWorklist = new LinkedHashSet<>();
+    private final Set<String> spilledNodes = new LinkedHashSet<>();
+    private final Set<String> coalescedNodes = new LinkedHashSet<>();
+    private final Deque<String> selectStack = new ArrayDeque<>();
+
+    private final Set<REGMove> worklistMoves = new LinkedHashSet<>();
+    private final Set<REGMove> activeMoves = new LinkedHashSet<>();
+    private int coalescedMoves = 0;
+
+    /**
+     * @param numColors the number of registers available
+     */
+    public REGColoring(int numColors) {
+        this.numColors = numColors;
+    }
+
+    /**
+     * @return the number of moves removed by giving both variables the same color
+     */
+    public int getCoalescedMoves() {
+        return coalescedMoves;
+    }
+
+    /**
+     * @return the number of variables that got a color above the available ones
+     */
+    public int getSpilled() {
+        return spilledNodes.size();
     }
 
     public void colorGraph(REGGraph graph) {
-        Stack<String> stack = new Stack<>();
-        int numColors = graph.size();
+        build(graph);
+        makeWorklist();
+
+        while (!simplifyWorklist.isEmpty() || !worklistMoves.isEmpty()
+                || !freezeWorklist.isEmpty() || !spillWorklist.isEmpty()) {
+            if (!simplifyWorklist.isEmpty()) simplify();
+            else if (!worklistMoves.isEmpty()) coalesce();
+            else if (!freezeWorklist.isEmpty()) freeze();
+            else selectSpill();
+        }
+
+        assignColors();
+
+        for (var entry : colors.entrySet()) {
+            graph.setNodeColor(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void build(REGGraph graph) {
+        for (String node : graph.getNodes()) {
+            if (graph.getNode(node).isPrecolored()) {
+                precolored.add(node);
+                colors.put(node, graph.getNode(node).getColor());
+            }
+            adjacent.put(node, new HashSet<>());
+            degree.put(node, precolored.contains(node) ? Integer.MAX_VALUE : 0);
+            cost.put(node, graph.getNode(node).getSpillCost());
+            moveList.put(node, new LinkedHashSet<>());
+        }
+
         for (String node : graph.getNodes()) {
-            if (graph.getEdges(node).size() < numColors)
-                stack.push(node);
+            for (REGNode neighbor : graph.getEdges(node)) {
+                addEdge(node, neighbor.getName());
+            }
+        }
+
+        for (REGMove move : graph.getMoves()) {
+            if (move.getDest().equals(move.getSrc())) continue;
+            moveList.get(move.getDest()).add(move);
+            moveList.get(move.getSrc()).add(move);
+            worklistMoves.add(move);
+        }
+    }
+
+    private void addEdge(String first, String second) {
+        if (first.equals(second) || adjacent.get(first).contains(second)) return;
+        if (precolored.contains(first) && precolored.contains(second)) return;
+        adjacent.get(first).add(second);
+        adjacent.get(second).add(first);
+        if (!precolored.contains(first)) degree.merge(first, 1, Integer::sum);
+        if (!precolored.contains(second)) degree.merge(second, 1, Integer::sum);
+    }
+
+    private void makeWorklist() {
+        for (String node : adjacent.keySet().stream().sorted().toList()) {
+            if (precolored.contains(node)) continue;
+            if (degree.get(node) >= numColors) spillWorklist.add(node);
+            else if (isMoveRelated(node)) freezeWorklist.add(node);
+            else simplifyWorklist.add(node);
+        }
+    }
+
+    private Set<String> getAdjacent(String node) {
+        if (precolored.contains(node)) return new LinkedHashSet<>(); // never needed, and they can be large
+        Set<String> result = new LinkedHashSet<>(adjacent.get(node));
+        result.removeAll(selectStack);
+        result.removeAll(coalescedNodes);
+        return result;
+    }
+
+    private Set<REGMove> getNodeMoves(String node) {
+        Set<REGMove> result = new LinkedHashSet<>();
+        for (REGMove move : moveList.get(node)) {
+            if (activeMoves.contains(move) || worklistMoves.contains(move)) result.add(move);
+        }
+        return result;
+    }
+
+    private boolean isMoveRelated(String node) {
+        return !getNodeMoves(node).isEmpty();
+    }
+
+    private void simplify() {
+        String node = simplifyWorklist.iterator().next();
+        simplifyWorklist.remove(node);
+        selectStack.push(node);
+        for (String neighbor : getAdjacent(node)) {
+            decrementDegree(neighbor);
+        }
+    }
+
+    private void decrementDegree(String node) {
+        if (precolored.contains(node)) return;
+        int oldDegree = degree.get(node);
+        degree.put(node, oldDegree - 1);
+        if (oldDegree != numColors) return;
+
+        // the node just became colorable, its moves (and the ones of its neighbours) may now coalesce
+        Set<String> nodes = getAdjacent(node);
+        nodes.add(node);
+        enableMoves(nodes);
+
+        spillWorklist.remove(node);
+        if (isMoveRelated(node)) freezeWorklist.add(node);
+        else simplifyWorklist.add(node);
+    }
+
+    private void enableMoves(Set<String> nodes) {
+        for (String node : nodes) {
+            for (REGMove move : getNodeMoves(node)) {
+                if (activeMoves.remove(move)) worklistMoves.add(move);
+            }
         }
+    }
 
-        while (!stack.isEmpty()) {
-            String node = stack.pop();
-            Set<REGNode> neighbors = graph.getEdges(node);
+    private void addWorklist(String node) {
+        if (!precolored.contains(node) && !isMoveRelated(node) && degree.get(node) < numColors) {
+            freezeWorklist.remove(node);
+            simplifyWorklist.add(node);
+        }
+    }
 
-            boolean[] usedColors = new boolean[numColors];
-            for (REGNode neighbor : neighbors) {
-                if (neighbor.getColor() != -1) usedColors[neighbor.getColor()] = true;
+    /**
+     * Briggs' test: the merged node has fewer than numColors neighbours of significant degree, so it can still
+     * be simplified.
+     */
+    private boolean isConservative(Set<String> nodes) {
+        int significant = 0;
+        for (String node : nodes) {
+            if (degree.get(node) >= numColors) significant++;
+        }
+        return significant < numColors;
+    }
+
+    /**
+     * George's test: every neighbour of the merged node already interferes with the precolored one, or is
+     * insignificant.
+     */
+    private boolean isSafeToMerge(String precoloredNode, String node) {
+        for (String neighbor : getAdjacent(node)) {
+            if (degree.get(neighbor) >= numColors && !precolored.contains(neighbor)
+                    && !adjacent.get(neighbor).contains(precoloredNode)) {
+                return false;
             }
+        }
+        return true;
+    }
+
+    private void coalesce() {
+        REGMove move = worklistMoves.iterator().next();
+        worklistMoves.remove(move);
+        String kept = getAlias(move.getDest());
+        String merged = getAlias(move.getSrc());
+        if (precolored.contains(merged)) {
+            // only the node that is not precolored can go away
+            merged = kept;
+            kept = getAlias(move.getSrc());
+        }
+
+        if (kept.equals(merged)) {
+            coalescedMoves++;
+            addWorklist(kept);
+        } else if (precolored.contains(merged) || adjacent.get(kept).contains(merged)) {
+            // constrained, both are live at the same time or both have a fixed color
+            addWorklist(kept);
+            addWorklist(merged);
+        } else {
+            Set<String> nodes = getAdjacent(kept);
+            nodes.addAll(getAdjacent(merged));
+            if (precolored.contains(kept) ? isSafeToMerge(kept, merged) : isConservative(nodes)) {
+                coalescedMoves++;
+                combine(kept, merged);
+                addWorklist(kept);
+            } else {
+                activeMoves.add(move);
+            }
+        }
+    }
+
+    private void combine(String kept, String merged) {
+        if (!freezeWorklist.remove(merged)) spillWorklist.remove(merged);
+        coalescedNodes.add(merged);
+        alias.put(merged, kept);
+        moveList.get(kept).addAll(moveList.get(merged));
+        cost.merge(kept, cost.get(merged), Double::sum);
+        enableMoves(Set.of(merged));
+
+        for (String neighbor : getAdjacent(merged)) {
+            addEdge(neighbor, kept);
+            decrementDegree(neighbor);
+        }
+
+        if (degree.get(kept) >= numColors && freezeWorklist.remove(kept)) {
+            spillWorklist.add(kept);
+        }
+    }
+
+    private String getAlias(String node) {
+        while (coalescedNodes.contains(node)) node = alias.get(node);
+        return node;
+    }
+
+    private void freeze() {
+        String node = freezeWorklist.iterator().next();
+        freezeWorklist.remove(node);
+        simplifyWorklist.add(node);
+        freezeMoves(node);
+    }
 
-            for (int i = 0; i < numColors; i++) {
-                if (!usedColors[i]) {
-                    graph.setNodeColor(node, i);
-                    break;
-                }
+    /**
+     * Gives up on coalescing the moves of a node, so that it can be simplified.
+     */
+    private void freezeMoves(String node) {
+        for (REGMove move : getNodeMoves(node)) {
+            String other = getAlias(move.getSrc()).equals(getAlias(node)) ? getAlias(move.getDest())
+                    : getAlias(move.getSrc());
+            activeMoves.remove(move);
+            worklistMoves.remove(move);
+
+            if (!isMoveRelated(other) && degree.get(other) < numColors && freezeWorklist.remove(other)) {
+                simplifyWorklist.add(other);
             }
+        }
+    }
 
-            var copy = new HashSet<>(neighbors);
-            for (REGNode neighbor : copy) {
-                neighbors.remove(neighbor);
-                if (neighbors.size()<numColors) {
-                    stack.push(neighbor.getName());
-                }
+    /**
+     * Picks the node that is cheapest to spill for the number of interferences it removes.
+     */
+    private void selectSpill() {
+        String best = null;
+        double bestRatio = Double.MAX_VALUE;
+        for (String node : spillWorklist) {
+            double ratio = cost.get(node) / Math.max(1, degree.get(node));
+            if (ratio < bestRatio) {
+                best = node;
+                bestRatio = ratio;
             }
         }
+
+        spillWorklist.remove(best);
+        simplifyWorklist.add(best);
+        freezeMoves(best);
+    }
+
+    private void assignColors() {
+        while (!selectStack.isEmpty()) {
+            String node = selectStack.pop();
+            int color = getFreeColor(node);
+            if (color < numColors) colors.put(node, color);
+            else spilledNodes.add(node);
+        }
+
+        // the spilled nodes go to extra slots, shared between the ones that don't interfere
+        for (String node : spilledNodes) {
+            colors.put(node, getFreeColor(node));
+        }
+
+        for (String node : coalescedNodes) {
+            colors.put(node, colors.get(getAlias(node)));
+        }
+    }
+
+    private int getFreeColor(String node) {
+        Set<Integer> used = new HashSet<>();
+        for (String neighbor : adjacent.get(node)) {
+            Integer color = colors.get(getAlias(neighbor));
+            if (color != null) used.add(color);
+        }
+
+        int color = 0;
+        while (used.contains(color)) color++;
+        return color;
     }
 }
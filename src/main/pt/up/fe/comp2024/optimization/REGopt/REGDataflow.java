@@ -0,0 +1,245 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+import org.specs.comp.ollir.Instruction;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRBlock;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRControlFlow;
+
+import java.util.*;
+
+/**
+ * Iterative solver for gen/kill dataflow problems over the variables of a method, where facts are merged with union.
+ * <p>
+ * The variables are numbered densely and every set is a {@link REGBitSet}. The transfer function of each basic block
+ * is computed once, and the blocks are taken from a worklist in reverse postorder (postorder for backward problems),
+ * so that most blocks see all of their inputs before they are visited.
+ */
+public abstract class REGDataflow {
+    private final OLLIRControlFlow controlFlow;
+    private final boolean forward;
+
+    private final List<String> variables = new ArrayList<>();
+    private final Map<String, Integer> numbers = new HashMap<>();
+
+    private final Map<Instruction, REGBitSet> instGen = new HashMap<>();
+    private final Map<Instruction, REGBitSet> instKill = new HashMap<>();
+    private final Map<Instruction, REGBitSet> before = new HashMap<>();
+    private final Map<Instruction, REGBitSet> after = new HashMap<>();
+
+    private REGBitSet[] input;
+    private REGBitSet[] output;
+    private int visits = 0;
+
+    /**
+     * @param controlFlow
+     * @param forward     true if facts flow from the start of the method to the end, false for the opposite
+     */
+    protected REGDataflow(OLLIRControlFlow controlFlow, boolean forward) {
+        this.controlFlow = controlFlow;
+        this.forward = forward;
+    }
+
+    /**
+     * @param instruction
+     * @return the variables the instruction adds to the facts, called once per instruction
+     */
+    protected abstract Collection<String> gen(Instruction instruction);
+
+    /**
+     * @param instruction
+     * @return the variables the instruction removes from the facts, called once per instruction
+     */
+    protected abstract Collection<String> kill(Instruction instruction);
+
+    /**
+     * Computes the facts at the start and end of every block, including the unreachable ones.
+     */
+    public void solve() {
+        var blocks = controlFlow.getBlocks();
+        Map<Instruction, Collection<String>> genNames = new HashMap<>();
+        Map<Instruction, Collection<String>> killNames = new HashMap<>();
+        for (var block : blocks) {
+            for (var instruction : block.getInstructions()) {
+                genNames.put(instruction, gen(instruction));
+                killNames.put(instruction, kill(instruction));
+                genNames.get(instruction).forEach(this::number);
+                killNames.get(instruction).forEach(this::number);
+            }
+        }
+
+        for (var instruction : genNames.keySet()) {
+            instGen.put(instruction, toBitSet(genNames.get(instruction)));
+            instKill.put(instruction, toBitSet(killNames.get(instruction)));
+        }
+
+        // the transfer function of a block, composed from the ones of its instructions
+        REGBitSet[] blockGen = new REGBitSet[blocks.size()];
+        REGBitSet[] blockKill = new REGBitSet[blocks.size()];
+        for (var block : blocks) {
+            var gen = newSet();
+            var kill = newSet();
+            for (var instruction : inFlowOrder(block.getInstructions())) {
+                gen.transfer(instKill.get(instruction), instGen.get(instruction));
+                kill.or(instKill.get(instruction));
+            }
+            blockGen[block.getIndex()] = gen;
+            blockKill[block.getIndex()] = kill;
+        }
+
+        List<OLLIRBlock> order = new ArrayList<>(controlFlow.getReversePostorder());
+        for (var block : blocks) {
+            if (!block.isReachable()) order.add(block);
+        }
+        if (!forward) Collections.reverse(order);
+
+        int[] rank = new int[blocks.size()];
+        for (int i = 0; i < order.size(); i++) rank[order.get(i).getIndex()] = i;
+
+        input = new REGBitSet[blocks.size()];
+        output = new REGBitSet[blocks.size()];
+        for (var block : blocks) {
+            input[block.getIndex()] = newSet();
+            output[block.getIndex()] = newSet();
+        }
+
+        PriorityQueue<Integer> worklist = new PriorityQueue<>();
+        boolean[] queued = new boolean[blocks.size()];
+        for (int i = 0; i < order.size(); i++) {
+            worklist.add(i);
+            queued[order.get(i).getIndex()] = true;
+        }
+
+        while (!worklist.isEmpty()) {
+            var block = order.get(worklist.poll());
+            int index = block.getIndex();
+            queued[index] = false;
+            visits++;
+
+            var in = input[index];
+            for (var source : sources(block)) in.or(output[source.getIndex()]);
+
+            var out = in.copy();
+            out.transfer(blockKill[index], blockGen[index]);
+            if (out.equals(output[index])) continue;
+
+            output[index] = out;
+            for (var target : targets(block)) {
+                if (!queued[target.getIndex()]) {
+                    queued[target.getIndex()] = true;
+                    worklist.add(rank[target.getIndex()]);
+                }
+            }
+        }
+    }
+
+    private List<OLLIRBlock> sources(OLLIRBlock block) {
+        return forward ? block.getPredecessors() : block.getSuccessors();
+    }
+
+    private List<OLLIRBlock> targets(OLLIRBlock block) {
+        return forward ? block.getSuccessors() : block.getPredecessors();
+    }
+
+    private List<Instruction> inFlowOrder(List<Instruction> instructions) {
+        if (forward) return instructions;
+
+        List<Instruction> reversed = new ArrayList<>(instructions);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+
+    private int number(String variable) {
+        return numbers.computeIfAbsent(variable, key -> {
+            variables.add(key);
+            return variables.size() - 1;
+        });
+    }
+
+    private REGBitSet newSet() {
+        return new REGBitSet(variables.size());
+    }
+
+    private REGBitSet toBitSet(Collection<String> names) {
+        var set = newSet();
+        for (var name : names) set.set(numbers.get(name));
+        return set;
+    }
+
+    /**
+     * @param set
+     * @return the names of the variables in the set
+     */
+    public Set<String> toNames(REGBitSet set) {
+        Set<String> result = new HashSet<>();
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            result.add(variables.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param variable
+     * @return the index of the variable in the sets, or -1 if no instruction mentions it
+     */
+    public int getNumber(String variable) {
+        return numbers.getOrDefault(variable, -1);
+    }
+
+    public String getVariable(int number) {
+        return variables.get(number);
+    }
+
+    /**
+     * @return the number of variables, which is the size of every set
+     */
+    public int getSize() {
+        return variables.size();
+    }
+
+    /**
+     * @return how many times a block was taken from the worklist
+     */
+    public int getVisits() {
+        return visits;
+    }
+
+    public OLLIRControlFlow getControlFlow() {
+        return controlFlow;
+    }
+
+    public REGBitSet getIn(OLLIRBlock block) {
+        return forward ? input[block.getIndex()] : output[block.getIndex()];
+    }
+
+    public REGBitSet getOut(OLLIRBlock block) {
+        return forward ? output[block.getIndex()] : input[block.getIndex()];
+    }
+
+    /**
+     * @param instruction
+     * @return the facts right before the instruction runs
+     */
+    public REGBitSet getBefore(Instruction instruction) {
+        if (before.isEmpty()) computeInstructionFacts();
+        return before.get(instruction);
+    }
+
+    /**
+     * @param instruction
+     * @return the facts right after the instruction runs
+     */
+    public REGBitSet getAfter(Instruction instruction) {
+        if (after.isEmpty()) computeInstructionFacts();
+        return after.get(instruction);
+    }
+
+    private void computeInstructionFacts() {
+        for (var block : controlFlow.getBlocks()) {
+            var current = input[block.getIndex()].copy();
+            for (var instruction : inFlowOrder(block.getInstructions())) {
+                (forward ? before : after).put(instruction, current.copy());
+                current.transfer(instKill.get(instruction), instGen.get(instruction));
+                (forward ? after : before).put(instruction, current.copy());
+            }
+        }
+    }
+}
@@ -1,13 +1,15 @@
 package pt.up.fe.comp2024.optimization.REGopt;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class REGGraph {
 
     private final Map<String, REGNode> graph = new HashMap<>();
-    private final Map<Integer, String> colors = new HashMap<>();
+    private final List<REGMove> moves = new ArrayList<>();
 
     public REGGraph() {
 
@@ -34,9 +36,28 @@ public class REGGraph {
         secondNode.addEdge(firstNode);
     }
 
+    public void addPrecoloredNode(String name, int color) {
+        addNode(name);
+        graph.get(name).setColor(color);
+        graph.get(name).setPrecolored(true);
+    }
+
+    public void addMove(String dest, String src) {
+        addNode(dest);
+        addNode(src);
+        moves.add(new REGMove(dest, src));
+    }
+
+    public List<REGMove> getMoves() {
+        return moves;
+    }
+
+    public boolean interfere(String first, String second) {
+        return graph.get(first).getEdges().contains(graph.get(second));
+    }
+
     public void setNodeColor(String name, int color) {
         graph.get(name).setColor(color);
-        colors.put(color,name);
     }
 
     public int size() {
@@ -55,8 +76,15 @@ public class REGGraph {
         return graph.get(name);
     }
 
+    /**
+     * @return the number of registers needed for the colors given, i.e. the highest color plus one
+     */
     public int colorsUsed() {
-        return colors.size(); // could be that maybe there are color entries that are empty, which screws this up
+        int max = -1;
+        for (REGNode node : graph.values()) {
+            max = Math.max(max, node.getColor());
+        }
+        return max + 1;
     }
 
 
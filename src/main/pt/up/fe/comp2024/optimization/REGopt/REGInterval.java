@@ -0,0 +1,85 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The instructions where a variable holds a value, as sorted ranges of positions with holes between them.
+ * Both ends of a range are included, so a variable defined by the last use of another one overlaps with it.
+ */
+public class REGInterval {
+    private final String name;
+    private final List<int[]> ranges = new ArrayList<>();
+    private int register = -1;
+
+    public REGInterval(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getRegister() {
+        return register;
+    }
+
+    public void setRegister(int register) {
+        this.register = register;
+    }
+
+    /**
+     * Adds a position after every position already added, extending the last range when they are contiguous.
+     *
+     * @param position
+     */
+    public void addPosition(int position) {
+        if (!ranges.isEmpty() && ranges.get(ranges.size() - 1)[1] == position - 1) {
+            ranges.get(ranges.size() - 1)[1] = position;
+        } else {
+            ranges.add(new int[]{position, position});
+        }
+    }
+
+    public int getStart() {
+        return ranges.get(0)[0];
+    }
+
+    public int getEnd() {
+        return ranges.get(ranges.size() - 1)[1];
+    }
+
+    public boolean covers(int position) {
+        for (int[] range : ranges) {
+            if (position < range[0]) return false;
+            if (position <= range[1]) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param other
+     * @return the first position covered by both intervals, or -1 if they don't overlap
+     */
+    public int nextIntersection(REGInterval other) {
+        int i = 0;
+        int j = 0;
+        while (i < ranges.size() && j < other.ranges.size()) {
+            int[] first = ranges.get(i);
+            int[] second = other.ranges.get(j);
+            int start = Math.max(first[0], second[0]);
+            if (start <= Math.min(first[1], second[1])) return start;
+
+            if (first[1] < second[1]) i++;
+            else j++;
+        }
+        return -1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name).append(":");
+        for (int[] range : ranges) builder.append(" [").append(range[0]).append(", ").append(range[1]).append("]");
+        return builder.toString();
+    }
+}
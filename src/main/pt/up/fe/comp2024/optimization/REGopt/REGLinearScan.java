@@ -0,0 +1,149 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+import org.specs.comp.ollir.Descriptor;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRControlFlow;
+
+import java.util.*;
+
+/**
+ * Linear scan register allocation with lifetime holes, in the style of Wimmer and Mossenbock, but without splitting:
+ * registers are never short, a variable that fits in none of the used ones gets a new register.
+ * <p>
+ * The intervals follow the instruction order of the method and come from the live variables, so this is much cheaper
+ * than coloring the interference graph, at the cost of not coalescing copies.
+ */
+public class REGLinearScan {
+    private int intervals = 0;
+
+    /**
+     * @return the number of intervals allocated so far
+     */
+    public int getIntervals() {
+        return intervals;
+    }
+
+    private List<REGInterval> buildIntervals(Method method) {
+        REGLiveVariables liveVariables = new REGLiveVariables(new OLLIRControlFlow(method));
+        liveVariables.solve();
+
+        REGInterval[] byNumber = new REGInterval[liveVariables.getSize()];
+        List<REGInterval> result = new ArrayList<>();
+        List<Instruction> instructions = method.getInstructions();
+        for (int position = 0; position < instructions.size(); position++) {
+            Instruction instruction = instructions.get(position);
+
+            // a variable holds a value where it is live, and where it is written even if the value is never read
+            REGBitSet occupied = liveVariables.getBefore(instruction).copy();
+            for (String def : liveVariables.getDefines(instruction)) occupied.set(liveVariables.getNumber(def));
+
+            for (int i = occupied.nextSetBit(0); i >= 0; i = occupied.nextSetBit(i + 1)) {
+                if (byNumber[i] == null) {
+                    String name = liveVariables.getVariable(i);
+                    var descriptor = method.getVarTable().get(name);
+                    if (descriptor == null || REGRegisterAllocator.isClassName(descriptor)) continue;
+                    byNumber[i] = new REGInterval(name);
+                    result.add(byNumber[i]);
+                }
+                byNumber[i].addPosition(position);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @param sorted       intervals sorted by start
+     * @param fixed        intervals that already have a register, the ones of "this" and the parameters
+     * @param numRegisters the registers that exist before any is assigned
+     * @return the number of registers used
+     */
+    private int assignRegisters(List<REGInterval> sorted, List<REGInterval> fixed, int numRegisters) {
+        List<REGInterval> active = new ArrayList<>();
+        List<REGInterval> inactive = new ArrayList<>();
+
+        for (REGInterval current : sorted) {
+            int position = current.getStart();
+
+            List<REGInterval> moved = new ArrayList<>();
+            active.removeIf(interval -> {
+                if (interval.getEnd() < position) return true;
+                if (!interval.covers(position)) moved.add(interval);
+                return !interval.covers(position);
+            });
+            inactive.removeIf(interval -> {
+                if (interval.getEnd() < position) return true;
+                if (interval.covers(position)) active.add(interval);
+                return interval.covers(position);
+            });
+            inactive.addAll(moved);
+
+            // a register is free if no interval still using it overlaps with the current one
+            boolean[] blocked = new boolean[numRegisters];
+            for (REGInterval interval : active) blocked[interval.getRegister()] = true;
+            for (REGInterval interval : inactive) {
+                if (!blocked[interval.getRegister()] && interval.nextIntersection(current) >= 0) {
+                    blocked[interval.getRegister()] = true;
+                }
+            }
+            for (REGInterval interval : fixed) {
+                if (interval.nextIntersection(current) >= 0) blocked[interval.getRegister()] = true;
+            }
+
+            int register = 0;
+            while (register < numRegisters && blocked[register]) register++;
+            if (register == numRegisters) numRegisters++;
+
+            current.setRegister(register);
+            active.add(current);
+        }
+
+        return numRegisters;
+    }
+
+    public OllirResult allocateRegisters(OllirResult ollirResult, int maxRegisters) {
+        for (Method method : ollirResult.getOllirClass().getMethods()) {
+            int reserved = REGRegisterAllocator.getReservedRegisters(method);
+            Map<String, Integer> precolored = REGRegisterAllocator.getPrecolored(method);
+
+            List<REGInterval> methodIntervals = buildIntervals(method);
+            List<REGInterval> fixed = new ArrayList<>();
+            for (REGInterval interval : methodIntervals) {
+                if (precolored.containsKey(interval.getName())) {
+                    interval.setRegister(precolored.get(interval.getName()));
+                    fixed.add(interval);
+                }
+            }
+            methodIntervals.removeAll(fixed);
+            methodIntervals.sort(Comparator.comparingInt(REGInterval::getStart));
+            int registers = assignRegisters(methodIntervals, fixed, reserved);
+            intervals += methodIntervals.size();
+
+            Map<String, Descriptor> vars = method.getVarTable();
+            for (var entry : vars.entrySet()) {
+                // variables that no instruction mentions never hold a value, any register works
+                if (!precolored.containsKey(entry.getKey()) && !REGRegisterAllocator.isClassName(entry.getValue())) {
+                    entry.getValue().setVirtualReg(0);
+                }
+            }
+            precolored.forEach((name, register) -> vars.get(name).setVirtualReg(register));
+            for (REGInterval interval : methodIntervals) {
+                vars.get(interval.getName()).setVirtualReg(interval.getRegister());
+            }
+
+            if (maxRegisters > 0 && registers > maxRegisters) {
+                ollirResult.getReports().add(Report.newWarn(Stage.OPTIMIZATION, -1, -1,
+                        String.format("Linear scan in %s: %d registers used, %d available",
+                                method.getMethodName(), registers, maxRegisters), null));
+            }
+            ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                    String.format("Linear scan in %s: %d registers, %d intervals",
+                            method.getMethodName(), registers, methodIntervals.size()), null));
+        }
+        return ollirResult;
+    }
+}
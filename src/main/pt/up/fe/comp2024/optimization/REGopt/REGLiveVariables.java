@@ -0,0 +1,48 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+import org.specs.comp.ollir.Instruction;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRControlFlow;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRInstUtils;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRUse;
+
+import java.util.*;
+
+/**
+ * Liveness as a backward dataflow problem: an instruction kills the variable it defines and generates the ones it
+ * reads.
+ */
+public class REGLiveVariables extends REGDataflow {
+    private final Map<Instruction, Set<String>> defines = new HashMap<>();
+    private final Map<Instruction, Set<String>> uses = new HashMap<>();
+
+    public REGLiveVariables(OLLIRControlFlow controlFlow) {
+        super(controlFlow, false);
+    }
+
+    @Override
+    protected Collection<String> gen(Instruction instruction) {
+        Set<String> result = new HashSet<>();
+        for (OLLIRUse use : OLLIRInstUtils.getUses(instruction)) {
+            if (use.getName() != null) result.add(use.getName()); // also covers branch conditions and array indexes
+        }
+        uses.put(instruction, result);
+        return result;
+    }
+
+    @Override
+    protected Collection<String> kill(Instruction instruction) {
+        Set<String> result = new HashSet<>();
+        var def = OLLIRInstUtils.getDef(instruction);
+        if (def != null) result.add(def.getName());
+        defines.put(instruction, result);
+        return result;
+    }
+
+    public Set<String> getDefines(Instruction instruction) {
+        return defines.get(instruction);
+    }
+
+    public Set<String> getUses(Instruction instruction) {
+        return uses.get(instruction);
+    }
+}
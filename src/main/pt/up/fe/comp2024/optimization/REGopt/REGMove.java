@@ -0,0 +1,22 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+/**
+ * A copy 'dest := src' between two variables, which can be removed by giving both the same register.
+ */
+public class REGMove {
+    private final String dest;
+    private final String src;
+
+    public REGMove(String dest, String src) {
+        this.dest = dest;
+        this.src = src;
+    }
+
+    public String getDest() {
+        return dest;
+    }
+
+    public String getSrc() {
+        return src;
+    }
+}
@@ -7,6 +7,8 @@ public class REGNode {
     private final String name;
     private Set<REGNode> edges = new HashSet<>();
     private int color;
+    private double spillCost = 0;
+    private boolean precolored = false;
 
     public REGNode(String name) {
         this.name = name;
@@ -25,6 +27,28 @@ public class REGNode {
         this.color = color;
     }
 
+    /**
+     * @return true if the node already has a register that can't change, like the parameters
+     */
+    public boolean isPrecolored() {
+        return precolored;
+    }
+
+    public void setPrecolored(boolean precolored) {
+        this.precolored = precolored;
+    }
+
+    /**
+     * @return the uses and definitions of the variable, weighted by the depth of the loops they are in
+     */
+    public double getSpillCost() {
+        return spillCost;
+    }
+
+    public void addSpillCost(double cost) {
+        spillCost += cost;
+    }
+
     public void addEdge(REGNode node) {
         edges.add(node);
     }
@@ -1,62 +1,170 @@
 package pt.up.fe.comp2024.optimization.REGopt;
 
-import org.specs.comp.ollir.Descriptor;
-import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.*;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
-import pt.up.fe.comp2024.utils.ReportUtils;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRControlFlow;
 
 import java.util.*;
 
+/**
+ * Assigns the local variables of each method to JVM registers by coloring their interference graph.
+ * <p>
+ * "this" and the parameters are precolored with the registers given by the calling convention, the other variables
+ * can share them once they are dead. With a limit of 0 the smallest number of registers that needs no spills is
+ * searched, otherwise the variables that don't fit are spilled to extra registers past the limit.
+ */
 public class REGRegisterAllocator {
 
-    private REGGraph buildInterferenceGraph(List<REGInstInfo> insts) {
-        REGGraph graph = new REGGraph(); // i'm not 100% sure of this
+    private REGGraph buildInterferenceGraph(Method method, List<REGInstInfo> insts) {
+        REGGraph graph = new REGGraph();
+
+        Map<String, Integer> precolored = getPrecolored(method);
+        for (var entry : method.getVarTable().entrySet()) {
+            if (isClassName(entry.getValue())) continue;
+
+            if (precolored.containsKey(entry.getKey())) graph.addPrecoloredNode(entry.getKey(), precolored.get(entry.getKey()));
+            else graph.addNode(entry.getKey());
+        }
+
+        // the parameters are defined when the method starts, so they interfere with anything live at that point
+        if (!insts.isEmpty()) {
+            for (String param : precolored.keySet()) {
+                for (String live : insts.get(0).getIns()) {
+                    if (!live.equals(param) && graph.getNode(live) != null) graph.addEdge(param, live);
+                }
+            }
+        }
+
+        OLLIRControlFlow controlFlow = new OLLIRControlFlow(method);
+        var depths = controlFlow.getLoopDepths();
 
         for (REGInstInfo inst : insts) {
-            Set<String> liveOutSet = inst.getOuts();
-            for (String var1 : liveOutSet) {
-                graph.addNode(var1);
-                for (String var2 : liveOutSet) {
-                    if (!var1.equals(var2)) {
-                        graph.addEdge(var1, var2);
+            String moveSrc = getMoveSource(inst.getInstruction());
+            var block = controlFlow.getBlock(inst.getInstruction());
+            double weight = Math.pow(10, block == null ? 0 : depths.getOrDefault(block, 0));
+
+            for (String def : inst.getDefines()) {
+                graph.addNode(def);
+                graph.getNode(def).addSpillCost(weight);
+
+                // a definition interferes with everything live after it, except the variable it copies
+                for (String live : inst.getOuts()) {
+                    if (!live.equals(def) && !live.equals(moveSrc) && graph.getNode(live) != null) {
+                        graph.addEdge(def, live);
                     }
                 }
+
+                if (moveSrc != null && graph.getNode(moveSrc) != null) graph.addMove(def, moveSrc);
+            }
+
+            for (String use : inst.getUses()) {
+                if (graph.getNode(use) != null) graph.getNode(use).addSpillCost(weight);
             }
         }
 
         return graph;
     }
 
+    /**
+     * "this" is register 0 of every instance method. Its entry in the table only has the type THIS when it is used
+     * as a call target or to reach a field, a method that copies it to a local has an entry of the class type.
+     *
+     * @param method
+     * @return the registers of "this" and the parameters, which are fixed by the calling convention
+     */
+    static Map<String, Integer> getPrecolored(Method method) {
+        Map<String, Integer> precolored = new HashMap<>();
+        for (var entry : method.getVarTable().entrySet()) {
+            if (entry.getValue().getScope() == VarScope.PARAMETER) {
+                precolored.put(entry.getKey(), entry.getValue().getVirtualReg());
+            } else if (!method.isStaticMethod() && (entry.getKey().equals("this")
+                    || entry.getValue().getVarType().getTypeOfElement() == ElementType.THIS)) {
+                precolored.put(entry.getKey(), 0);
+            }
+        }
+        return precolored;
+    }
+
+    /**
+     * @param descriptor
+     * @return true for the class names used by static calls, which are in the table but never get a register
+     */
+    static boolean isClassName(Descriptor descriptor) {
+        return descriptor.getVarType().getTypeOfElement() == ElementType.CLASS;
+    }
+
+    /**
+     * @param method
+     * @return the registers every call of the method starts with, for "this" and the parameters
+     */
+    static int getReservedRegisters(Method method) {
+        return (method.isStaticMethod() ? 0 : 1) + method.getParams().size();
+    }
+
+    /**
+     * @param instruction
+     * @return the variable copied by 'a := b', or null if the instruction is not a copy between two variables
+     */
+    private String getMoveSource(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign && !(assign.getDest() instanceof ArrayOperand)
+                && assign.getRhs() instanceof SingleOpInstruction singleOp
+                && singleOp.getSingleOperand() instanceof Operand operand
+                && !(operand instanceof ArrayOperand) && !operand.isLiteral()) {
+            return operand.getName();
+        }
+        return null;
+    }
 
     public OllirResult allocateRegisters(OllirResult ollirResult, int maxRegisters) {
         List<Method> methods = ollirResult.getOllirClass().getMethods();
         for (Method method : methods) {
-            var additional = 1; // this guarantees that the 1st register is stored for the "this" keyword
-            if (method.isStaticMethod()) additional = 0; // if its static, no need to store this
-            additional += method.getParams().size(); // stores the parameters in the first registers
+            int reserved = getReservedRegisters(method);
             REGLiveness liveness = new REGLiveness();
             List<REGInstInfo> insts = liveness.livenessAnalysis(method);
-            REGGraph graph = buildInterferenceGraph(insts);
-            REGColoring coloring = new REGColoring();
-            coloring.colorGraph(graph);
-
-            if (maxRegisters!=0 && graph.colorsUsed() > maxRegisters) {
-                ollirResult.getReports().add(Report.newError(Stage.OPTIMIZATION, -1, -1, "Register allocation failed: " + graph.colorsUsed() + " registers used, " + maxRegisters + " available", null));
-                return ollirResult;
-            }
-            else {
-                Map<String, Descriptor> vars = method.getVarTable();
-                for (String var : graph.getNodes()) {
-                    Descriptor desc = vars.get(var);
-                    if (desc != null) {
-                        desc.setVirtualReg(graph.getNode(var).getColor()+additional);
+            REGGraph graph = buildInterferenceGraph(method, insts);
+
+            if (maxRegisters != 0 && maxRegisters < reserved) {
+                ollirResult.getReports().add(Report.newWarn(Stage.OPTIMIZATION, -1, -1,
+                        String.format("Method %s needs at least %d registers for this and its parameters, %d available",
+                                method.getMethodName(), reserved, maxRegisters), null));
+            }
+
+            REGColoring coloring;
+            if (maxRegisters == 0) {
+                // the fewest colors that need no spills, at most one per variable
+                int numColors = reserved;
+                do {
+                    for (String node : graph.getNodes()) {
+                        if (!graph.getNode(node).isPrecolored()) graph.setNodeColor(node, -1);
                     }
-                }
+                    coloring = new REGColoring(numColors++);
+                    coloring.colorGraph(graph);
+                } while (coloring.getSpilled() > 0);
+            } else {
+                coloring = new REGColoring(maxRegisters);
+                coloring.colorGraph(graph);
+            }
+
+            Map<String, Descriptor> vars = method.getVarTable();
+            for (String var : graph.getNodes()) {
+                Descriptor desc = vars.get(var);
+                if (desc != null) desc.setVirtualReg(graph.getNode(var).getColor());
+            }
+
+            int registers = Math.max(reserved, graph.colorsUsed());
+            if (coloring.getSpilled() > 0) {
+                ollirResult.getReports().add(Report.newWarn(Stage.OPTIMIZATION, -1, -1,
+                        String.format("Register allocation in %s: %d variables spilled, %d registers used, %d available",
+                                method.getMethodName(), coloring.getSpilled(), registers, maxRegisters), null));
             }
+            ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                    String.format("Register allocation in %s: %d registers, %d moves coalesced, %d spills",
+                            method.getMethodName(), registers, coloring.getCoalescedMoves(),
+                            coloring.getSpilled()), null));
         }
         return ollirResult;
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,101 @@
+package pt.up.fe.comp2024.optimization.REGopt;
+
+import org.specs.comp.ollir.Descriptor;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRControlFlow;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRInstUtils;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRUse;
+
+import java.util.*;
+
+/**
+ * Renumbers the registers chosen by an allocator so that the most used ones come first, right after "this" and the
+ * parameters. Registers 0 to 3 have one byte load and store instructions (iload_1, astore_3, ...), so the hottest
+ * variables should be there.
+ * <p>
+ * A register is ranked by the uses and definitions of its variables, each weighted by 10^loop depth. The registers
+ * of "this" and the parameters can't move, and neither do the variables that share them.
+ */
+public class REGSlotOrdering {
+    private static final int SHORT_FORM_REGISTERS = 4;
+
+    private int shortBefore = 0;
+    private int shortAfter = 0;
+
+    public OllirResult reorder(OllirResult ollirResult) {
+        for (Method method : ollirResult.getOllirClass().getMethods()) {
+            reorder(method);
+        }
+
+        ollirResult.getReports().add(Report.newLog(Stage.OPTIMIZATION, -1, -1,
+                String.format("Slot ordering: %d loads and stores in registers 0-3 before, %d after (about %d bytes saved)",
+                        shortBefore, shortAfter, shortAfter - shortBefore), null));
+        return ollirResult;
+    }
+
+    private void reorder(Method method) {
+        int reserved = REGRegisterAllocator.getReservedRegisters(method);
+        Map<String, Double> weights = new HashMap<>();
+        Map<String, Integer> accesses = new HashMap<>();
+        countAccesses(method, weights, accesses);
+
+        Map<Integer, Double> registerWeights = new HashMap<>();
+        for (var entry : method.getVarTable().entrySet()) {
+            Descriptor descriptor = entry.getValue();
+            if (REGRegisterAllocator.isClassName(descriptor) || descriptor.getVirtualReg() < reserved) continue;
+            registerWeights.merge(descriptor.getVirtualReg(), weights.getOrDefault(entry.getKey(), 0.0), Double::sum);
+        }
+
+        List<Integer> order = new ArrayList<>(registerWeights.keySet());
+        order.sort(Comparator.comparingDouble((Integer register) -> -registerWeights.get(register))
+                .thenComparingInt(register -> register));
+
+        Map<Integer, Integer> newRegisters = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            newRegisters.put(order.get(i), reserved + i);
+        }
+
+        for (var entry : method.getVarTable().entrySet()) {
+            Descriptor descriptor = entry.getValue();
+            if (REGRegisterAllocator.isClassName(descriptor)) continue;
+
+            int count = accesses.getOrDefault(entry.getKey(), 0);
+            if (descriptor.getVirtualReg() < SHORT_FORM_REGISTERS) shortBefore += count;
+
+            var newRegister = newRegisters.get(descriptor.getVirtualReg());
+            if (newRegister != null) descriptor.setVirtualReg(newRegister);
+
+            if (descriptor.getVirtualReg() < SHORT_FORM_REGISTERS) shortAfter += count;
+        }
+    }
+
+    /**
+     * @param method
+     * @param weights  filled with the uses and definitions of each variable, weighted by the loops they are in
+     * @param accesses filled with the uses and definitions of each variable
+     */
+    private void countAccesses(Method method, Map<String, Double> weights, Map<String, Integer> accesses) {
+        OLLIRControlFlow controlFlow = new OLLIRControlFlow(method);
+        var depths = controlFlow.getLoopDepths();
+
+        for (var instruction : method.getInstructions()) {
+            var block = controlFlow.getBlock(instruction);
+            double weight = Math.pow(10, block == null ? 0 : depths.getOrDefault(block, 0));
+
+            List<String> names = new ArrayList<>();
+            var def = OLLIRInstUtils.getDef(instruction);
+            if (def != null) names.add(def.getName());
+            for (OLLIRUse use : OLLIRInstUtils.getUses(instruction)) {
+                if (use.getName() != null) names.add(use.getName());
+            }
+
+            for (String name : names) {
+                weights.merge(name, weight, Double::sum);
+                accesses.merge(name, 1, Integer::sum);
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Test;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminInstruction;
+import pt.up.fe.comp2024.backend.JasminPeephole;
+import pt.up.fe.comp2024.backend.JasminStackAnalysis;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the code chosen by the Jasmin backend for the OLLIR files in cp2/jasmin. The classes are also run, so they
+ * must pass the verifier. The peephole rules and the stack depth are checked on short pieces of Jasmin code.
+ * <p>
+ * From class file version 50 on the methods carry StackMapTable frames, and from version 51 on the JVM no longer falls
+ * back to the old verifier when they are wrong, so programs are also run at versions 52 and 61.
+ */
+public class JasminOptimizationTest {
+
+    private static JasminResult backend(String resource) {
+        return backend(resource, Collections.emptyMap());
+    }
+
+    private static JasminResult backend(String resource, Map<String, String> config) {
+        var ollirResult = new OllirResult(SpecsIo.getResource("pt/up/fe/comp/cp2/jasmin/" + resource), config);
+        return TestUtils.backend(ollirResult);
+    }
+
+    private static void assertOutput(JasminResult jasminResult, String expected) {
+        assertEquals(expected, TestUtils.runJasmin(jasminResult.getJasminCode(), Collections.emptyMap()).strip());
+    }
+
+    private static void assertNotMatches(String jasminCode, String regex) {
+        assertFalse("Expected code not to match /" + regex + "/ in the following code:\n\n" + jasminCode,
+                jasminCode.matches("(?s).*" + regex + ".*"));
+    }
+
+    /**
+     * Applies a single peephole rule until it no longer changes the code.
+     *
+     * @return the optimized code, one instruction per line
+     */
+    private static String peephole(String rule, String... lines) {
+        var rules = JasminPeephole.getDefaultRules();
+        rules.removeIf(other -> !other.getName().equals(rule));
+        assertEquals(1, rules.size());
+
+        var code = new ArrayList<JasminInstruction>();
+        Arrays.stream(lines).map(JasminInstruction::parse).forEach(code::add);
+        var peephole = new JasminPeephole(rules, 100);
+        peephole.optimize(code);
+
+        return code.stream().map(Object::toString).collect(Collectors.joining("\n"));
+    }
+
+    private static List<JasminInstruction> parse(String... lines) {
+        return Arrays.stream(lines).map(JasminInstruction::parse).toList();
+    }
+
+    /**
+     * @return the .limit stack of the method in the Jasmin code of a jmm file in cp2/jasmin
+     */
+    private static int getLimitStack(String resource, String methodName, Map<String, String> config) {
+        var jasminCode = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cp2/jasmin/" + resource), config)
+                .getJasminCode();
+        assertEquals("12\n17", TestUtils.runJasmin(jasminCode, config).strip());
+
+        var matcher = Pattern.compile("\\.method public " + methodName + "\\(.*?\\.limit stack (\\d+)", Pattern.DOTALL)
+                .matcher(jasminCode);
+        assertTrue("Expected method " + methodName + " in:\n" + jasminCode, matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    private static String lines(String... lines) {
+        return String.join("\n", lines);
+    }
+
+    @Test
+    public void selectionOutput() {
+        assertOutput(backend("Selection.ollir"), "5\n6\n3\n7\n1\n0\n0\n9\n0\n6");
+    }
+
+    @Test
+    public void storeAndArithmetic() {
+        var sum = CpUtils.getJasminMethod(backend("Selection.ollir"), "sum");
+        CpUtils.matches(sum, "iload_1\\s+iload_2\\s+iadd\\s+istore_?\\d+");
+    }
+
+    @Test
+    public void load() {
+        var copy = CpUtils.getJasminMethod(backend("Selection.ollir"), "copy");
+        CpUtils.matches(copy, "iload_1\\s+istore_?\\d+");
+    }
+
+    @Test
+    public void increment() {
+        var jasminResult = backend("Selection.ollir");
+
+        var increment = CpUtils.getJasminMethod(jasminResult, "increment");
+        CpUtils.matches(increment, "iinc\\s+1\\s+1\\b");
+        assertNotMatches(increment, "iadd");
+
+        var decrement = CpUtils.getJasminMethod(jasminResult, "decrement");
+        CpUtils.matches(decrement, "iinc\\s+1\\s+-2\\b");
+        assertNotMatches(decrement, "isub");
+    }
+
+    @Test
+    public void not() {
+        var not = CpUtils.getJasminMethod(backend("Selection.ollir"), "not");
+        CpUtils.matches(not, "iconst_1\\s+iload_1\\s+ixor");
+    }
+
+    @Test
+    public void comparisonValue() {
+        var jasminResult = backend("Selection.ollir");
+
+        var less = CpUtils.getJasminMethod(jasminResult, "less");
+        CpUtils.matches(less,
+                "iload_1\\s+iload_2\\s+if_icmplt\\s+(\\w+)\\s+iconst_0\\s+goto\\s+\\w+\\s+\\1:\\s+iconst_1");
+        assertNotMatches(less, "isub");
+
+        // against 0 there is no second operand to load
+        var negative = CpUtils.getJasminMethod(jasminResult, "negative");
+        CpUtils.matches(negative, "iload_1\\s+iflt\\s+(\\w+)\\s+iconst_0\\s+goto\\s+\\w+\\s+\\1:\\s+iconst_1");
+        assertNotMatches(negative, "if_icmp");
+    }
+
+    @Test
+    public void comparisonBranch() {
+        var jasminResult = backend("Selection.ollir");
+
+        var max = CpUtils.getJasminMethod(jasminResult, "max");
+        CpUtils.matches(max, "iload_1\\s+iload_2\\s+if_icmplt\\s+second");
+
+        // 0 < a is a > 0
+        var abs = CpUtils.getJasminMethod(jasminResult, "abs");
+        CpUtils.matches(abs, "iload_1\\s+ifgt\\s+positive");
+        assertNotMatches(abs, "if_icmp");
+    }
+
+    @Test
+    public void booleanBranch() {
+        var jasminResult = backend("Selection.ollir");
+
+        var toInt = CpUtils.getJasminMethod(jasminResult, "toInt");
+        CpUtils.matches(toInt, "iload_1\\s+ifne\\s+one");
+
+        // the negation is the opposite jump, not an ixor
+        var toIntNegated = CpUtils.getJasminMethod(jasminResult, "toIntNegated");
+        CpUtils.matches(toIntNegated, "iload_1\\s+ifeq\\s+zero");
+        assertNotMatches(toIntNegated, "ixor");
+    }
+
+    @Test
+    public void gotoNext() {
+        assertEquals(lines("other:", "end:", "return"),
+                peephole("goto-next", "goto end", "other:", "end:", "return"));
+        assertEquals(lines("goto end", "iconst_1", "end:", "return"),
+                peephole("goto-next", "goto end", "iconst_1", "end:", "return"));
+    }
+
+    @Test
+    public void branchOverGoto() {
+        assertEquals(lines("iload_1", "ifne far", "skip:", "return", "far:", "return"),
+                peephole("branch-over-goto", "iload_1", "ifeq skip", "goto far", "skip:", "return", "far:", "return"));
+    }
+
+    @Test
+    public void jumpToGoto() {
+        assertEquals(lines("iload_1", "ifeq end", "return", "middle:", "goto end", "end:", "return"),
+                peephole("jump-to-goto", "iload_1", "ifeq middle", "return", "middle:", "goto end", "end:", "return"));
+    }
+
+    @Test
+    public void unusedLabel() {
+        assertEquals(lines("goto used", "used:", "return"),
+                peephole("unused-label", "goto used", "used:", "unused:", "return"));
+    }
+
+    @Test
+    public void unreachable() {
+        assertEquals(lines("goto end", "end:", "return"),
+                peephole("unreachable", "goto end", "iconst_1", "pop", "end:", "return"));
+    }
+
+    @Test
+    public void storeLoad() {
+        assertEquals(lines("iload_1", "ireturn"),
+                peephole("store-load", "iload_1", "istore_2", "iload_2", "ireturn"));
+
+        // the register is read again, the store is needed
+        assertEquals(lines("iload_1", "istore_2", "iload_2", "iload_2", "iadd", "ireturn"),
+                peephole("store-load", "iload_1", "istore_2", "iload_2", "iload_2", "iadd", "ireturn"));
+    }
+
+    @Test
+    public void selfCopy() {
+        assertEquals("return", peephole("self-copy", "iload 4", "istore 4", "return"));
+    }
+
+    @Test
+    public void pushPop() {
+        assertEquals("return", peephole("push-pop", "bipush 10", "pop", "return"));
+    }
+
+    @Test
+    public void negatedBranch() {
+        assertEquals(lines("iload_1", "ifeq end", "end:", "return"),
+                peephole("negated-branch", "iconst_1", "iload_1", "ixor", "ifne end", "end:", "return"));
+        assertEquals(lines("iload_1", "ifne end", "end:", "return"),
+                peephole("negated-branch", "iload_1", "iconst_1", "ixor", "ifeq end", "end:", "return"));
+    }
+
+    @Test
+    public void initStore() {
+        assertEquals(lines("new A", "dup", "invokespecial A/<init>()V", "astore_1", "return"),
+                peephole("init-store", "new A", "dup", "astore_1", "aload_1", "invokespecial A/<init>()V", "pop",
+                        "return"));
+    }
+
+    @Test
+    public void stackOfNestedCalls() {
+        // this.f(this.f(x, x), this.f(x, x)) without temporaries
+        assertEquals(5, JasminStackAnalysis.getMaxStack(parse(
+                "aload_0", "aload_0", "iload_1", "iload_1", "invokevirtual A/f(II)I",
+                "aload_0", "iload_1", "iload_1", "invokevirtual A/f(II)I",
+                "invokevirtual A/f(II)I", "ireturn")));
+
+        // the arguments of a void static call are popped, an array reference is a single slot
+        assertEquals(3, JasminStackAnalysis.getMaxStack(parse(
+                "aload_1", "iload_2", "aload_1", "invokestatic A/g([II[I)V",
+                "aload_1", "arraylength", "ireturn")));
+    }
+
+    @Test
+    public void stackOfArrays() {
+        // a[i] = a[0] + a[1]
+        assertEquals(5, JasminStackAnalysis.getMaxStack(parse(
+                "aload_1", "iload_2",
+                "aload_1", "iconst_0", "iaload",
+                "aload_1", "iconst_1", "iaload",
+                "iadd", "iastore", "return")));
+    }
+
+    @Test
+    public void stackAcrossBranches() {
+        // both paths reach the end with one value
+        assertEquals(2, JasminStackAnalysis.getMaxStack(parse(
+                "iload_1", "ifeq zero", "iload_1", "iload_1", "iadd", "goto end",
+                "zero:", "iconst_0", "end:", "ireturn")));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void stackHeightsDiffer() {
+        JasminStackAnalysis.getMaxStack(parse("iload_1", "ifeq end", "iconst_0", "end:", "ireturn"));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void popFromEmptyStack() {
+        JasminStackAnalysis.getMaxStack(parse("iadd", "ireturn"));
+    }
+
+    @Test
+    public void limitStackOfGeneratedCode() {
+        // this, x and the last argument of a call, the array, the index and the value of a store
+        assertEquals(3, getLimitStack("StackLimits.jmm", "nested", Collections.emptyMap()));
+        assertEquals(3, getLimitStack("StackLimits.jmm", "arrays", Collections.emptyMap()));
+
+        // the calls to add are inlined, this is no longer loaded
+        assertEquals(2, getLimitStack("StackLimits.jmm", "nested", Map.of("optimize", "true")));
+        assertEquals(3, getLimitStack("StackLimits.jmm", "arrays", Map.of("optimize", "true")));
+    }
+
+    @Test
+    public void framesAtNewerVersions() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp2/jasmin/Frames.jmm");
+        var configs = List.of(
+                Map.of("bytecodeVersion", "52"),
+                Map.of("bytecodeVersion", "61"),
+                Map.of("bytecodeVersion", "61", "optimize", "true"),
+                Map.of("bytecodeVersion", "52", "optimize", "true", "registerAllocation", "0"),
+                Map.of("bytecodeVersion", "61", "registerAllocator", "none"));
+
+        for (var config : configs) {
+            var jasminResult = TestUtils.backend(code, config);
+            CpUtils.matches(jasminResult, "\\.bytecode\\s+" + config.get("bytecodeVersion") + "\\.0");
+            for (var methodName : List.of("pick", "loop", "branchOnly")) {
+                CpUtils.matches(CpUtils.getJasminMethod(jasminResult, methodName), "\\.stack\\s+locals");
+            }
+
+            assertEquals("Output with " + config, "3\n4\n6\n0\n2\n0",
+                    TestUtils.runJasmin(jasminResult.getJasminCode(), config).strip());
+        }
+    }
+
+    @Test
+    public void noFramesByDefault() {
+        var jasminResult = TestUtils.backend(SpecsIo.getResource("pt/up/fe/comp/cp2/jasmin/Frames.jmm"));
+        assertNotMatches(jasminResult.getJasminCode(), "\\.bytecode");
+        assertNotMatches(jasminResult.getJasminCode(), "\\.stack");
+        assertOutput(jasminResult, "3\n4\n6\n0\n2\n0");
+    }
+
+    @Test
+    public void stackifiedOutput() {
+        assertOutput(backend("Stackify.ollir"), "49\n9");
+        assertOutput(backend("Stackify.ollir", Map.of("optimize", "true")), "49\n9");
+    }
+
+    @Test
+    public void singleUseTempsStayOnStack() {
+        var jasminResult = backend("Stackify.ollir", Map.of("optimize", "true"));
+
+        // t goes from imul to iadd and from the last imul to ireturn, x is read twice and is stored
+        var direct = CpUtils.getJasminMethod(jasminResult, "direct");
+        CpUtils.matches(direct, "iload_1\\s+iload_2\\s+imul\\s+iconst_1\\s+iadd\\s+istore[_ ](\\d+)\\s+"
+                + "iload[_ ]\\1\\s+iload[_ ]\\1\\s+imul\\s+ireturn");
+
+        // b is pushed on top of t instead of below it
+        var commutative = CpUtils.getJasminMethod(jasminResult, "commutative");
+        CpUtils.matches(commutative, "iload_1\\s+iload_2\\s+imul\\s+iload_2\\s+iadd\\s+ireturn");
+        assertNotMatches(commutative, "istore");
+
+        // two in each method, main passes the results of the calls straight to println
+        assertTrue(jasminResult.getReports().toString(), jasminResult.getReports().stream()
+                .anyMatch(report -> report.getMessage().equals("Variables kept on the operand stack: 6")));
+    }
+
+    @Test
+    public void tempsStoredWithoutOptimizations() {
+        var direct = CpUtils.getJasminMethod(backend("Stackify.ollir"), "direct");
+        CpUtils.matches(direct, "imul\\s+istore[_ ]\\d+\\s+iload[_ ]\\d+\\s+iconst_1\\s+iadd");
+    }
+
+}
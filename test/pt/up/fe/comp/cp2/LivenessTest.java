@@ -0,0 +1,182 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.Method;
+import org.specs.comp.ollir.Node;
+import org.specs.comp.ollir.NodeType;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRControlFlow;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRInstUtils;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRUse;
+import pt.up.fe.comp2024.optimization.REGopt.REGInstInfo;
+import pt.up.fe.comp2024.optimization.REGopt.REGLiveness;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the liveness computed by {@link REGLiveness} on generated methods with the per-instruction fixpoint it
+ * replaced.
+ */
+public class LivenessTest {
+
+    private static final int VARIABLES = 32;
+
+    /**
+     * Generates a method with a sequence of loops. Each loop body is a chain of temporaries, with an if/else every 50
+     * statements.
+     *
+     * @param statements the number of assignments in the chains, about the number of OLLIR instructions
+     * @param loopLength the number of assignments in each loop
+     * @param seed
+     * @return the code of a class with the method run
+     */
+    private static String generate(int statements, int loopLength, long seed) {
+        var random = new Random(seed);
+        var code = new StringBuilder();
+        code.append("class Generated {\n");
+        code.append("    public int run(int n) {\n");
+        code.append("        int i;\n");
+        for (int v = 0; v < VARIABLES; v++) {
+            code.append("        int v").append(v).append(";\n");
+        }
+        for (int v = 0; v < VARIABLES; v++) {
+            code.append("        v").append(v).append(" = ").append(v).append(";\n");
+        }
+
+        for (int done = 0; done < statements; ) {
+            code.append("        i = 0;\n");
+            code.append("        while (i < n) {\n");
+            for (int inLoop = 0; inLoop < loopLength && done < statements; inLoop++, done++) {
+                int target = random.nextInt(VARIABLES);
+                int left = random.nextInt(VARIABLES);
+                int right = random.nextInt(VARIABLES);
+                if (done % 50 == 49) {
+                    code.append(String.format("            if (v%d < v%d) { v%d = v%d - v%d; } else { v%d = v%d; }\n",
+                            left, right, target, left, right, target, right));
+                } else {
+                    code.append(String.format("            v%d = v%d + v%d;\n", target, left, right));
+                }
+            }
+            code.append("            i = i + 1;\n");
+            code.append("        }\n");
+        }
+
+        code.append("        return v0;\n");
+        code.append("    }\n");
+        code.append("}\n");
+        return code.toString();
+    }
+
+    private static Method compile(String code) {
+        var ollirResult = TestUtils.optimize(code);
+        return ollirResult.getOllirClass().getMethods().stream()
+                .filter(method -> method.getMethodName().equals("run"))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    /**
+     * The equations of the solver REGLiveness used before the bitset framework, with HashSets per instruction. The
+     * instructions are visited backwards instead of in order: the fixpoint is the same, but it is reached in a few
+     * passes instead of one pass per instruction of the longest backward path.
+     *
+     * @return the variables live before and after each instruction
+     */
+    private static Map<Instruction, List<Set<String>>> referenceLiveness(Method method) {
+        OLLIRControlFlow.resetCFG(method);
+        method.buildCFG();
+        Map<Instruction, Set<String>> liveIns = new HashMap<>();
+        Map<Instruction, Set<String>> liveOuts = new HashMap<>();
+
+        List<Instruction> instructions = new ArrayList<>(method.getInstructions());
+        Collections.reverse(instructions);
+        for (Instruction instruction : instructions) {
+            liveIns.put(instruction, new HashSet<>());
+            liveOuts.put(instruction, new HashSet<>());
+        }
+
+        boolean changed;
+        do {
+            changed = false;
+            for (Instruction instruction : instructions) {
+                Set<String> newLiveOuts = new HashSet<>();
+                for (Node successor : instruction.getSuccessors()) {
+                    if (successor.getNodeType() != NodeType.END) newLiveOuts.addAll(liveIns.get((Instruction) successor));
+                }
+
+                Set<String> newLiveIns = new HashSet<>(newLiveOuts);
+                var def = OLLIRInstUtils.getDef(instruction);
+                if (def != null) newLiveIns.remove(def.getName());
+                for (OLLIRUse use : OLLIRInstUtils.getUses(instruction)) {
+                    if (use.getName() != null) newLiveIns.add(use.getName());
+                }
+
+                if (!newLiveIns.equals(liveIns.get(instruction)) || !newLiveOuts.equals(liveOuts.get(instruction))) {
+                    changed = true;
+                }
+
+                liveIns.put(instruction, newLiveIns);
+                liveOuts.put(instruction, newLiveOuts);
+            }
+        } while (changed);
+
+        Map<Instruction, List<Set<String>>> result = new HashMap<>();
+        for (Instruction instruction : instructions) {
+            result.put(instruction, List.of(liveIns.get(instruction), liveOuts.get(instruction)));
+        }
+        return result;
+    }
+
+    private static void assertMatchesReference(int statements, int loopLength, long seed) {
+        var method = compile(generate(statements, loopLength, seed));
+        assertTrue("Expected at least " + statements + " instructions", method.getInstructions().size() >= statements);
+
+        var expected = referenceLiveness(method);
+        var actual = new REGLiveness().livenessAnalysis(method);
+
+        assertEquals(method.getInstructions().size(), actual.size());
+        for (REGInstInfo info : actual) {
+            var instruction = info.getInstruction();
+            var reference = expected.get(instruction);
+            assertEquals("Live in of instruction " + instruction.getId(), reference.get(0), info.getIns());
+            assertEquals("Live out of instruction " + instruction.getId(), reference.get(1), info.getOuts());
+        }
+    }
+
+    @Test
+    public void singleLoop() {
+        assertMatchesReference(500, 500, 1);
+    }
+
+    @Test
+    public void manyLoops() {
+        assertMatchesReference(2000, 120, 2);
+    }
+
+    @Test
+    public void tenThousandInstructions() {
+        assertMatchesReference(10000, 1000, 3);
+    }
+
+    /**
+     * Times REGLiveness on 10k instruction methods.
+     */
+    @Ignore
+    @Test
+    public void benchmark() {
+        for (long seed = 0; seed < 5; seed++) {
+            var method = compile(generate(10000, 1000, seed));
+
+            long start = System.nanoTime();
+            new REGLiveness().livenessAnalysis(method);
+            long elapsed = System.nanoTime() - start;
+
+            System.out.printf("%d instructions: %d ms%n", method.getInstructions().size(), elapsed / 1_000_000);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the shape of the OLLIR generated without optimizations for the programs in cp2/ollir. The programs must also
+ * print the same with and without -o.
+ */
+public class OllirGenerationTest {
+
+    private static String getCode(String resource) {
+        return SpecsIo.getResource("pt/up/fe/comp/cp2/ollir/" + resource);
+    }
+
+    /**
+     * @return the OLLIR of the program, without optimizations or register allocation
+     */
+    private static OllirResult compile(String resource) {
+        return TestUtils.optimize(getCode(resource), Map.of("registerAllocator", "none"));
+    }
+
+    private static String run(String resource, Map<String, String> config) {
+        var jasminResult = TestUtils.backend(getCode(resource), config);
+        return TestUtils.runJasmin(jasminResult.getJasminCode(), config).strip();
+    }
+
+    private static void assertSameOutput(String resource, String expected) {
+        assertEquals(expected, run(resource, Collections.emptyMap()));
+        assertEquals(expected, run(resource, Map.of("optimize", "true")));
+    }
+
+    private static String toString(Method method) {
+        return method.getMethodName() + ":\n" + method.getInstructions().stream()
+                .map(Object::toString)
+                .collect(Collectors.joining("\n"));
+    }
+
+    /**
+     * @return the operation of each conditional branch of the method, in order
+     */
+    private static List<OperationType> getBranchOperations(Method method) {
+        return CpUtils.getInstructions(CondBranchInstruction.class, method).stream()
+                .map(branch -> ((OpInstruction) branch.getCondition()).getOperation().getOpType())
+                .toList();
+    }
+
+    private static void assertNoBooleanTemps(Method method) {
+        for (var assign : CpUtils.getInstructions(AssignInstruction.class, method)) {
+            assertNotEquals(toString(method), ElementType.BOOLEAN, assign.getTypeOfAssign().getTypeOfElement());
+        }
+    }
+
+    /**
+     * A rotated loop is a guard that jumps past it, the body starting at the loop label, and a test at the bottom that
+     * jumps back to the label.
+     */
+    private static void assertRotated(Method method, String loopLabel, String endLabel) {
+        var instructions = method.getInstructions();
+        int start = instructions.indexOf(method.getLabels().get(loopLabel));
+        int end = instructions.indexOf(method.getLabels().get(endLabel));
+        assertTrue(toString(method), start >= 0 && end > start);
+
+        var branches = CpUtils.getInstructions(CondBranchInstruction.class, method);
+        assertTrue(toString(method), branches.stream().anyMatch(branch -> branch.getLabel().equals(endLabel)
+                && instructions.indexOf(branch) == start - 1));
+        assertTrue(toString(method), branches.stream().anyMatch(branch -> branch.getLabel().equals(loopLabel)
+                && instructions.indexOf(branch) == end - 1));
+    }
+
+    /**
+     * @return the only assignment to the variable in the method
+     */
+    private static AssignInstruction getAssignTo(Method method, String name) {
+        var assigns = CpUtils.getInstructions(AssignInstruction.class, method).stream()
+                .filter(assign -> assign.getDest() instanceof Operand dest && dest.getName().equals(name))
+                .toList();
+        assertEquals(toString(method), 1, assigns.size());
+        return assigns.get(0);
+    }
+
+    private static long countTemps(Method method) {
+        return method.getVarTable().keySet().stream().filter(name -> name.matches("tmp\\d+")).count();
+    }
+
+    @Test
+    public void conditionsOutput() {
+        assertSameOutput("Conditions.jmm", "1\n0\n2\n1\n4\n11\n10");
+    }
+
+    @Test
+    public void comparisonsBranchDirectly() {
+        var ollir = compile("Conditions.jmm");
+
+        // each comparison jumps to the else part when it is false
+        var both = CpUtils.getMethod(ollir, "both");
+        assertNoBooleanTemps(both);
+        assertEquals(toString(both), List.of(OperationType.GTE, OperationType.GTE), getBranchOperations(both));
+
+        // the negation swaps the outcome that jumps
+        var negated = CpUtils.getMethod(ollir, "negated");
+        assertNoBooleanTemps(negated);
+        assertEquals(toString(negated), List.of(OperationType.LTH), getBranchOperations(negated));
+        assertTrue(toString(negated), CpUtils.getOperationInstances(OperationType.NOTB, negated, ollir).isEmpty());
+    }
+
+    @Test
+    public void booleansBranchDirectly() {
+        var ollir = compile("Conditions.jmm");
+
+        // 'if (f)' jumps to the else part on '!f', '!f && r < 10' is a branch per operand
+        var flag = CpUtils.getMethod(ollir, "flag");
+        assertNoBooleanTemps(flag);
+        assertTrue(toString(flag), CpUtils.getOperationInstances(OperationType.ANDB, flag, ollir).isEmpty());
+        var branches = CpUtils.getInstructions(CondBranchInstruction.class, flag);
+        assertTrue(toString(flag), branches.get(0).getCondition() instanceof UnaryOpInstruction not
+                && not.getOperation().getOpType() == OperationType.NOTB);
+        assertTrue(toString(flag), branches.get(1).getCondition() instanceof SingleOpInstruction);
+
+        // 'if (true)' is no branch at all
+        var literal = CpUtils.getMethod(ollir, "literal");
+        assertTrue(toString(literal), CpUtils.getInstructions(CondBranchInstruction.class, literal).isEmpty());
+    }
+
+    @Test
+    public void loopsOutput() {
+        assertSameOutput("Loops.jmm", "10\n0\n6\n0");
+    }
+
+    @Test
+    public void loopsRotated() {
+        var ollir = compile("Loops.jmm");
+
+        var count = CpUtils.getMethod(ollir, "count");
+        assertRotated(count, "whileLoop1", "whileEnd1");
+        assertEquals(toString(count), 2, CpUtils.getInstructions(CondBranchInstruction.class, count).size());
+        assertTrue(toString(count), CpUtils.getInstructions(GotoInstruction.class, count).isEmpty());
+
+        var nested = CpUtils.getMethod(ollir, "nested");
+        assertRotated(nested, "whileLoop1", "whileEnd1");
+        assertRotated(nested, "whileLoop2", "whileEnd2");
+        assertTrue(toString(nested), CpUtils.getInstructions(GotoInstruction.class, nested).isEmpty());
+    }
+
+    @Test
+    public void tempsOutput() {
+        assertSameOutput("Temps.jmm", "5\n13\n10");
+    }
+
+    @Test
+    public void assignmentsWithoutTemps() {
+        var ollir = compile("Temps.jmm");
+
+        // x = a + b is a single instruction
+        var sum = CpUtils.getMethod(ollir, "sum");
+        assertTrue(toString(sum), getAssignTo(sum, "x").getRhs() instanceof BinaryOpInstruction);
+        assertEquals(toString(sum), 0, countTemps(sum));
+        assertEquals(toString(sum), 2, sum.getInstructions().size());
+
+        // calls, array reads, lengths and field reads write the variable directly
+        var direct = CpUtils.getMethod(ollir, "direct");
+        assertTrue(toString(direct), getAssignTo(direct, "x").getRhs() instanceof CallInstruction call
+                && call.getInvocationType() == CallType.invokevirtual);
+        assertTrue(toString(direct), getAssignTo(direct, "y").getRhs() instanceof SingleOpInstruction load
+                && load.getSingleOperand() instanceof ArrayOperand);
+        assertTrue(toString(direct), getAssignTo(direct, "z").getRhs() instanceof CallInstruction call
+                && call.getInvocationType() == CallType.arraylength);
+        assertTrue(toString(direct), getAssignTo(direct, "w").getRhs() instanceof GetFieldInstruction);
+    }
+
+    @Test
+    public void tempsOnlyForInnerValues() {
+        var ollir = compile("Temps.jmm");
+
+        // a * b needs a temp, the sum is written to x
+        var nested = CpUtils.getMethod(ollir, "nested");
+        var x = getAssignTo(nested, "x").getRhs();
+        assertTrue(toString(nested), x instanceof BinaryOpInstruction add
+                && add.getOperation().getOpType() == OperationType.ADD);
+        assertEquals(toString(nested), 1, countTemps(nested));
+        assertEquals(toString(nested), 3, nested.getInstructions().size());
+    }
+
+}
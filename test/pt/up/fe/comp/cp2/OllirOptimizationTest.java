@@ -0,0 +1,308 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRConstantPropagation;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRDeadCodeElimination;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRInliner;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRInstUtils;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRLoopInvariantMotion;
+import pt.up.fe.comp2024.optimization.OLLIRopt.OLLIRValueNumbering;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the OLLIR optimizations one at a time on the OLLIR generated without -o, and checks the instructions they
+ * leave. The programs must also print the same with and without -o.
+ */
+public class OllirOptimizationTest {
+
+    private static String getCode(String resource) {
+        return SpecsIo.getResource("pt/up/fe/comp/cp2/optimizations/" + resource);
+    }
+
+    /**
+     * @return the OLLIR of the program, without optimizations or register allocation
+     */
+    private static OllirResult compile(String resource) {
+        return TestUtils.optimize(getCode(resource), Map.of("registerAllocator", "none"));
+    }
+
+    /**
+     * @return the class of an OLLIR file
+     */
+    private static OllirResult parse(String resource) {
+        return new OllirResult(getCode(resource), Collections.emptyMap());
+    }
+
+    private static String run(String resource, Map<String, String> config) {
+        var jasminResult = TestUtils.backend(getCode(resource), config);
+        return TestUtils.runJasmin(jasminResult.getJasminCode(), config).strip();
+    }
+
+    private static void assertSameOutput(String resource, String expected) {
+        assertEquals(expected, run(resource, Collections.emptyMap()));
+        assertEquals(expected, run(resource, Map.of("optimize", "true")));
+    }
+
+    private static String toString(Method method) {
+        return method.getMethodName() + ":\n" + method.getInstructions().stream()
+                .map(Object::toString)
+                .collect(Collectors.joining("\n"));
+    }
+
+    private static long countCalls(Method method, String methodName) {
+        var quoted = "\"" + methodName + "\"";
+        return CpUtils.getInstructions(CallInstruction.class, method).stream()
+                .filter(call -> call.getMethodNameTry().orElse(null) instanceof LiteralElement name
+                        && name.getLiteral().equals(quoted))
+                .count();
+    }
+
+    /**
+     * @return the literal returned by the method, or null if it returns a variable
+     */
+    private static String getReturnedLiteral(Method method) {
+        var returns = CpUtils.getInstructions(ReturnInstruction.class, method);
+        assertEquals(toString(method), 1, returns.size());
+        return returns.get(0).getOperand() instanceof LiteralElement literal ? literal.getLiteral() : null;
+    }
+
+    /**
+     * @return true if the assignment to the variable comes before the instruction with the label
+     */
+    private static boolean definedBefore(Method method, String name, String label) {
+        var instructions = method.getInstructions();
+        var definition = instructions.stream()
+                .filter(instruction -> OLLIRInstUtils.getDef(instruction) != null
+                        && OLLIRInstUtils.getDef(instruction).getName().equals(name))
+                .findFirst().orElseThrow();
+        return instructions.indexOf(definition) < instructions.indexOf(method.getLabels().get(label));
+    }
+
+    @Test
+    public void constantsThroughBranchesOutput() {
+        assertSameOutput("ConstantBranches.jmm", "4\n4\n10\n10\n1\n2");
+    }
+
+    @Test
+    public void constantsThroughPhis() {
+        var ollir = compile("ConstantBranches.jmm");
+        var propagation = new OLLIRConstantPropagation();
+
+        var samePhi = CpUtils.getMethod(ollir, "samePhi");
+        propagation.optimize(samePhi);
+        assertEquals(toString(samePhi), "4", getReturnedLiteral(samePhi));
+
+        var loop = CpUtils.getMethod(ollir, "loop");
+        propagation.optimize(loop);
+        assertEquals(toString(loop), "10", getReturnedLiteral(loop));
+
+        // 1 and 2 meet at the phi, x is not a constant
+        var differentPhi = CpUtils.getMethod(ollir, "differentPhi");
+        propagation.optimize(differentPhi);
+        assertNull(toString(differentPhi), getReturnedLiteral(differentPhi));
+    }
+
+    @Test
+    public void constantBranchFolded() {
+        var ollir = compile("ConstantBranches.jmm");
+        var deadBranch = CpUtils.getMethod(ollir, "deadBranch");
+        assertFalse(CpUtils.getInstructions(CondBranchInstruction.class, deadBranch).isEmpty());
+
+        var propagation = new OLLIRConstantPropagation();
+        propagation.optimize(deadBranch);
+
+        assertTrue(toString(deadBranch), CpUtils.getInstructions(CondBranchInstruction.class, deadBranch).isEmpty());
+        assertEquals(toString(deadBranch), "10", getReturnedLiteral(deadBranch));
+        assertEquals(1, propagation.getFoldedBranches());
+    }
+
+    @Test
+    public void deadCodeOutput() {
+        assertSameOutput("DeadCode.jmm", "5\n6");
+    }
+
+    @Test
+    public void unreachableBlocksRemoved() {
+        var ollir = compile("DeadCode.jmm");
+        var deadCode = new OLLIRDeadCodeElimination();
+
+        var literalBranch = CpUtils.getMethod(ollir, "literalBranch");
+        assertEquals(1, countCalls(literalBranch, "println"));
+        deadCode.optimize(literalBranch);
+        assertEquals(toString(literalBranch), 0, countCalls(literalBranch, "println"));
+        assertTrue(toString(literalBranch),
+                CpUtils.getInstructions(CondBranchInstruction.class, literalBranch).isEmpty());
+        assertTrue(toString(literalBranch), literalBranch.getLabels().isEmpty());
+
+        var neverLoops = CpUtils.getMethod(ollir, "neverLoops");
+        deadCode.optimize(neverLoops);
+        assertEquals(toString(neverLoops), 0, countCalls(neverLoops, "println"));
+        assertTrue(toString(neverLoops), CpUtils.getInstructions(GotoInstruction.class, neverLoops).isEmpty());
+        assertEquals(toString(neverLoops), 1, neverLoops.getInstructions().size());
+    }
+
+    @Test
+    public void deadTempsRemoved() {
+        var ollir = parse("DeadTemps.ollir");
+        var deadCode = new OLLIRDeadCodeElimination();
+
+        // tmp1 is never read, and then neither is tmp0
+        var unusedValue = CpUtils.getMethod(ollir, "unusedValue");
+        deadCode.optimize(unusedValue);
+        assertEquals(toString(unusedValue), 1, unusedValue.getInstructions().size());
+
+        // the value of the call is not used, but the call is kept
+        var unusedCall = CpUtils.getMethod(ollir, "unusedCall");
+        deadCode.optimize(unusedCall);
+        assertEquals(toString(unusedCall), 1, countCalls(unusedCall, "unusedValue"));
+    }
+
+    @Test
+    public void valueNumberingOutput() {
+        assertSameOutput("Redundant.jmm", "13\n12\n24\n27");
+    }
+
+    @Test
+    public void redundantExpressionComputedOnce() {
+        var ollir = compile("Redundant.jmm");
+        var valueNumbering = new OLLIRValueNumbering();
+
+        var product = CpUtils.getMethod(ollir, "product");
+        assertEquals(3, CpUtils.getOperationInstances(OperationType.MUL, product, ollir).size());
+        valueNumbering.optimize(product);
+        assertEquals(toString(product), 1, CpUtils.getOperationInstances(OperationType.MUL, product, ollir).size());
+
+        var fieldTwice = CpUtils.getMethod(ollir, "fieldTwice");
+        valueNumbering.optimize(fieldTwice);
+        assertEquals(toString(fieldTwice), 1, CpUtils.getInstructions(GetFieldInstruction.class, fieldTwice).size());
+        assertEquals(toString(fieldTwice), 1,
+                CpUtils.getOperationInstances(OperationType.MUL, fieldTwice, ollir).size());
+    }
+
+    @Test
+    public void fieldReadAgainAfterCall() {
+        var ollir = compile("Redundant.jmm");
+        var fieldAfterCall = CpUtils.getMethod(ollir, "fieldAfterCall");
+        assertEquals(3, CpUtils.getInstructions(GetFieldInstruction.class, fieldAfterCall).size());
+
+        new OLLIRValueNumbering().optimize(fieldAfterCall);
+
+        // the read for the argument reuses the first one, the read after the call does not
+        assertEquals(toString(fieldAfterCall), 2,
+                CpUtils.getInstructions(GetFieldInstruction.class, fieldAfterCall).size());
+        assertEquals(toString(fieldAfterCall), 2,
+                CpUtils.getOperationInstances(OperationType.MUL, fieldAfterCall, ollir).size());
+    }
+
+    @Test
+    public void loopInvariantMotionOutput() {
+        // the empty arrays are never read, hoisting the loads must not make them throw
+        assertSameOutput("Hoisting.jmm", "12\n0\n0\n1\n8\n0");
+    }
+
+    @Test
+    public void throwingInstructionRunsFirst() {
+        var ollir = parse("LoopInvariant.ollir");
+        var motion = new OLLIRLoopInvariantMotion();
+
+        var firstInHeader = CpUtils.getMethod(ollir, "firstInHeader");
+        assertTrue(motion.optimize(firstInHeader));
+        assertTrue(toString(firstInHeader), definedBefore(firstInHeader, "x", "loop"));
+
+        var divisionFirst = CpUtils.getMethod(ollir, "divisionFirst");
+        assertTrue(motion.optimize(divisionFirst));
+        assertTrue(toString(divisionFirst), definedBefore(divisionFirst, "x", "loop"));
+
+        assertEquals(2, motion.getHoisted());
+    }
+
+    @Test
+    public void throwingInstructionNotFirst() {
+        var ollir = parse("LoopInvariant.ollir");
+        var motion = new OLLIRLoopInvariantMotion();
+
+        // the load would throw before the call prints
+        var afterCall = CpUtils.getMethod(ollir, "afterCall");
+        assertFalse(motion.optimize(afterCall));
+        assertFalse(toString(afterCall), definedBefore(afterCall, "x", "loop"));
+
+        // the load would throw when the loop runs no iterations
+        var afterTest = CpUtils.getMethod(ollir, "afterTest");
+        assertFalse(motion.optimize(afterTest));
+        assertFalse(toString(afterTest), definedBefore(afterTest, "x", "loop"));
+
+        assertEquals(0, motion.getHoisted());
+    }
+
+    @Test
+    public void inlinerOutput() {
+        assertSameOutput("Inline.jmm", "5\n79\n83");
+        for (var budget : new String[]{"0", "1", "6", "100"}) {
+            assertEquals("Output with budget " + budget, "5\n79\n83",
+                    run("Inline.jmm", Map.of("optimize", "true", "inlineBudget", budget)));
+        }
+    }
+
+    @Test
+    public void callsWithinBudgetInlined() {
+        var ollir = compile("Inline.jmm");
+        var big = CpUtils.getMethod(ollir, "big");
+        // the body of big plus the copy of x, minus the call
+        int cost = big.getInstructions().size() + big.getParams().size() - 1;
+
+        var inliner = new OLLIRInliner(cost);
+        inliner.optimize(ollir.getOllirClass());
+        assertTrue(inliner.getInlined() >= 3);
+
+        var callsBig = CpUtils.getMethod(ollir, "callsBig");
+        assertEquals(toString(callsBig), 0, countCalls(callsBig, "big"));
+        assertEquals(toString(callsBig), CpUtils.getOperationInstances(OperationType.MUL, big, ollir).size(),
+                CpUtils.getOperationInstances(OperationType.MUL, callsBig, ollir).size());
+        var callsAdd = CpUtils.getMethod(ollir, "callsAdd");
+        assertEquals(toString(callsAdd), 0, countCalls(callsAdd, "add"));
+    }
+
+    @Test
+    public void callsOverBudgetKept() {
+        var ollir = compile("Inline.jmm");
+        var big = CpUtils.getMethod(ollir, "big");
+        int cost = big.getInstructions().size() + big.getParams().size() - 1;
+
+        // the budget doubles in the loop, so big only fits there
+        new OLLIRInliner(cost - 1).optimize(ollir.getOllirClass());
+        var callsBig = CpUtils.getMethod(ollir, "callsBig");
+        assertEquals(toString(callsBig), 1, countCalls(callsBig, "big"));
+        var bigInLoop = CpUtils.getMethod(ollir, "bigInLoop");
+        assertEquals(toString(bigInLoop), 0, countCalls(bigInLoop, "big"));
+
+        // half the cost does not fit even in the loop
+        var other = compile("Inline.jmm");
+        new OLLIRInliner((cost - 1) / 2).optimize(other.getOllirClass());
+        assertEquals(1, countCalls(CpUtils.getMethod(other, "callsBig"), "big"));
+        assertEquals(1, countCalls(CpUtils.getMethod(other, "bigInLoop"), "big"));
+    }
+
+    @Test
+    public void inlineBudgetOption() {
+        var code = getCode("Inline.jmm");
+
+        var none = TestUtils.optimize(code, Map.of("optimize", "true", "inlineBudget", "0"));
+        assertEquals(1, countCalls(CpUtils.getMethod(none, "callsBig"), "big"));
+        assertEquals(1, countCalls(CpUtils.getMethod(none, "callsAdd"), "add"));
+
+        var large = TestUtils.optimize(code, Map.of("optimize", "true", "inlineBudget", "100"));
+        assertEquals(0, countCalls(CpUtils.getMethod(large, "callsBig"), "big"));
+        assertEquals(0, countCalls(CpUtils.getMethod(large, "bigInLoop"), "big"));
+    }
+
+}
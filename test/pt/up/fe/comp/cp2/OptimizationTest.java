@@ -0,0 +1,125 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs programs with and without -o, the optimized code must print the same as the original.
+ */
+public class OptimizationTest {
+
+    private static String run(String resource, Map<String, String> config) {
+        return run(resource, Collections.emptyList(), config);
+    }
+
+    private static String run(String resource, List<String> args, Map<String, String> config) {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp2/optimizations/" + resource);
+        var jasminResult = TestUtils.backend(code, config);
+        return TestUtils.runJasmin(jasminResult.getJasminCode(), args, config).strip();
+    }
+
+    /**
+     * @return the OLLIR generated with -o for the given method, after the AST optimizations
+     */
+    private static String optimizedOllir(String resource, String methodName) {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp2/optimizations/" + resource);
+        var ollirCode = TestUtils.optimize(code, Map.of("optimize", "true")).getOllirCode();
+        var matcher = Pattern.compile("\\.method public " + methodName + "\\(.*?\n}", Pattern.DOTALL).matcher(ollirCode);
+        assertTrue("Expected method " + methodName + " in:\n" + ollirCode, matcher.find());
+        return matcher.group();
+    }
+
+    private static void assertSameOutput(String resource, String expected) {
+        assertEquals(expected, run(resource, Collections.emptyMap()));
+        assertEquals(expected, run(resource, Map.of("optimize", "true")));
+    }
+
+    @Test
+    public void fieldStoreKept() {
+        assertSameOutput("FieldStore.jmm", "42\n6");
+    }
+
+    @Test
+    public void fieldChangedByCall() {
+        assertSameOutput("FieldAcrossCall.jmm", "1\n7");
+    }
+
+    @Test
+    public void propagationAtJoins() {
+        assertSameOutput("PropagationJoins.jmm", "15\n4\n38\n9");
+    }
+
+    @Test
+    public void tailCallDeepRecursion() {
+        // a million nested calls overflow the stack unless the recursion became a loop
+        assertEquals("1000000", run("TailSum.jmm", Map.of("optimize", "true")));
+        assertNotEquals("1000000", run("TailSum.jmm", Collections.emptyMap()));
+    }
+
+    @Test
+    public void tailCallSwappedArguments() {
+        assertSameOutput("TailSwap.jmm", "-7\n7");
+    }
+
+    @Test
+    public void foldingKeepsSemantics() {
+        assertSameOutput("Folding.jmm", "7\n0\n8\n0\n-2147483647\n0\n1\n1\n0\n1");
+    }
+
+    @Test
+    public void foldingKeepsCalls() {
+        var zeroTimesCall = optimizedOllir("Folding.jmm", "zeroTimesCall");
+        assertTrue(zeroTimesCall, zeroTimesCall.contains("\"f\""));
+        var callAndFalse = optimizedOllir("Folding.jmm", "callAndFalse");
+        assertTrue(callAndFalse, callAndFalse.contains("\"g\""));
+    }
+
+    @Test
+    public void foldingRewritesExpressions() {
+        // (x + 2147483647) + 1 is x + (2147483647 + 1), which wraps around
+        var wrap = optimizedOllir("Folding.jmm", "wrap");
+        assertTrue(wrap, wrap.contains("x.i32 +.i32 -2147483648.i32"));
+        assertFalse(wrap, wrap.contains("2147483647"));
+
+        var notLess = optimizedOllir("Folding.jmm", "notLess");
+        assertTrue(notLess, notLess.contains("a.i32 >=.bool b.i32"));
+        assertFalse(notLess, notLess.contains("!.bool"));
+
+        var notNot = optimizedOllir("Folding.jmm", "notNot");
+        assertTrue(notNot, notNot.contains("ret.bool c.bool"));
+
+        var selfMinus = optimizedOllir("Folding.jmm", "selfMinus");
+        assertTrue(selfMinus, selfMinus.contains("ret.i32 0.i32"));
+
+        var selfLessEqual = optimizedOllir("Folding.jmm", "selfLessEqual");
+        assertTrue(selfLessEqual, selfLessEqual.contains("ret.bool 1.bool"));
+    }
+
+    @Test
+    public void divisionByZeroLeftForRunTime() {
+        for (String methodName : List.of("divideLiteral", "divide")) {
+            var ollir = optimizedOllir("FoldingDivision.jmm", methodName);
+            assertTrue(ollir, ollir.contains("/.i32 0.i32"));
+        }
+
+        // both divisions throw before the last print, with and without -o
+        for (var args : List.of(Collections.<String>emptyList(), List.of("x"))) {
+            for (var config : List.of(Collections.<String, String>emptyMap(), Map.of("optimize", "true"))) {
+                var output = run("FoldingDivision.jmm", args, config);
+                assertTrue(output, output.startsWith("1\nException in thread \"main\" java.lang.ArithmeticException"));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Test;
+import pt.up.fe.comp2024.optimization.ASTopt.PersistentMap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PersistentMapTest {
+
+    /**
+     * Key with a chosen hash code, to force collisions.
+     */
+    private record Key(String name, int hash) {
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static <K, V> void assertContainsExactly(Map<K, V> expected, PersistentMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        expected.forEach((key, value) -> assertEquals(value, map.get(key)));
+
+        List<V> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertEquals(expected.size(), values.size());
+        assertTrue(values.containsAll(expected.values()));
+    }
+
+    @Test
+    public void putGetAndOverwrite() {
+        PersistentMap<String, Integer> map = PersistentMap.empty();
+        Map<String, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            map = map.put("v" + i, i);
+            expected.put("v" + i, i);
+        }
+        assertContainsExactly(expected, map);
+
+        // overwriting keeps the size
+        map = map.put("v10", -10);
+        expected.put("v10", -10);
+        assertContainsExactly(expected, map);
+
+        assertNull(map.get("missing"));
+        assertFalse(map.containsKey("missing"));
+        assertTrue(map.containsKey("v1999"));
+    }
+
+    @Test
+    public void collisionsAtFullDepth() {
+        // same hash: every level of the trie is the same, the keys end up chained
+        var a = new Key("a", 0x12345678);
+        var b = new Key("b", 0x12345678);
+        var c = new Key("c", 0x12345678);
+        // only differ in the two highest bits, the last level of the trie
+        var d = new Key("d", 0x12345678 ^ 0x40000000);
+        var e = new Key("e", 0x12345678 ^ 0x80000000);
+
+        PersistentMap<Key, String> map = PersistentMap.empty();
+        for (var key : List.of(a, b, c, d, e)) {
+            map = map.put(key, key.name());
+        }
+        assertContainsExactly(Map.of(a, "a", b, "b", c, "c", d, "d", e, "e"), map);
+
+        // overwrite in the middle of a chain
+        map = map.put(b, "B");
+        assertContainsExactly(Map.of(a, "a", b, "B", c, "c", d, "d", e, "e"), map);
+
+        // remove from the middle of a chain, and a key that is not there but has the same hash
+        map = map.remove(b).remove(new Key("x", 0x12345678));
+        assertContainsExactly(Map.of(a, "a", c, "c", d, "d", e, "e"), map);
+        assertNull(map.get(b));
+
+        map = map.remove(d).remove(a);
+        assertContainsExactly(Map.of(c, "c", e, "e"), map);
+    }
+
+    @Test
+    public void removeDownToEmpty() {
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        List<Key> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // few distinct hashes, so there are both deep nodes and chains
+            var key = new Key("k" + i, (i % 37) * 0x01010101);
+            keys.add(key);
+            map = map.put(key, i);
+        }
+        assertEquals(500, map.size());
+
+        for (int i = 0; i < keys.size(); i++) {
+            map = map.remove(keys.get(i));
+            assertEquals(keys.size() - i - 1, map.size());
+            assertNull(map.get(keys.get(i)));
+        }
+
+        assertTrue(map.isEmpty());
+        List<Integer> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertTrue(values.isEmpty());
+
+        // removing from an empty map does nothing, and it can be filled again
+        assertSame(map, map.remove(keys.get(0)));
+        map = map.put(keys.get(0), 0);
+        assertEquals(Integer.valueOf(0), map.get(keys.get(0)));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void derivedVersionsDoNotChangeTheOriginal() {
+        PersistentMap<Key, Integer> original = PersistentMap.empty();
+        Map<Key, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            var key = new Key("k" + i, i % 50 == 0 ? 7 : i * 31);
+            original = original.put(key, i);
+            expected.put(key, i);
+        }
+
+        var keys = new ArrayList<>(expected.keySet());
+        var added = original.put(new Key("new", 7), -1);
+        var overwritten = original.put(keys.get(3), -3);
+        var removed = original.remove(keys.get(5));
+        var removedAll = original.removeAll(keys.subList(0, 100));
+
+        assertContainsExactly(expected, original);
+
+        assertEquals(expected.size() + 1, added.size());
+        assertEquals(Integer.valueOf(-1), added.get(new Key("new", 7)));
+        assertEquals(Integer.valueOf(-3), overwritten.get(keys.get(3)));
+        assertNull(removed.get(keys.get(5)));
+        assertEquals(expected.size() - 100, removedAll.size());
+        keys.subList(0, 100).forEach(key -> assertFalse(removedAll.containsKey(key)));
+        keys.subList(100, keys.size()).forEach(key -> assertEquals(expected.get(key), removedAll.get(key)));
+
+        // removing keys that are not there returns the same map
+        assertSame(original, original.remove(new Key("missing", 12345)));
+        assertSame(original, original.removeAll(List.of(new Key("missing", 7))));
+    }
+}
@@ -0,0 +1,152 @@
+package pt.up.fe.comp.cp2;
+
+import org.junit.Test;
+import org.specs.comp.ollir.Method;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2024.optimization.REGopt.REGSlotOrdering;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs programs with every register allocator, the class files must pass the verifier and print the same.
+ */
+public class RegisterAllocationTest {
+
+    private static final List<Map<String, String>> CONFIGS = List.of(
+            Collections.emptyMap(),
+            Map.of("optimize", "true"),
+            Map.of("registerAllocation", "0"),
+            Map.of("optimize", "true", "registerAllocation", "2"),
+            Map.of("registerAllocator", "linear"),
+            Map.of("registerAllocator", "graph"),
+            Map.of("registerAllocator", "none"),
+            Map.of("bytecodeVersion", "52"),
+            Map.of("optimize", "true", "bytecodeVersion", "61"));
+
+    private static String getCode(String resource) {
+        return SpecsIo.getResource("pt/up/fe/comp/cp2/registers/" + resource);
+    }
+
+    private static String run(String resource, Map<String, String> config) {
+        var jasminResult = TestUtils.backend(getCode(resource), config);
+        return TestUtils.runJasmin(jasminResult.getJasminCode(), config).strip();
+    }
+
+    /**
+     * @return the .limit locals of the method in the Jasmin code generated with the given config
+     */
+    private static int getLimitLocals(String resource, String methodName, Map<String, String> config) {
+        var jasminCode = TestUtils.backend(getCode(resource), config).getJasminCode();
+        var matcher = Pattern.compile("\\.method public " + methodName + "\\(.*?\\.limit locals (\\d+)", Pattern.DOTALL)
+                .matcher(jasminCode);
+        assertTrue("Expected method " + methodName + " in:\n" + jasminCode, matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    /**
+     * @return the messages of the warnings reported by register allocation
+     */
+    private static List<String> getWarnings(String resource, Map<String, String> config) {
+        return TestUtils.optimize(getCode(resource), config).getReports().stream()
+                .filter(report -> report.getType() == ReportType.WARNING)
+                .map(Report::getMessage)
+                .toList();
+    }
+
+    private static int getRegister(Method method, String name) {
+        return method.getVarTable().get(name).getVirtualReg();
+    }
+
+    private static void assertOutputWithEveryAllocator(String resource, String expected) {
+        for (var config : CONFIGS) {
+            assertEquals("Output with " + config, expected, run(resource, config));
+        }
+    }
+
+    @Test
+    public void thisCopiedToLocal() {
+        assertOutputWithEveryAllocator("ThisCopy.jmm", "8");
+    }
+
+    @Test
+    public void objectLocalsAcrossLoops() {
+        assertOutputWithEveryAllocator("LoopLocals.jmm", "175\n165");
+    }
+
+    @Test
+    public void linearScanByDefault() {
+        // without -r the registers are shared by linear scan, the same as asking for it
+        int byDefault = getLimitLocals("LoopLocals.jmm", "mix", Collections.emptyMap());
+        assertEquals(getLimitLocals("LoopLocals.jmm", "mix", Map.of("registerAllocator", "linear")), byDefault);
+        assertTrue(byDefault < getLimitLocals("LoopLocals.jmm", "mix", Map.of("registerAllocator", "none")));
+    }
+
+    @Test
+    public void spillsPastTheLimit() {
+        // this, a, b and other take the 4 registers, the locals are spilled to registers past the limit
+        var config = Map.of("registerAllocator", "graph", "registerAllocation", "4");
+        var warnings = getWarnings("LoopLocals.jmm", config);
+        assertTrue(warnings.toString(), warnings.stream().anyMatch(warning -> warning.matches(
+                "Register allocation in mix: \\d+ variables spilled, \\d+ registers used, 4 available")));
+        assertTrue(getLimitLocals("LoopLocals.jmm", "mix", config) > 4);
+        assertEquals("175\n165", run("LoopLocals.jmm", config));
+
+        // with -r=0 the registers are as many as needed, nothing is spilled
+        var minimal = Map.of("registerAllocation", "0");
+        assertTrue(getWarnings("LoopLocals.jmm", minimal).isEmpty());
+        assertTrue(getLimitLocals("LoopLocals.jmm", "mix", minimal)
+                <= getLimitLocals("LoopLocals.jmm", "mix", config));
+    }
+
+    @Test
+    public void fewerRegistersThanParameters() {
+        var config = Map.of("registerAllocator", "graph", "registerAllocation", "2");
+        var warnings = getWarnings("LoopLocals.jmm", config);
+        assertTrue(warnings.toString(), warnings.contains(
+                "Method mix needs at least 4 registers for this and its parameters, 2 available"));
+        // add has this and x, main has args
+        assertFalse(warnings.toString(), warnings.stream().anyMatch(warning -> warning.startsWith("Method add ")));
+        assertFalse(warnings.toString(), warnings.stream().anyMatch(warning -> warning.startsWith("Method main ")));
+        assertEquals("175\n165", run("LoopLocals.jmm", config));
+
+        // linear scan never spills, it reports the registers it needed past the limit
+        var linear = Map.of("registerAllocator", "linear", "registerAllocation", "2");
+        var linearWarnings = getWarnings("LoopLocals.jmm", linear);
+        assertTrue(linearWarnings.toString(), linearWarnings.stream().anyMatch(warning ->
+                warning.matches("Linear scan in mix: \\d+ registers used, 2 available")));
+        assertEquals("175\n165", run("LoopLocals.jmm", linear));
+    }
+
+    @Test
+    public void slotsOrderedByUse() {
+        // without allocation the locals have the registers of their declarations, hot is the last one
+        var ollirResult = TestUtils.optimize(getCode("Slots.jmm"), Map.of("registerAllocator", "none"));
+        var run = CpUtils.getMethod(ollirResult, "run");
+        var main = CpUtils.getMethod(ollirResult, "main");
+        assertTrue(getRegister(run, "hot") > 3);
+
+        new REGSlotOrdering().reorder(ollirResult);
+
+        // the loop variables take the first register after this and the parameters
+        assertEquals(3, getRegister(run, "hot"));
+        assertEquals(1, getRegister(run, "a"));
+        assertEquals(2, getRegister(run, "b"));
+        assertEquals(1, getRegister(main, "i"));
+        assertEquals(0, getRegister(main, "args"));
+
+        assertEquals("18\n18", run("Slots.jmm", Collections.emptyMap()));
+        assertEquals("18\n18", run("Slots.jmm", Map.of("registerAllocator", "graph")));
+    }
+
+}